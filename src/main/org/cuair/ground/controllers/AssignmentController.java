@@ -4,12 +4,22 @@ import static org.springframework.http.ResponseEntity.badRequest;
 import static org.springframework.http.ResponseEntity.noContent;
 import static org.springframework.http.ResponseEntity.ok;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.AssignmentDispatcher;
+import org.cuair.ground.daos.AssignmentLeases;
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.ImageDatabaseAccessor;
 import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
+import org.cuair.ground.daos.TransactionCallbacks;
+import org.cuair.ground.imaging.ImagePrefetcher;
 import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Image;
 import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.util.Flags;
 import org.springframework.http.HttpHeaders;
@@ -21,7 +31,9 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /** API callbacks to handle creation/retrieval of Assignment model objects */
 @CrossOrigin
@@ -83,7 +95,88 @@ public class AssignmentController {
     if (a == null) {
       return noContent().build();
     }
-    return ok(a);
+    return ok(withPrefetch(a));
+  }
+
+  /**
+   * Generates an assignment like {@link #createWork}, but if there is no work waits for an image
+   * to be ingested instead of answering right away. No request thread is held while waiting.
+   *
+   * @param timeout how long to wait in milliseconds, defaulting to Flags.WORK_WAIT_TIMEOUT_MILLIS
+   *     and at most Flags.WORK_WAIT_MAX_TIMEOUT_MILLIS
+   * @return 200 with the generated assignment as json on success, 204 if no work arrived before
+   *     the timeout, or 400 on error
+   */
+  @RequestMapping(value = "/work/wait", method = RequestMethod.POST)
+  public DeferredResult<ResponseEntity> waitForWork(
+      @RequestHeader HttpHeaders headers, @RequestParam(required = false) Long timeout) {
+    DeferredResult<ResponseEntity> result = new DeferredResult<>();
+    if (timeout != null && timeout <= 0) {
+      result.setResult(badRequest().body("Timeout must be positive"));
+      return result;
+    }
+    ODLCUser user;
+    if (USERS_ENABLED) {
+      user = this.extractUserFromHeaders(headers);
+      if (user == null) {
+        result.setResult(badRequest().body("Provided username does not exist. Try logging in."));
+        return result;
+      }
+    } else {
+      user = odlcUserDao.getDefaltUser();
+    }
+    Assignment a = assignmentDao.getWork(user);
+    if (a != null) {
+      result.setResult(ok(withPrefetch(a)));
+      return result;
+    }
+
+    long wait = Math.min(timeout == null ? Flags.WORK_WAIT_TIMEOUT_MILLIS : timeout,
+        Flags.WORK_WAIT_MAX_TIMEOUT_MILLIS);
+    DeferredResult<ResponseEntity> waiting = new DeferredResult<>(wait, () -> timedOut(user));
+    AssignmentDispatcher dispatcher = AssignmentDispatcher.getInstance();
+    AssignmentDispatcher.Waiter waiter = new AssignmentDispatcher.Waiter() {
+      @Override
+      public boolean wake() {
+        if (waiting.isSetOrExpired()) {
+          return false;
+        }
+        try {
+          Assignment work = assignmentDao.getWork(user);
+          if (work == null) {
+            // another client got there first
+            dispatcher.await(user.getUserType(), this);
+          } else if (!waiting.setResult(ok(withPrefetch(work)))) {
+            // timed out while claiming, so give the image to the next client
+            AssignmentLeases.getInstance().release(work);
+            return false;
+          }
+        } catch (RuntimeException e) {
+          waiting.setErrorResult(e);
+        }
+        return true;
+      }
+    };
+    waiting.onCompletion(() -> dispatcher.cancel(user.getUserType(), waiter));
+    dispatcher.await(user.getUserType(), waiter);
+    return waiting;
+  }
+
+  /**
+   * Answers a client whose wait for work timed out. With claims made in the database, images
+   * inserted through other backends don't wake this backend's waiters, so look once more.
+   *
+   * @param user the user who was waiting
+   * @return 200 with a generated assignment as json, or 204 if there is still no work
+   */
+  private ResponseEntity timedOut(ODLCUser user) {
+    if (Flags.CLAIM_WITH_SKIP_LOCKED) {
+      Assignment a = assignmentDao.getWork(user);
+      if (a != null) {
+        return ok(withPrefetch(a));
+      }
+    }
+    return noContent().build();
   }
 
   /**
@@ -110,7 +203,8 @@ public class AssignmentController {
    * Updates the status of an assignment, marking it as done
    *
    * @param id the id of the assignment to update
-   * @return 200 with the updated assignment as json, 204 or 400 on error
+   * @return 200 with the updated assignment as json, 204 or 400 on error, or 410 if the lease
+   * already ran out and the image was handed to someone else
    */
   @RequestMapping(value = "/{id}", method = RequestMethod.PUT)
   public ResponseEntity update(@PathVariable Long id, @RequestBody Assignment deserialized) {
@@ -123,11 +217,153 @@ public class AssignmentController {
         return badRequest().body("Id in URL doesn't match id in object body");
       }
     }
+    boolean wasDone = a.getDone();
+    if (!wasDone && a.getLeaseExpires() == null) {
+      // the image was tagged again under another assignment, so finishing this one would count it
+      // twice
+      return ResponseEntity.status(HttpStatus.GONE)
+          .body("The lease of assignment " + id + " expired");
+    }
     a.setDone(true);
     assignmentDao.update(a);
+    if (!wasDone && a.getAssignee() != null
+        && a.getAssignee().getUserType() != ODLCUser.UserType.ADLC) {
+      // the scheduler counts the image as covered only once it is done in the database
+      Image image = a.getImage();
+      TransactionCallbacks.afterCommit(() -> AssignmentDispatcher.getInstance().mdlcDone(image));
+    }
     return ok(a);
   }
 
+  /**
+   * Renews the lease of an assignment, which clients call periodically while they work on it
+   *
+   * @param id the id of the assignment
+   * @return 200 with the new expiry of the lease, 404 if there is no such assignment, 400 if it is
+   * done, or 410 if the lease already ran out and the image was handed to someone else
+   */
+  @RequestMapping(value = "/{id}/heartbeat", method = RequestMethod.POST)
+  public ResponseEntity heartbeat(@PathVariable Long id) {
+    Timestamp expiry = AssignmentLeases.getInstance().renew(id);
+    if (expiry != null) {
+      return ok(Collections.singletonMap("leaseExpires", expiry));
+    }
+    Assignment a = assignmentDao.get(id);
+    if (a == null) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    if (a.getDone()) {
+      return badRequest().body("Assignment " + id + " is already done");
+    }
+    return ResponseEntity.status(HttpStatus.GONE)
+        .body("The lease of assignment " + id + " expired");
+  }
+
+  /**
+   * Generates assignments for up to a number of unprocessed images at once, for ADLC clients that
+   * get through images faster than they can ask for them one by one. The batch must be
+   * acknowledged through {@link #acknowledgeBatch} within Flags.BATCH_ACK_MILLIS, and after that
+   * each assignment is renewed through its heartbeat like any other.
+   *
+   * @param size the largest number of assignments to generate, at most Flags.BATCH_MAX_SIZE
+   * @return 200 with the deadline to acknowledge the batch by and the id and image of each
+   * assignment as json, 204 if there are no new assignments, or 400 on error
+   */
+  @RequestMapping(value = "/batch", method = RequestMethod.POST)
+  public ResponseEntity createWorkBatch(
+      @RequestHeader HttpHeaders headers, @RequestParam int size) {
+    if (size <= 0 || size > Flags.BATCH_MAX_SIZE) {
+      return badRequest().body("Batch size must be between 1 and " + Flags.BATCH_MAX_SIZE);
+    }
+    ODLCUser user;
+    if (USERS_ENABLED) {
+      user = this.extractUserFromHeaders(headers);
+      if (user == null) {
+        return badRequest().body("Provided username does not exist. Try logging in.");
+      }
+    } else {
+      user = odlcUserDao.getADLCUser();
+    }
+    if (user == null || user.getUserType() != ODLCUser.UserType.ADLC) {
+      return badRequest().body("Only ADLC can claim work in batches");
+    }
+    List<Assignment> batch = assignmentDao.getWorkBatch(user, size);
+    if (batch.isEmpty()) {
+      return noContent().build();
+    }
+    List<Map<String, Object>> assignments = new ArrayList<>();
+    for (Assignment a : batch) {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("id", a.getId());
+      entry.put("image", a.getImage());
+      assignments.add(entry);
+    }
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("ackBy", batch.get(0).getLeaseExpires());
+    body.put("assignments", assignments);
+    return ok(body);
+  }
+
+  /**
+   * Acknowledges a batch of assignments, extending their leases to the usual length. Only the
+   * ADLC user the assignments were given to can acknowledge them.
+   *
+   * @param ids the ids of the assignments in the batch
+   * @return 200 with the new expiry of the leases and the ids of the assignments that are still
+   * held, leaving out any that were not acknowledged in time and were handed to someone else or
+   * that belong to another user, or 400 on error
+   */
+  @RequestMapping(value = "/batch/ack", method = RequestMethod.POST)
+  public ResponseEntity acknowledgeBatch(
+      @RequestHeader HttpHeaders headers, @RequestBody List<Long> ids) {
+    ODLCUser user;
+    if (USERS_ENABLED) {
+      user = this.extractUserFromHeaders(headers);
+      if (user == null) {
+        return badRequest().body("Provided username does not exist. Try logging in.");
+      }
+    } else {
+      user = odlcUserDao.getADLCUser();
+    }
+    if (user == null || user.getUserType() != ODLCUser.UserType.ADLC) {
+      return badRequest().body("Only ADLC can acknowledge batches");
+    }
+    Timestamp expiry = AssignmentLeases.newExpiry();
+    List<Long> held = AssignmentLeases.getInstance().renewAll(ids, user, expiry);
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("leaseExpires", expiry);
+    body.put("acknowledged", held);
+    return ok(body);
+  }
+
+  /**
+   * Reports how many abandoned assignments have been reclaimed and how old the current leases are
+   *
+   * @return 200 with the lease statistics as json
+   */
+  @RequestMapping(value = "/leases", method = RequestMethod.GET)
+  public ResponseEntity getLeaseStats() {
+    return ok(AssignmentLeases.getInstance().getStats());
+  }
+
+  /**
+   * Warms the images the assignee is likely to be given after this one and adds hints for the
+   * client to download them with. ADLC keeps its own copies of images, so it gets neither.
+   *
+   * @param a newly generated work
+   * @return the assignment
+   */
+  private Assignment withPrefetch(Assignment a) {
+    if (a.getAssignee().getUserType() == ODLCUser.UserType.ADLC) {
+      return a;
+    }
+    List<Image> upcoming = assignmentDao.getUpcoming(a.getAssignee());
+    ImagePrefetcher.getInstance().warm(upcoming);
+    a.setPrefetch(ImagePrefetcher.getInstance()
+        .hints(upcoming.subList(0, Math.min(Flags.PREFETCH_IMAGES, upcoming.size()))));
+    return a;
+  }
+
   /**
    * Gets the username string from the header and returns the associated ODLCUser object
    *
@@ -3,37 +3,44 @@ package org.cuair.ground.controllers;
 import static org.springframework.http.ResponseEntity.badRequest;
 import static org.springframework.http.ResponseEntity.ok;
 
-import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.io.FileExistsException;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.http.HttpServletRequest;
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.ImageDatabaseAccessor;
+import org.cuair.ground.imaging.ImageDerivatives;
+import org.cuair.ground.imaging.ImageTiles;
+import org.cuair.ground.ingest.ImageIngest;
+import org.cuair.ground.ingest.IngestException;
+import org.cuair.ground.ingest.IngestPipeline;
+import org.cuair.ground.ingest.UploadParts;
 import org.cuair.ground.models.Image;
 import org.cuair.ground.models.geotag.FOV;
 import org.cuair.ground.models.geotag.GimbalOrientation;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.util.FileResponses;
 import org.cuair.ground.util.Flags;
-import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -41,17 +48,17 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.multipart.MultipartFile;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 /** Contains all the callbacks for all the public api endpoints for the Image */
-@CrossOrigin
+@CrossOrigin(exposedHeaders = ImageController.NEXT_CURSOR_HEADER)
 @RestController
 @RequestMapping(value = "/image")
 public class ImageController {
+  /** Header holding the id to request the next page of images after */
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
   /** Database accessor object for image database */
   private ImageDatabaseAccessor imageDao = (ImageDatabaseAccessor) DAOFactory
       .getDAO(DAOFactory.ModellessDAOType.IMAGE_DATABASE_ACCESSOR);
@@ -62,25 +69,30 @@ public class ImageController {
   private ObjectMapper mapper = new ObjectMapper();
 
   /**
-   * Constructs an HTTP response with all the images after the given id.
+   * Constructs an HTTP response with all the images after the given id. The id to pass to get the
+   * images after these is returned in the X-Next-Cursor header.
    *
    * @param id Long id representing the id after which all images will be returned
-   * @return a list of images with ids after the given id on success, 404 when
+   * @param limit the maximum number of images to return, at most {@link Flags#IMAGE_MAX_PAGE_SIZE}
+   *     and {@link Flags#IMAGE_PAGE_SIZE} if not given
+   * @return a list of images with ids after the given id on success, 400 when
+   *         the limit is not positive, 404 when
    *         the most recent image in the db does not exist
    */
   @RequestMapping(value = "/all/{id}", method = RequestMethod.GET)
-  public ResponseEntity getAllAfterId(@PathVariable Long id) {
-    List<Image> images = new ArrayList();
-    Image recent = imageDao.getRecent();
-    if (recent == null) {
+  public ResponseEntity getAllAfterId(@PathVariable Long id,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    if (limit != null && limit <= 0) {
+      return badRequest().body("limit must be positive");
+    }
+    int pageSize = limit == null ? Flags.IMAGE_PAGE_SIZE
+        : Math.min(limit, Flags.IMAGE_MAX_PAGE_SIZE);
+    List<Image> images = imageDao.getAfterId(id, pageSize);
+    if (images.isEmpty() && imageDao.getRecent() == null) {
       return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-    } else {
-      Long mostRecentId = recent.getId();
-      for (Long index = id + 1; index <= mostRecentId; index++) {
-        images.add(imageDao.get(index));
-      }
-      return ok(images);
     }
+    Long next = images.isEmpty() ? id : images.get(images.size() - 1).getId();
+    return ok().header(NEXT_CURSOR_HEADER, next.toString()).body(images);
   }
 
   /**
@@ -131,55 +143,135 @@ public class ImageController {
   }
 
   /**
-   * Constructs an HTTP response with the given filename.
+   * Constructs an HTTP response with the given filename. The file is streamed from disk rather
+   * than read into memory, and Range requests are answered with 206 and the requested part.
+   * Image files are named by their capture timestamp and never change, so browsers may cache them
+   * indefinitely.
+   *
+   * <p>Smaller copies of the image are served with the size parameter. Derivatives are generated
+   * when the image is uploaded, or on the first request for images uploaded before then.
    *
    * @param file String filename for the requested image file
-   * @return 200 with the file with the given filename on success, 500 when error
-   *         finding or reading
-   *         the provided file, or 404 when the provided (image) file does not
+   * @param size the size of the image to serve: preview, screen or original (the default)
+   * @param request the request being served
+   * @return 200 with the file with the given filename on success, 304 if the client's copy is
+   *         current, 206 with part of the file for Range requests, 416 for ranges outside of the file,
+   *         400 for an invalid size, 500 when error
+   *         reading the provided file, or 404 when the provided (image) file does not
    *         exist
    */
   @RequestMapping(value = "/file/{file}", method = RequestMethod.GET)
-  public ResponseEntity getFile(@PathVariable String file) {
-    File image = FileUtils.getFile(planeImageDir + file);
-    if (image.exists()) {
-      HttpHeaders headers = new HttpHeaders();
-      InputStream in = null;
-      try {
-        in = new FileInputStream(planeImageDir + file);
-      } catch (FileNotFoundException e) {
-        ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-            .body("File not found: " + planeImageDir + file);
-      }
+  public ResponseEntity getFile(@PathVariable String file,
+      @RequestParam(value = "size", required = false) String size, HttpServletRequest request) {
+    ImageDerivatives.Size imageSize = ImageDerivatives.Size.fromParam(size);
+    if (imageSize == null) {
+      return badRequest().body("Invalid image size " + size);
+    }
+    Path image = FileResponses.resolve(Paths.get(planeImageDir), file);
+    if (image == null || !Files.isRegularFile(image)) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    HttpHeaders headers = new HttpHeaders();
+    headers.setCacheControl(FileResponses.IMMUTABLE);
+    try {
+      Path served = ImageDerivatives.getInstance().get(image, imageSize).join();
+      return FileResponses.serve(served, headers, request);
+    } catch (IOException | CompletionException e) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body("Error reading file: " + planeImageDir + file);
+    }
+  }
 
-      byte[] media = null;
-      try {
-        media = IOUtils.toByteArray(in);
-      } catch (Exception e) {
-        ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-            .body("Error reading file: " + planeImageDir + file);
-      }
-      headers.setCacheControl(CacheControl.noCache().getHeaderValue());
+  /**
+   * Constructs an HTTP response with the dimensions of the tile pyramid of an image, for deep zoom
+   * viewers to request tiles with.
+   *
+   * @param id Long id for Image
+   * @param tileSize the width and height of the tiles in pixels, 256 or 512, defaulting to
+   *                 Flags.TILE_SIZE
+   * @return 200 with the width and height of the image, the tile size and the highest zoom
+   *         level on success, 400 for an invalid tile size, 404 if the image or its file doesn't
+   *         exist, or 500 when error reading the file
+   */
+  @RequestMapping(value = "/{id}/tiles", method = RequestMethod.GET)
+  public ResponseEntity getTileInfo(@PathVariable Long id,
+      @RequestParam(value = "tileSize", required = false) Integer tileSize) {
+    int size = tileSize == null ? Flags.TILE_SIZE : tileSize;
+    if (!ImageTiles.isValidTileSize(size)) {
+      return badRequest().body("tileSize must be 256 or 512");
+    }
+    ImageTiles.Source source;
+    try {
+      source = ImageTiles.getInstance().getSource(id, this::getLocalImageFile);
+    } catch (IOException e) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body("Error reading image with id " + id + ": " + e);
+    }
+    if (source == null) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    Map<String, Object> info = new HashMap<>();
+    info.put("width", source.getWidth());
+    info.put("height", source.getHeight());
+    info.put("tileSize", size);
+    info.put("maxLevel", source.getMaxLevel(size));
+    return ok(info);
+  }
 
-      ResponseEntity<byte[]> responseEntity = new ResponseEntity<>(media, headers, HttpStatus.OK);
-      return responseEntity;
+  /**
+   * Constructs an HTTP response with a tile of an image. Level 0 holds the whole image in one
+   * tile and every level above doubles the resolution, up to the full resolution of the original.
+   * Only the region of the image covered by the tile is decoded, and rendered tiles are cached.
+   *
+   * @param id Long id for Image
+   * @param z the zoom level of the tile
+   * @param x the column of the tile, from the left
+   * @param y the row of the tile, from the top
+   * @param tileSize the width and height of the tile in pixels, 256 or 512, defaulting to
+   *                 Flags.TILE_SIZE
+   * @return 200 with the tile as a JPEG on success, 400 for an invalid tile size, 404 if the
+   *         image or the tile doesn't exist, or 500 when error rendering the tile
+   */
+  @RequestMapping(value = "/{id}/tiles/{z}/{x}/{y}", method = RequestMethod.GET)
+  public ResponseEntity getTile(@PathVariable Long id, @PathVariable int z, @PathVariable int x,
+      @PathVariable int y, @RequestParam(value = "tileSize", required = false) Integer tileSize) {
+    int size = tileSize == null ? Flags.TILE_SIZE : tileSize;
+    if (!ImageTiles.isValidTileSize(size)) {
+      return badRequest().body("tileSize must be 256 or 512");
+    }
+    ImageTiles tiles = ImageTiles.getInstance();
+    byte[] tile;
+    try {
+      ImageTiles.Source source = tiles.getSource(id, this::getLocalImageFile);
+      CompletableFuture<byte[]> future =
+          source == null ? null : tiles.getTile(source, size, z, x, y);
+      if (future == null) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+      }
+      tile = future.join();
+    } catch (IOException | CompletionException e) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body("Error rendering tile of image with id " + id + ": " + e);
     }
-    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    // tiles are rendered from images that never change
+    return ok().contentType(MediaType.IMAGE_JPEG)
+        .header(HttpHeaders.CACHE_CONTROL, FileResponses.IMMUTABLE)
+        .body(tile);
   }
 
   /**
-   * Gets the imageFile from a valid body in the form of a File object.
+   * Looks up the file of an image
    *
-   * @param file the MultipartFile array of files
-   * @return the image file
+   * @param id the id of the image
+   * @return the file, or null if the image or its file doesn't exist
    */
-  private File getImageFile(MultipartFile file) throws IOException {
-    File convFile = new File(file.getOriginalFilename());
-    convFile.createNewFile();
-    FileOutputStream fos = new FileOutputStream(convFile);
-    fos.write(file.getBytes());
-    fos.close();
-    return convFile;
+  private Path getLocalImageFile(long id) {
+    Image image = imageDao.get(id);
+    if (image == null || image.getLocalImageUrl() == null) {
+      return null;
+    }
+    Path file = Paths.get(image.getLocalImageUrl());
+    return Files.isRegularFile(file) ? file : null;
   }
 
   /**
@@ -188,20 +280,63 @@ public class ImageController {
    * json of the image that was created. Option to include custom file name in
    * json.
    *
-   * @param jsonString the json part of the multipart request as a String
-   * @param file       the file of the multipart request
-   * @return 200 with the uploaded image on success, 400 when request parts are
+   * <p>The "json" and "files" parts are read straight off the request body (see {@link
+   * UploadParts}), so the file is streamed into place as it arrives. The "async" query parameter
+   * chooses whether to accept the image once it is staged and process it in the background,
+   * defaulting to Flags.ASYNC_IMAGE_INGEST.
+   *
+   * @param request the multipart request
+   * @return 200 with the uploaded image on success, 202 with the ingest status
+   *         when processing asynchronously, 400 when request parts are
    *         missing or
-   *         if the request json is invalid, or 500 on errors converting file to
+   *         if the request json is invalid, 413 if the upload is larger than
+   *         Flags.MAX_IMAGE_UPLOAD_BYTES, or 500 on errors converting file to
    *         an image and saving
    *         the image in the db
    */
   @RequestMapping(method = RequestMethod.POST)
-  public ResponseEntity upload(@RequestPart("json") String jsonString,
-      @RequestPart("files") MultipartFile file) {
-    if (file == null || file.isEmpty()) {
-      return badRequest().body("Missing image file");
+  public ResponseEntity upload(HttpServletRequest request) {
+    // taken from the query string, since asking for request parameters reads the whole body
+    String asyncParam = ServletUriComponentsBuilder.fromRequest(request).build().getQueryParams()
+        .getFirst("async");
+    boolean async =
+        asyncParam == null ? Flags.ASYNC_IMAGE_INGEST : Boolean.parseBoolean(asyncParam);
+    try (UploadParts parts = UploadParts.of(request)) {
+      return upload(parts, async);
+    } catch (IngestException e) {
+      return ResponseEntity.status(e.getStatus()).body(e.getMessage());
+    } catch (IOException e) {
+      return readError("Error when reading image from request", e);
+    }
+  }
+
+  /**
+   * Constructs an HTTP response for an upload that couldn't be read
+   *
+   * @param message what failed
+   * @param e the failure
+   * @return 413 if the upload is larger than Flags.MAX_IMAGE_UPLOAD_BYTES, or 500
+   */
+  private static ResponseEntity readError(String message, Exception e) {
+    if (e instanceof IOException && UploadParts.isTooLarge((IOException) e)) {
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+          .body("Upload is larger than " + Flags.MAX_IMAGE_UPLOAD_BYTES + " bytes");
     }
+    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(message + ": \n" + e);
+  }
+
+  /**
+   * Creates an Image from the parts of an upload
+   *
+   * @param parts the parts of the upload
+   * @param async whether to process the image in the background
+   * @return the response to the upload
+   * @throws IngestException if the parts are malformed or too large
+   * @throws IOException on errors reading the parts
+   */
+  private ResponseEntity upload(UploadParts parts, boolean async)
+      throws IngestException, IOException {
+    String jsonString = parts.getJson();
     if (jsonString == null || jsonString.isEmpty()) {
       return badRequest().body("Missing json");
     }
@@ -282,86 +417,104 @@ public class ImageController {
           .body("Error when converting json to Image instance: \n" + e);
     }
 
-    File imageFile;
-    try {
-      imageFile = getImageFile(file);
-    } catch (IOException e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body("Error when extracting image from request: \n" + e);
-    }
+    ImageIngest.StoredImage stored;
+    try (InputStream file = parts.getFile()) {
+      PushbackInputStream in = file == null ? null : new PushbackInputStream(file);
+      int first = in == null ? -1 : in.read();
+      if (first == -1) {
+        return badRequest().body("Missing image file");
+      }
+      in.unread(first);
 
-    String contentType;
-    try {
-      contentType = Files.probeContentType(imageFile.toPath());
-    } catch (IOException e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body("Error when parsing contentType for image file: \n" + e);
+      if (async) {
+        return uploadAsync(i, jsonString, in);
+      }
+      // stream the upload into the image directory, reading its type and EXIF along the way
+      stored = ImageIngest.store(in, Paths.get(planeImageDir));
+    } catch (IOException | ImageProcessingException e) {
+      return readError("Error when extracting image from request", e);
     }
 
-    // this is necessary because the Files.probeContentType method above
-    // does not recognize the file type for files sent from Linux systems
-    if (contentType == null) {
-      contentType = "image/jpeg"; // default image content type
-    }
-    if (!contentType.startsWith("image")) {
-      return badRequest().body("expected an image as a filePart");
+    try {
+      ImageIngest.checkImage(stored);
+      // Read focal length in EXIF from imageFile to set FOV
+      ImageIngest.setFov(i, ImageIngest.readFocalLength(stored));
+      // score the image so blurry or badly exposed frames are handed out last
+      ImageIngest.scoreQuality(i, stored);
+      // store the image locally
+      ImageIngest.place(i, stored);
+    } catch (IngestException e) {
+      return ResponseEntity.status(e.getStatus()).body(e.getMessage());
     }
-    String imageExtension = contentType.split("\\/")[1];
-    // set the filename to the timestamp of the image
-    String imageFileName = String.format("%d", i.getTimestamp().getTime());
-    imageFileName += "." + imageExtension;
-    i.setLocalImageUrl(planeImageDir + imageFileName);
 
-    // Read focal length in EXIF from imageFile to set FOV
     try {
-      i.setFov(FOV.fromFocalLength(extractFocalLength(imageFile)));
-    } catch (IOException | ImageProcessingException e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body("Error when extracting focal length from image file: \n" + e);
+      imageDao.create(i);
+    } catch (RuntimeException e) {
+      ImageIngest.unplace(i);
+      throw e;
     }
+    ImageIngest.notifyPersisted(i);
 
-    // store the image locally
+    return ok(i);
+  }
+
+  /**
+   * Stages an upload for the ingest pipeline. Constructs an HTTP response with the status of the
+   * upload and its location as soon as the upload is durably stored.
+   *
+   * @param i the image parsed from the json part
+   * @param jsonString the json part of the multipart request
+   * @param in the file of the multipart request, as it is read off the request
+   * @return 202 with the ingest status, 400 if an image with the same timestamp is already being
+   *     ingested, 503 if the pipeline is too far behind, 413 if the upload is too large, or 500 on
+   *     errors staging the upload
+   */
+  private ResponseEntity uploadAsync(Image i, String jsonString, InputStream in) {
+    IngestPipeline.Status status;
     try {
-      FileUtils.moveFile(imageFile, FileUtils.getFile(planeImageDir + imageFileName));
-    } catch (FileExistsException e) {
+      status = IngestPipeline.getInstance().submit(i, jsonString, in);
+    } catch (FileAlreadyExistsException e) {
       return badRequest().body("File with timestamp already exists");
+    } catch (RejectedExecutionException e) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, "1")
+          .body("Image ingest queue is full");
     } catch (IOException e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body("Error when moving image file: \n" + e);
+      return readError("Error when staging image from request", e);
     }
-
-    i.setImageUrl("/api/v1/image/file/" + imageFileName);
-
-    imageDao.create(i);
-
-    return ok(i);
+    return ResponseEntity.accepted()
+        .location(URI.create("/api/v1/image/status/" + status.getTimestamp()))
+        .body(status);
   }
 
   /**
-   * Extracts the focal length of the image, which is included in the EXIF of the
-   * jpeg file
-   * Uses metadata-extraction library: https://drewnoakes.com/code/exif/
-   * https://github.com/drewnoakes/metadata-extractor/blob/master/Samples/com/drew/metadata/SampleUsage.java
+   * Constructs an HTTP response with the ingest status of the image with the given timestamp.
+   *
+   * @param timestamp the timestamp of the image, in milliseconds since the epoch
+   * @return 200 with the ingest status, whose state is VISIBLE once the image can be handed out
+   *         by getWork, or 404 if no image with that timestamp was uploaded
    */
-  private double extractFocalLength(File imageFile) throws ImageProcessingException, IOException {
-    Metadata metadata = ImageMetadataReader.readMetadata(imageFile);
-
-    // Focal length lives in ExifSubIFDDirectory
-    ExifSubIFDDirectory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
-
-    // Read focal length
-    double focalLength = directory.getDoubleObject(ExifSubIFDDirectory.TAG_FOCAL_LENGTH);
-
-    // Note: you can also read "exposure time"
-
-    // Get rid of EXIF data; we don't want it once it's read because orientation
-    // screws with the image
-    // display on the frontend
-    BufferedImage image = ImageIO.read(imageFile);
-    ImageIO.write(image, "jpg", imageFile);
-        
+  @RequestMapping(value = "/status/{timestamp}", method = RequestMethod.GET)
+  public ResponseEntity getIngestStatus(@PathVariable Long timestamp) {
+    IngestPipeline.Status status = IngestPipeline.getInstance().getStatus(timestamp);
+    if (status != null) {
+      return ok(status);
+    }
+    Image image = imageDao.getByTimestamp(new Timestamp(timestamp));
+    if (image == null) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    return ok(IngestPipeline.Status.persisted(timestamp, image.getId()));
+  }
 
-    return focalLength;
+  /**
+   * Constructs an HTTP response with the number of uploads waiting in each ingest stage.
+   *
+   * @return 200 with the queue depth of each stage
+   */
+  @RequestMapping(value = "/status", method = RequestMethod.GET)
+  public ResponseEntity getIngestQueueDepths() {
+    return ok(IngestPipeline.getInstance().getQueueDepths());
   }
 
   /**
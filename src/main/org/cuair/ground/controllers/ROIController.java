@@ -5,12 +5,15 @@ import static org.springframework.http.ResponseEntity.noContent;
 import static org.springframework.http.ResponseEntity.notFound;
 import static org.springframework.http.ResponseEntity.ok;
 
+import io.ebean.FetchGroup;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.AssignmentDispatcher;
 import org.cuair.ground.daos.ClientCreatableDatabaseAccessor;
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.PlaneSettingsModelDatabaseAccessor;
+import org.cuair.ground.imaging.ImageDerivatives;
 import org.cuair.ground.models.Assignment;
 import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.ROI;
@@ -24,6 +27,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /** Contains all the callbacks for all the public api endpoints for the ROI */
@@ -36,6 +40,19 @@ public class ROIController {
   private static ClientCreatableDatabaseAccessor<ROI> roiDao =
       (ClientCreatableDatabaseAccessor<ROI>) DAOFactory
           .getDAO(DAOFactory.ModelDAOType.CLIENT_CREATABLE_DATABASE_ACCESSOR, ROI.class);
+  /**
+   * What serializing an ROI reads, which includes its assignment, and the image and telemetry that
+   * the ROI's location is calculated from, so listing ROIs doesn't load them one ROI at a time
+   */
+  private static final FetchGroup<ROI> SERIALIZED =
+      FetchGroup.of(ROI.class)
+          .fetch("creator")
+          .fetch("assignment")
+          .fetch("assignment.image")
+          .fetch("assignment.image.telemetry")
+          .fetch("assignment.image.fov")
+          .fetch("assignment.assignee")
+          .build();
   /** The database accessor object for the camera gimbal settings table */
   private static PlaneSettingsModelDatabaseAccessor<CameraGimbalSettings> cgsDao =
       (PlaneSettingsModelDatabaseAccessor<CameraGimbalSettings>) DAOFactory
@@ -56,8 +73,10 @@ public class ROIController {
           .filter(r -> r.isAveraged())
           .map(r -> roiDao.delete(r.getId()));
 
-      List<ROI> rois =
-          roiDao.getAll().stream().filter(r -> !r.isAveraged()).collect(Collectors.toList());
+      List<ROI> rois = roiDao.getAll(SERIALIZED)
+          .stream()
+          .filter(r -> !r.isAveraged())
+          .collect(Collectors.toList());
       List<ROI> averagedRois = Clustering.cluster(rois);
       averagedRois.stream().map(r -> roiDao.create(r));
     }
@@ -70,7 +89,7 @@ public class ROIController {
    */
   @RequestMapping(method = RequestMethod.GET)
   public ResponseEntity getAll() {
-    return ok(roiDao.getAll());
+    return ok(roiDao.getAll(SERIALIZED));
   }
 
   /**
@@ -90,16 +109,24 @@ public class ROIController {
    * Creates an ROI on our server given the request body json. Constructs a HTTP response with the
    * json of the ROI that was created.
    *
+   * @param size the size of the image the ROI was tagged on (preview, screen or original),
+   * defaulting to original
    * @return the created ROI on success, 204 when the corresponding assignment does not exist, or 400
    * when the provided ROI is formatted improperly
    */
   @RequestMapping(value = "/{assignmentID}", method = RequestMethod.POST)
-  public ResponseEntity create(@PathVariable Long assignmentID, @RequestBody ROI roi) {
+  public ResponseEntity create(@PathVariable Long assignmentID, @RequestBody ROI roi,
+      @RequestParam(value = "size", required = false) String size) {
     Assignment a = assignmentDao.get(assignmentID);
     if (a == null) {
       return notFound().build();
     }
 
+    ImageDerivatives.Size imageSize = ImageDerivatives.Size.fromParam(size);
+    if (imageSize == null) {
+      return badRequest().body("Invalid image size " + size);
+    }
+
     if (roi.getId() != null) {
       return badRequest().body("Don't pass ids for create");
     }
@@ -123,12 +150,18 @@ public class ROIController {
     if (roi.getPixelx() == null || roi.getPixely() == null) {
       return badRequest().body("Missing pixel location information for ROI");
     }
+    // pixel values are stored in the space of the original image
+    roi.scaleToOriginal(imageSize, a.getImage());
 
     if (roi.getGpsLocation() == null) {
       return badRequest().body("Could not calculate GpsLocation with given input");
     }
 
     ROIController.createAndUpdateAveragedRois(roi);
+    if (a.getAssignee().getUserType() == ODLCUser.UserType.ADLC) {
+      // taggers should look at what ADLC found sooner
+      AssignmentDispatcher.getInstance().adlcFound(a.getImage());
+    }
 
     return ok(roi);
   }
@@ -0,0 +1,28 @@
+package org.cuair.ground.controllers;
+
+import static org.springframework.http.ResponseEntity.ok;
+
+import org.cuair.ground.daos.MissionStats;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Contains the callbacks for the public api endpoints for the progress of the mission */
+@CrossOrigin
+@RestController
+@RequestMapping(value = "/stats")
+public class StatsController {
+
+  /**
+   * Gets the progress of the mission from counters kept in memory, without querying the database
+   *
+   * @return 200 with the number of images ingested, the assignments handed out, finished and
+   * reclaimed for MDLC, ADLC and each user, and the number of sightings of each target as json
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public ResponseEntity getStats() {
+    return ok(MissionStats.getInstance().getStats());
+  }
+}
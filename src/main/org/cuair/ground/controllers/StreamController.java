@@ -36,6 +36,7 @@ import org.cuair.ground.models.Image;
 import org.cuair.ground.models.geotag.GimbalOrientation;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.util.FileResponses;
 import org.cuair.ground.util.Flags;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
@@ -55,6 +56,7 @@ import javax.imageio.ImageIO;
 import java.lang.InterruptedException;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.core.io.UrlResource;
 import org.springframework.core.io.ClassPathResource;
 import java.net.MalformedURLException;
@@ -137,41 +139,60 @@ public class StreamController {
   }
 
   /**
-   * Constructs an HTTP response with the stream playlist file
+   * Constructs an HTTP response with the stream playlist file. The playlist grows as segments are
+   * recorded, so clients must revalidate it, but an unchanged playlist is answered with a 304.
    * 
    * @param i stream id
-   * @return path to requested playlist
+   * @param request the request being served
+   * @return path to requested playlist, or 404 if the stream has no playlist
    */
   @RequestMapping(value = "/playlist", method = RequestMethod.GET)
-  public ResponseEntity getPlaylist(@RequestParam("number") int i) {
+  public ResponseEntity getPlaylist(@RequestParam("number") int i, HttpServletRequest request) {
     Path path = Paths.get(String.format("%sstream%d_segments/playlist.m3u8", streamSegmentDir, i));
-    Resource resource = null;
-    try {
-      resource = new UrlResource(path.toUri());
-    } catch (MalformedURLException e) {
-      e.printStackTrace();
-    }
-    return ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-        .body(resource);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setCacheControl(CacheControl.noCache().getHeaderValue());
+    return serveAttachment(path, headers, request);
   }
 
   /**
-   * Constructs an HTTP response with a stream segment
+   * Constructs an HTTP response with a stream segment. Segments are only listed in the playlist
+   * once they are complete and are never rewritten, so browsers may cache them indefinitely.
    *
-   * @return path to requested segment
+   * @param segment the segment file name, prefixed with the stream id
+   * @param request the request being served
+   * @return path to requested segment, or 404 if it doesn't exist
    */
   @RequestMapping(value = "/{segment}", method = RequestMethod.GET)
-  public ResponseEntity getSegment(@PathVariable String segment) {
+  public ResponseEntity getSegment(@PathVariable String segment, HttpServletRequest request) {
     String[] segmentParts = segment.split("_", 2);
     String playlistNumber = segmentParts[0];
-    Path path = Paths.get(String.format("%sstream%s_segments/%s", streamSegmentDir, playlistNumber, segment));
-    Resource resource = null;
+    Path path = FileResponses.resolve(
+        Paths.get(String.format("%sstream%s_segments", streamSegmentDir, playlistNumber)), segment);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setCacheControl(FileResponses.IMMUTABLE);
+    return serveAttachment(path, headers, request);
+  }
+
+  /**
+   * Constructs an HTTP response with a stream file as an attachment
+   *
+   * @param path the file, or null if the request was for a file outside of the stream directory
+   * @param headers caching headers for the response
+   * @param request the request being served
+   * @return the file, 404 if it doesn't exist, or 500 if it can't be read
+   */
+  private ResponseEntity serveAttachment(Path path, HttpHeaders headers,
+      HttpServletRequest request) {
+    if (path == null || !Files.isRegularFile(path)) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    headers.set(HttpHeaders.CONTENT_DISPOSITION,
+        "attachment; filename=\"" + path.getFileName() + "\"");
     try {
-      resource = new UrlResource(path.toUri());
-    } catch (MalformedURLException e) {
-      e.printStackTrace();
+      return FileResponses.serve(path, headers, request);
+    } catch (IOException e) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body("Error reading file: " + path);
     }
-    return ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-        .body(resource);
   }
 }
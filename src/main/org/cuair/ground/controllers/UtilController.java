@@ -5,6 +5,8 @@ import static org.springframework.http.ResponseEntity.ok;
 import io.ebean.DB;
 import java.io.IOException;
 import org.apache.commons.io.FileUtils;
+import org.cuair.ground.daos.AssignmentDispatcher;
+import org.cuair.ground.daos.MissionStats;
 import org.cuair.ground.util.Flags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,8 @@ public class UtilController {
       String sql = "TRUNCATE " + name + " RESTART IDENTITY CASCADE";
       DB.createSqlUpdate(sql).execute();
     }
+    AssignmentDispatcher.getInstance().rebuild();
+    MissionStats.getInstance().rebuild();
 
     try {
       FileUtils.cleanDirectory(FileUtils.getFile(planeImageDir));
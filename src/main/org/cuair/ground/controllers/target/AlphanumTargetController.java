@@ -20,10 +20,11 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.cuair.ground.util.Geotagging;
+import java.util.ArrayList;
 import java.util.Arrays;
-
-
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Controller to handle creation/retrieval of Alphanumeric Target model objects */
 @CrossOrigin
@@ -95,10 +96,14 @@ public class AlphanumTargetController extends TargetController<AlphanumTarget> {
   }
 
   public static Geotag medianFromTsIds(List<Long> ids) {
+    Map<Long, Geotag> byId = new HashMap<>();
+    for (TargetSighting ts : targetSightingsDao.getWithGeotags(ids)) {
+      byId.put(ts.getId(), ts.getGeotag());
+    }
+    // an id listed twice counts twice, as it always has
     Geotag[] geotags = new Geotag[ids.size()];
     for (int i = 0; i < ids.size(); i++) {
-      TargetSighting ts = targetSightingsDao.get(ids.get(i));
-      geotags[i] = ts.getGeotag();
+      geotags[i] = byId.get(ids.get(i));
     }
     return Geotagging.median(geotags);
   }
@@ -124,11 +129,12 @@ public class AlphanumTargetController extends TargetController<AlphanumTarget> {
   @RequestMapping(method = RequestMethod.DELETE)
   public ResponseEntity deleteAll() {
     List<AlphanumTarget> targets = targetDao.getAll();
+    List<Long> ids = new ArrayList<>();
     for (AlphanumTarget t : targets) {
-      long id = t.getId();
-      targetSightingsDao.unassociateAllTargetSightingsForTarget(id);
-      targetDao.delete(id);
+      ids.add(t.getId());
     }
+    targetSightingsDao.unassociateAllTargetSightingsForTargets(ids);
+    targetDao.deleteAll(ids);
     return ok(targets);
   }
 
@@ -1,6 +1,8 @@
 package org.cuair.ground.controllers.target;
 
 import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 
 import org.cuair.ground.daos.AlphanumTargetDatabaseAccessor;
 import org.cuair.ground.daos.AlphanumTargetSightingsDatabaseAccessor;
@@ -13,11 +15,13 @@ import org.cuair.ground.models.plane.target.AlphanumTargetSighting;
 import org.cuair.ground.util.Flags;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -60,13 +64,32 @@ public class AlphanumTargetSightingController
   /** Creates a target sighting given sighting data from the frontend. */
 
 
+  @Override
+  @RequestMapping(value = "/thumbnails", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Object> getThumbnailSprite(
+      @RequestParam(value = "target", required = false) Long target,
+      @RequestParam(value = "ids", required = false) List<Long> ids) {
+    return super.getThumbnailSprite(target, ids);
+  }
+
+  @Override
+  @RequestMapping(value = "/thumbnails/sprite", method = RequestMethod.GET, produces = MediaType.IMAGE_JPEG_VALUE)
+  public ResponseEntity<byte[]> getThumbnailSpriteImage(
+      @RequestParam(value = "target", required = false) Long target,
+      @RequestParam(value = "ids", required = false) List<Long> ids,
+      HttpServletRequest request) {
+    return super.getThumbnailSpriteImage(target, ids, request);
+  }
+
   @Override
   @RequestMapping(value = "/assignment/{id}", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
   public AlphanumTargetSighting create(@PathVariable Long id,
-                                       @RequestBody AlphanumTargetSighting ts) {
+                                       @RequestBody AlphanumTargetSighting ts,
+                                       @RequestParam(value = "size", required = false)
+                                           String size) {
 
     // ordered this way so exception interrupts execution
-    final AlphanumTargetSighting retval = super.create(id, ts);
+    final AlphanumTargetSighting retval = super.create(id, ts, size);
 
     if (ts.getCreator().getUserType() == ODLCUser.UserType.ADLC) {
       // Sets new target thumbnail
@@ -83,7 +106,9 @@ public class AlphanumTargetSightingController
   @Override
   @RequestMapping(value = "/{id}", method = RequestMethod.PUT, produces = MediaType.APPLICATION_JSON_VALUE)
   public AlphanumTargetSighting update(@PathVariable Long id,
-                                       @RequestBody AlphanumTargetSighting other) {
+                                       @RequestBody AlphanumTargetSighting other,
+                                       @RequestParam(value = "size", required = false)
+                                           String size) {
     AlphanumTargetSighting ts = alphaTargetSightingDao.get(id);
     if (ts == null) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND);
@@ -119,7 +144,7 @@ public class AlphanumTargetSightingController
 
     AlphanumTarget oldTarget = ts.getTarget();
 
-    final AlphanumTargetSighting retval = updateFromTargetSighting(ts, other);
+    final AlphanumTargetSighting retval = updateFromTargetSighting(ts, other, size);
 
     // updates geotag of the old target
     AlphanumTarget newTarget = retval.getTarget();
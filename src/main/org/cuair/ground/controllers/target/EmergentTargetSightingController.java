@@ -1,6 +1,8 @@
 package org.cuair.ground.controllers.target;
 
 import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.TargetDatabaseAccessor;
@@ -10,11 +12,13 @@ import org.cuair.ground.models.plane.target.EmergentTarget;
 import org.cuair.ground.models.plane.target.EmergentTargetSighting;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -54,10 +58,29 @@ public class EmergentTargetSightingController
     return super.getAll();
   }
 
+  @Override
+  @RequestMapping(value = "/thumbnails", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Object> getThumbnailSprite(
+      @RequestParam(value = "target", required = false) Long target,
+      @RequestParam(value = "ids", required = false) List<Long> ids) {
+    return super.getThumbnailSprite(target, ids);
+  }
+
+  @Override
+  @RequestMapping(value = "/thumbnails/sprite", method = RequestMethod.GET, produces = MediaType.IMAGE_JPEG_VALUE)
+  public ResponseEntity<byte[]> getThumbnailSpriteImage(
+      @RequestParam(value = "target", required = false) Long target,
+      @RequestParam(value = "ids", required = false) List<Long> ids,
+      HttpServletRequest request) {
+    return super.getThumbnailSpriteImage(target, ids, request);
+  }
+
   @Override
   @RequestMapping(value = "/assignment/{id}", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
   public EmergentTargetSighting create(@PathVariable Long id,
-                                       @RequestBody EmergentTargetSighting ts) {
+                                       @RequestBody EmergentTargetSighting ts,
+                                       @RequestParam(value = "size", required = false)
+                                           String size) {
     // TODO: Fix: This threw a NullPointerException when moving a target sighting to a target. Neither were emergent though
     // The console on the frontend also threw an error: "index.js:1437 Warning: Can't perform a React state update on an unmounted component. This is a no-op, but it indicates a memory leak in your application. To fix, cancel all subscriptions and asynchronous tasks in the componentWillUnmount method.
     // in MergeSightingPreview (at mergeTarget.js:314)""
@@ -68,13 +91,15 @@ public class EmergentTargetSightingController
           "Only MDLC should be creating Emergent Target Sightings");
     }
     ts.setTarget(t);
-    return super.create(id, ts);
+    return super.create(id, ts, size);
   }
 
   @Override
   @RequestMapping(value = "/{id}", method = RequestMethod.PUT, produces = MediaType.APPLICATION_JSON_VALUE)
   public EmergentTargetSighting update(@PathVariable Long id,
-                                       @RequestBody EmergentTargetSighting other) {
+                                       @RequestBody EmergentTargetSighting other,
+                                       @RequestParam(value = "size", required = false)
+                                           String size) {
     if (other.getTarget() != null) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
           "Don't pass targets for emergent target sighting update");
@@ -83,7 +108,7 @@ public class EmergentTargetSightingController
     if (ts == null) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND);
     }
-    return updateFromTargetSighting(ts, other);
+    return updateFromTargetSighting(ts, other, size);
   }
 
   @Override
@@ -1,22 +1,42 @@
 package org.cuair.ground.controllers.target;
 
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
 
 // TODO: Add back in once client code is complete
 // import org.cuair.ground.clients.ClientFactory;
 // import org.cuair.ground.clients.InteropClient;
 
 import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.AssignmentDispatcher;
 import org.cuair.ground.daos.DAOFactory;
+import org.cuair.ground.daos.MissionStats;
 import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
 import org.cuair.ground.daos.TargetSightingsDatabaseAccessor;
+import org.cuair.ground.daos.TransactionCallbacks;
+import org.cuair.ground.imaging.ImageDerivatives;
+import org.cuair.ground.imaging.SightingThumbnails;
 import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.geotag.Geotag;
 import org.cuair.ground.models.plane.target.TargetSighting;
+import org.cuair.ground.util.FileResponses;
 import org.cuair.ground.util.Flags;
 
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 /** Controller to handle TargetSighting model objects */
 public abstract class TargetSightingController<T extends TargetSighting> {
@@ -41,30 +61,119 @@ public abstract class TargetSightingController<T extends TargetSighting> {
     return getTargetSightingDao().getAll();
   }
 
+  /**
+   * Lays out the thumbnails of the sightings of a target, or of a list of sightings, in a single
+   * JPEG sprite sheet so a gallery can be drawn from one image. The sheet itself is served by
+   * {@link #getThumbnailSpriteImage}, at the URL given under "sprite".
+   *
+   * @param targetId the id of the target whose sightings to render, or null
+   * @param ids the ids of the sightings to render, or null
+   * @return the URL of the sprite sheet under "sprite" and its ETag under "etag", both null if no
+   * thumbnail could be rendered, its "width" and "height", an "index" of where each sighting's
+   * thumbnail is, and the ids of sightings that could not be rendered under "missing"
+   * @throws ResponseStatusException 400 if neither or both of a target and ids are given, or if
+   * there are too many sightings
+   */
+  public Map<String, Object> getThumbnailSprite(Long targetId, List<Long> ids)
+      throws ResponseStatusException {
+    List<T> sightings = getSpriteSightings(targetId, ids);
+    SightingThumbnails.SpriteSheet sheet =
+        SightingThumbnails.getInstance().getSpriteSheet(sightings).join();
+    List<Long> missing = new ArrayList<>(sheet.getMissing());
+    if (ids != null) {
+      Set<Long> found = sightings.stream().map(T::getId).collect(Collectors.toSet());
+      ids.stream().filter(id -> !found.contains(id)).forEach(missing::add);
+    }
+    boolean rendered = sheet.getJpeg() != null;
+    Map<String, Object> result = new LinkedHashMap<>();
+    // the same query, so the sheet is laid out like this index
+    result.put("sprite", rendered
+        ? ServletUriComponentsBuilder.fromCurrentRequest().path("/sprite").toUriString() : null);
+    result.put("etag", rendered ? FileResponses.etag(sheet.getJpeg()) : null);
+    result.put("width", sheet.getWidth());
+    result.put("height", sheet.getHeight());
+    result.put("index", sheet.getSprites());
+    result.put("missing", missing);
+    return result;
+  }
+
+  /**
+   * Constructs an HTTP response with the sprite sheet laid out by {@link #getThumbnailSprite}. The
+   * sheet changes with the sightings, so clients revalidate it with the ETag the index gives.
+   *
+   * @param targetId the id of the target whose sightings to render, or null
+   * @param ids the ids of the sightings to render, or null
+   * @param request the request being served
+   * @return 200 with the sprite sheet as a JPEG, 304 if the client's copy is current, or 404 if no
+   * thumbnail could be rendered
+   * @throws ResponseStatusException 400 if neither or both of a target and ids are given, or if
+   * there are too many sightings
+   */
+  public ResponseEntity<byte[]> getThumbnailSpriteImage(Long targetId, List<Long> ids,
+      HttpServletRequest request) throws ResponseStatusException {
+    List<T> sightings = getSpriteSightings(targetId, ids);
+    SightingThumbnails.SpriteSheet sheet =
+        SightingThumbnails.getInstance().getSpriteSheet(sightings).join();
+    if (sheet.getJpeg() == null) {
+      return ResponseEntity.notFound().build();
+    }
+    HttpHeaders headers = new HttpHeaders();
+    headers.setCacheControl(CacheControl.noCache());
+    return FileResponses.serve(sheet.getJpeg(), MediaType.IMAGE_JPEG, headers, request);
+  }
+
+  /** Loads the sightings of a sprite sheet, with their images */
+  private List<T> getSpriteSightings(Long targetId, List<Long> ids)
+      throws ResponseStatusException {
+    if ((targetId == null) == (ids == null)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Pass either a target or a list of " + getTypeName() + " target sighting ids");
+    }
+    if (ids != null && ids.size() > Flags.SPRITE_MAX_SIGHTINGS) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Can't render more than " + Flags.SPRITE_MAX_SIGHTINGS + " thumbnails at once");
+    }
+    List<T> sightings = getTargetSightingDao().getWithImages(targetId, ids);
+    if (sightings.size() > Flags.SPRITE_MAX_SIGHTINGS) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Can't render more than " + Flags.SPRITE_MAX_SIGHTINGS + " thumbnails at once");
+    }
+    return sightings;
+  }
+
   /**
    * Returns new ts after updating a target sighting given an id
    *
    * @param id Long id of target sighting
-   * @return Updated target sighting
+   * @param size the size of the image any pixel values of the update are in (preview, screen or
+   * original), defaulting to original
+   * @return Updated target sighting, with pixel values in the space of the original image
    * @throws ResponseStatusException if new target sighting is invalid
    */
-  public abstract T update(Long id, T other) throws ResponseStatusException;
+  public abstract T update(Long id, T other, String size) throws ResponseStatusException;
 
   /**
    * Creates a target sighting in this assigned image
    *
    * @param assignmentId the id of the assignment for which to create target sighting
+   * @param size the size of the image the target sighting was tagged on (preview, screen or
+   * original), defaulting to original
    * @return the created target sighting on success, 204 when the associated assignment
-   * does not exist, or 400 when the request includes an id or geotag field or if the
-   * creator field does not match the creator of the associated assignment
+   * does not exist, or 400 when the request includes an id or geotag field, if the
+   * creator field does not match the creator of the associated assignment or if the size is
+   * invalid
    * @throws ResponseStatusException if new target sighting is invalid
    */
-  public T create(Long assignmentId, T ts) throws ResponseStatusException {
+  public T create(Long assignmentId, T ts, String size) throws ResponseStatusException {
     Assignment a = assignmentDao.get(assignmentId);
     if (a == null) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND,
           String.format("Assignment with id %d not found", assignmentId));
     }
+    ImageDerivatives.Size imageSize = ImageDerivatives.Size.fromParam(size);
+    if (imageSize == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid image size " + size);
+    }
 
     if (ts.getId() != null) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Don't pass in ids for creates");
@@ -78,10 +187,18 @@ public abstract class TargetSightingController<T extends TargetSighting> {
           "Creator ODLCUser does not match ODLCUser of assignment");
     }
     ts.setAssignment(a);
+    // pixel values are stored in the space of the original image
+    ts.scaleToOriginal(imageSize, a.getImage());
 
     boolean geotagChanged = Geotag.attemptSetGeotagForTargetSighting(ts);
     //stores the target sighting in the database
     getTargetSightingDao().create(ts);
+    // render the thumbnail now so it is ready when the target is submitted
+    SightingThumbnails.getInstance().prerender(ts);
+    if (a.getAssignee().getUserType() == ODLCUser.UserType.ADLC) {
+      // taggers should look at what ADLC found sooner
+      AssignmentDispatcher.getInstance().adlcFound(a.getImage());
+    }
 
     // Updates geotag of the corresponding target in the database
     //check deviation?? prevent outliers
@@ -98,11 +215,18 @@ public abstract class TargetSightingController<T extends TargetSighting> {
    *
    * @param ts    Target sighting to be updated
    * @param other Target sighting with updated fields
-   * @return the updated target sighting on success, 400 if supplied target sighting with updated
-   * * fields is incorrectly formatted
+   * @param size the size of the image the pixel values of {@code other} are in, defaulting to
+   * original
+   * @return the updated target sighting on success, with pixel values in the space of the original
+   * image, 400 if supplied target sighting with updated fields is incorrectly formatted or if the
+   * size is invalid
    * @throws ResponseStatusException if new target sighting is invalid
    */
-  T updateFromTargetSighting(T ts, T other) {
+  T updateFromTargetSighting(T ts, T other, String size) {
+    ImageDerivatives.Size imageSize = ImageDerivatives.Size.fromParam(size);
+    if (imageSize == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid image size " + size);
+    }
     if (other.getId() != null) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Don't pass ids for updates");
     }
@@ -113,22 +237,20 @@ public abstract class TargetSightingController<T extends TargetSighting> {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Don't pass geotag for updates");
     }
 
-    if (other.getpixelx() != null && !other.getpixelx().equals(ts.getpixelx())) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-          "Don't change value of pixel_x. Current value is " + ts.getpixelx());
-    }
-    if (other.getpixely() != null && !other.getpixely().equals(ts.getpixely())) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-          "Don't change value of pixel_y. Current value is " + ts.getpixely());
-    }
-    if (other.getWidth() != null && !other.getWidth().equals(ts.getWidth())) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-          "Don't change value of width. Current value is " + ts.getWidth());
-    }
-    if (other.getHeight() != null && !other.getHeight().equals(ts.getHeight())) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-          "Don't change value of height. Current value is " + ts.getHeight());
-    }
+    // the stored values are in the space of the original image, so they are compared in the size
+    // the client read them in, where converting them back and forth doesn't move them
+    Dimension original = imageSize == ImageDerivatives.Size.ORIGINAL || ts.getAssignment() == null
+        ? null : ImageDerivatives.originalSize(ts.getAssignment().getImage());
+    IntUnaryOperator toSizeX = original == null ? x -> x
+        : x -> (int) Math.round(imageSize.fromOriginalX(x, original));
+    IntUnaryOperator toSizeY = original == null ? y -> y
+        : y -> (int) Math.round(imageSize.fromOriginalY(y, original));
+    checkUnchanged("pixel_x", other.getpixelx(), ts.getpixelx(), toSizeX);
+    checkUnchanged("pixel_y", other.getpixely(), ts.getpixely(), toSizeY);
+    checkUnchanged("width", other.getWidth(), ts.getWidth(), toSizeX);
+    checkUnchanged("height", other.getHeight(), ts.getHeight(), toSizeY);
+    // unchanged, so the stored values are kept as they are
+    other.clearPixelBox();
     ts.updateFromTargetSighting(other);
 
     getTargetSightingDao().update(ts);
@@ -140,6 +262,27 @@ public abstract class TargetSightingController<T extends TargetSighting> {
     return ts;
   }
 
+  /**
+   * Checks that an update doesn't change a pixel value of a target sighting
+   *
+   * @param name the name of the value, for the error message
+   * @param updated the value in the update, in the size the client tagged on, or null
+   * @param current the stored value, in the space of the original image
+   * @param toSize converts a value from the original image to the size the client tagged on
+   * @throws ResponseStatusException 400 if the value is changed
+   */
+  private static void checkUnchanged(String name, Integer updated, Integer current,
+      IntUnaryOperator toSize) throws ResponseStatusException {
+    if (updated == null) {
+      return;
+    }
+    Integer expected = current == null ? null : toSize.applyAsInt(current);
+    if (!updated.equals(expected)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Don't change value of " + name + ". Current value is " + expected);
+    }
+  }
+
   /**
    * Deletes target sighting with id {@code id}
    *
@@ -155,7 +298,12 @@ public abstract class TargetSightingController<T extends TargetSighting> {
    * @throws ResponseStatusException
    */
   protected void deleteFromSighting(T ts) throws ResponseStatusException {
-    getTargetSightingDao().delete(ts.getId());
+    if (!getTargetSightingDao().delete(ts.getId())) {
+      // deleted by someone else, who updates everything that depends on it
+      return;
+    }
+    TransactionCallbacks.afterCommit(() -> MissionStats.getInstance().sightingDeleted(ts));
+    SightingThumbnails.getInstance().invalidate(ts);
 
     if (ts.getTarget() != null) {
       Geotag.updateGeotag(ts.getTarget(), null);
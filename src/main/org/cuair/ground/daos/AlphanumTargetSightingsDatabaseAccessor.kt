@@ -1,5 +1,6 @@
 package org.cuair.ground.daos
 
+import io.ebean.FetchGroupBuilder
 import org.cuair.ground.models.plane.target.AlphanumTargetSighting
 
 /**
@@ -7,4 +8,9 @@ import org.cuair.ground.models.plane.target.AlphanumTargetSighting
  *
  * @param <T> subclass of AlphanumTargetSighting
  */
-class AlphanumTargetSightingsDatabaseAccessor<T : AlphanumTargetSighting>(modelClass: Class<T>) : TargetSightingsDatabaseAccessor<T>(modelClass) {}
+class AlphanumTargetSightingsDatabaseAccessor<T : AlphanumTargetSighting>(modelClass: Class<T>) : TargetSightingsDatabaseAccessor<T>(modelClass) {
+
+    /** Also loads the points outlining each sighting, with one more query for all the sightings */
+    override fun serializedFetchGroup(builder: FetchGroupBuilder<T>): FetchGroupBuilder<T> =
+            super.serializedFetchGroup(builder).fetchQuery("points")
+}
@@ -1,10 +1,19 @@
 package org.cuair.ground.daos;
 
 import io.ebean.DB;
+import io.ebean.FetchGroup;
+import io.ebean.Transaction;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.cuair.ground.models.Assignment;
 import org.cuair.ground.models.Image;
 import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.util.Flags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,6 +27,22 @@ public class AssignmentDatabaseAccessor extends TimestampDatabaseAccessor<Assign
 
   private static final Logger logger = LoggerFactory.getLogger(AssignmentDatabaseAccessor.class);
 
+  /**
+   * What serializing an assignment reads: its image with the image's telemetry and field of view,
+   * and its assignee, all loaded by one joined query rather than four lazy loads per assignment
+   */
+  public static final FetchGroup<Assignment> SERIALIZED =
+      FetchGroup.of(Assignment.class)
+          .fetch("image")
+          .fetch("image.telemetry")
+          .fetch("image.fov")
+          .fetch("assignee")
+          .build();
+
+  /** When each MDLC and ADLC user last got work, to tell how many of them are active */
+  private final ConcurrentMap<Long, Long> mdlcLastWork = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, Long> adlcLastWork = new ConcurrentHashMap<>();
+
   /** Constructs a database accessor object for the assignment class */
   AssignmentDatabaseAccessor() {
     super(Assignment.class);
@@ -25,38 +50,103 @@ public class AssignmentDatabaseAccessor extends TimestampDatabaseAccessor<Assign
 
   /**
    * Creates an assignment for the earliest image that still needs to be processed by the given
-   * ODLCUser and commits it to the database.
+   * ODLCUser and commits it to the database. Images are taken from the {@link
+   * AssignmentDispatcher}, so concurrent callers are never given the same image. The image is
+   * claimed and the assignment created in one transaction, so a failure leaves the image unclaimed.
+   * The assignment is leased, and its image is handed out again if the lease isn't renewed through
+   * {@link AssignmentLeases}.
    *
    * @param user the ODLCUser this assignment is to be assigned to
    * @return an assignment that assigns the unprocessed image to the given ODLCUser
    */
   public Assignment getWork(ODLCUser user) {
-    String propertyName;
-    if (user.getUserType().equals(ODLCUser.UserType.ADLC)) {
-      propertyName = "hasAdlcAssignment";
-    } else {
-      propertyName = "hasMdlcAssignment";
+    lastWork(user).put(user.getId(), System.currentTimeMillis());
+    // the claim is undone, and the image queued again, if the assignment can't be created
+    try (Transaction transaction = DB.beginTransaction()) {
+      Image i;
+      do {
+        Long imageId = AssignmentDispatcher.getInstance().claim(user.getUserType());
+        if (imageId == null) {
+          return null;
+        }
+        // null if the image was deleted after it was claimed
+        i = imageDao.get(imageId);
+      } while (i == null);
+      Assignment a = new Assignment(i, user);
+      a.setTimestamp(new java.sql.Timestamp(new java.util.Date().getTime()));
+      a.setLeaseExpires(AssignmentLeases.newExpiry());
+      this.create(a);
+      transaction.commit();
+      return a;
     }
-    List<Image> i_list = DB.find(Image.class)
-        .where()
-        .eq(propertyName, false) //if "hasXdlcAssignment is false, adds it to the list
-        .orderBy()
-        .asc("id")
-        .findList();
-    if (i_list.isEmpty()) {
-      return null;
+  }
+
+  /**
+   * Predicts the images that the active users of the same kind (MDLC or ADLC) as the given user
+   * will be assigned next. Images are handed out in order to whoever asks first, so which of them
+   * the given user gets is not known, but together they are the next Flags.PREFETCH_IMAGES for
+   * each user of that kind that got work within the last lease.
+   *
+   * @param user the ODLCUser who just got work
+   * @return the images, in the order they will be handed out, with the next images of the given
+   *     user most likely among the first Flags.PREFETCH_IMAGES
+   */
+  public List<Image> getUpcoming(ODLCUser user) {
+    long now = System.currentTimeMillis();
+    ConcurrentMap<Long, Long> lastWork = lastWork(user);
+    lastWork.values().removeIf(t -> now - t > Flags.ASSIGNMENT_LEASE_MILLIS);
+    int active = lastWork.size();
+    int count = Math.min(Flags.PREFETCH_IMAGES * Math.max(active, 1), Flags.PREFETCH_MAX_IMAGES);
+    List<Long> ids = AssignmentDispatcher.getInstance().peek(user.getUserType(), count);
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
     }
-    Image i = i_list.get(0);
-    Assignment a = new Assignment(i, user);
-    a.setTimestamp(new java.sql.Timestamp(new java.util.Date().getTime()));
-    this.create(a);
-    if (user.getUserType().equals(ODLCUser.UserType.ADLC)) {
-      imageDao.setImageHasADLCAssignment(i);
-    } else {
-      imageDao.setImageHasMDLCAssignment(i);
+    Map<Long, Image> images = DB.find(Image.class).where().idIn(ids).findMap();
+    List<Image> upcoming = new ArrayList<>();
+    for (Long id : ids) {
+      if (images.containsKey(id)) {
+        upcoming.add(images.get(id));
+      }
     }
+    return upcoming;
+  }
 
-    return a;
+  /**
+   * Creates assignments for up to a number of images that still need to be processed by the given
+   * ODLCUser, claiming the images and committing the assignments in one transaction. The
+   * assignments are leased for only Flags.BATCH_ACK_MILLIS, so their images are handed out again
+   * unless the client acknowledges them through {@link AssignmentLeases#renewAll}.
+   *
+   * @param user the ODLCUser the assignments are to be assigned to
+   * @param max the largest number of assignments to create
+   * @return the assignments, in the order their images were claimed, which is empty if there is no
+   *     work
+   */
+  public List<Assignment> getWorkBatch(ODLCUser user, int max) {
+    List<Assignment> batch = new ArrayList<>();
+    // the claims are undone, and the images queued again, if the transaction is rolled back
+    try (Transaction transaction = DB.beginTransaction()) {
+      List<Long> ids = AssignmentDispatcher.getInstance().claimBatch(user.getUserType(), max);
+      if (ids.isEmpty()) {
+        return batch;
+      }
+      Map<Long, Image> images = DB.find(Image.class).where().idIn(ids).findMap();
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      Timestamp expiry = new Timestamp(now.getTime() + Flags.BATCH_ACK_MILLIS);
+      for (Long id : ids) {
+        // missing if the image was deleted after it was claimed
+        Image i = images.get(id);
+        if (i != null) {
+          Assignment a = new Assignment(i, user);
+          a.setTimestamp(now);
+          a.setLeaseExpires(expiry);
+          batch.add(a);
+        }
+      }
+      DB.saveAll(batch);
+      transaction.commit();
+      return batch;
+    }
   }
 
   /**
@@ -67,6 +157,7 @@ public class AssignmentDatabaseAccessor extends TimestampDatabaseAccessor<Assign
    */
   public List<Assignment> getAllForUser(ODLCUser user) {
     return DB.find(Assignment.class)
+        .select(SERIALIZED)
         .where()
         .eq("assignee", user)
         .orderBy()
@@ -83,4 +174,8 @@ public class AssignmentDatabaseAccessor extends TimestampDatabaseAccessor<Assign
   public List<Assignment> getAllForImageId(Long imageId) {
     return DB.find(getModelClass()).where().eq("image_id", imageId).findList();
   }
+
+  private ConcurrentMap<Long, Long> lastWork(ODLCUser user) {
+    return user.getUserType().equals(ODLCUser.UserType.ADLC) ? adlcLastWork : mdlcLastWork;
+  }
 }
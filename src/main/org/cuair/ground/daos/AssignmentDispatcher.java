@@ -0,0 +1,582 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import io.ebean.ExpressionList;
+import io.ebean.SqlRow;
+import io.ebean.Transaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.ROI;
+import org.cuair.ground.models.plane.target.AlphanumTargetSighting;
+import org.cuair.ground.models.plane.target.EmergentTargetSighting;
+import org.cuair.ground.util.Flags;
+
+/**
+ * Hands out the images that still need to be tagged, so finding work for a tagger doesn't scan the
+ * image table. The images without an MDLC assignment and those without an ADLC assignment wait in
+ * two lock-free priority queues, ranked by an {@link AssignmentScheduler}, with ties going to the
+ * earliest image. Images are added as they are inserted, and the queues are rebuilt from the
+ * database at startup.
+ *
+ * <p>Taking an image out of a queue hands it to exactly one caller. The claim is then confirmed
+ * with a conditional update of the image, so images that were assigned some other way or were
+ * deleted are skipped rather than handed out twice.
+ *
+ * <p>The queues only know about images inserted through this backend. When several backends share
+ * one database, {@link Flags#CLAIM_WITH_SKIP_LOCKED} makes every claim select and mark the next
+ * image in the database in a single statement instead, skipping rows other backends have locked.
+ * Images are then handed out in id order.
+ *
+ * <p>The scheduler may leave images out of the MDLC queue altogether, and is told as taggers
+ * finish images so the images they overlap can be re-ranked.
+ *
+ * <p>Clients with nothing to do can wait for work instead of polling. Waiters are parked without a
+ * thread, and every image queued wakes one waiter for its kind of assignment. With claims made in
+ * the database, images inserted through other backends wake no one, so waiting clients look in
+ * the database once more when they time out.
+ */
+public class AssignmentDispatcher {
+
+  private static AssignmentDispatcher instance;
+
+  /** A client waiting for an image to be queued */
+  public interface Waiter {
+
+    /**
+     * Called on a dispatcher thread once an image may be available
+     *
+     * @return false if the waiter has gone away, so the next waiter should be woken instead
+     */
+    boolean wake();
+  }
+
+  /** An image waiting in a queue */
+  private static class Pending implements Comparable<Pending> {
+    private final long imageId;
+    private final double rank;
+
+    Pending(long imageId, double rank) {
+      this.imageId = imageId;
+      this.rank = rank;
+    }
+
+    /** Higher ranks first, then lower ids */
+    @Override
+    public int compareTo(Pending other) {
+      int byRank = Double.compare(other.rank, rank);
+      return byRank != 0 ? byRank : Long.compare(imageId, other.imageId);
+    }
+  }
+
+  /**
+   * Images waiting for one kind of assignment. The set orders them for claiming in O(log n), and
+   * the index finds an image's entry so it can be re-ranked in O(log n).
+   */
+  private static class PendingQueue {
+    private final ConcurrentSkipListSet<Pending> queue = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<Long, Pending> index = new ConcurrentHashMap<>();
+
+    /** Queues an image, or moves it if it is already queued */
+    void put(long imageId, double rank) {
+      Pending entry = new Pending(imageId, rank);
+      Pending previous = index.put(imageId, entry);
+      queue.add(entry);
+      if (previous != null && previous.compareTo(entry) != 0) {
+        queue.remove(previous);
+      }
+    }
+
+    /** Takes the highest ranked image, or returns null if there is none */
+    Pending poll() {
+      Pending entry = queue.pollFirst();
+      if (entry != null) {
+        index.remove(entry.imageId, entry);
+      }
+      return entry;
+    }
+
+    void remove(long imageId) {
+      Pending entry = index.remove(imageId);
+      if (entry != null) {
+        queue.remove(entry);
+      }
+    }
+
+    boolean contains(long imageId) {
+      return index.containsKey(imageId);
+    }
+
+    boolean isEmpty() {
+      return queue.isEmpty();
+    }
+
+    List<Long> peek(int max) {
+      List<Long> ids = new ArrayList<>();
+      for (Pending pending : queue) {
+        if (ids.size() >= max) {
+          break;
+        }
+        ids.add(pending.imageId);
+      }
+      return ids;
+    }
+
+    void clear() {
+      queue.clear();
+      index.clear();
+    }
+  }
+
+  /** Images that have no MDLC assignment */
+  private final PendingQueue mdlcQueue = new PendingQueue();
+
+  /** Images that have no ADLC assignment */
+  private final PendingQueue adlcQueue = new PendingQueue();
+
+  /** Clients waiting for an MDLC assignment, in the order they started waiting */
+  private final Queue<Waiter> mdlcWaiters = new ConcurrentLinkedQueue<>();
+
+  /** Clients waiting for an ADLC assignment, in the order they started waiting */
+  private final Queue<Waiter> adlcWaiters = new ConcurrentLinkedQueue<>();
+
+  /** The pool waiters are woken on, so the thread that queued an image isn't held up */
+  private final ExecutorService wakers;
+
+  /** Ranks the queued images */
+  private volatile AssignmentScheduler scheduler;
+
+  /**
+   * Creates a dispatcher
+   *
+   * @param scheduler ranks the queued images
+   * @param threads the number of waiters that may be woken at once
+   */
+  AssignmentDispatcher(AssignmentScheduler scheduler, int threads) {
+    this.scheduler = scheduler;
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, "assignment-waiters-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    wakers = Executors.newFixedThreadPool(threads, factory);
+  }
+
+  /**
+   * Gets the shared dispatcher, creating it on first use
+   *
+   * @return the shared dispatcher
+   */
+  public static synchronized AssignmentDispatcher getInstance() {
+    if (instance == null) {
+      instance = new AssignmentDispatcher(new WeightedAssignmentScheduler(),
+          Flags.WORK_WAITER_THREADS);
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared dispatcher if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Changes how images are ranked. Images that are already queued keep their rank until the queues
+   * are rebuilt.
+   *
+   * @param scheduler ranks the queued images
+   */
+  public void setScheduler(AssignmentScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /** Replaces the queued images with those in the database that still need assignments */
+  public void rebuild() {
+    scheduler.rebuild();
+    List<Image> images = DB.find(Image.class)
+        .fetch("telemetry")
+        .fetch("fov")
+        .where()
+        .or()
+        .eq("hasMdlcAssignment", false)
+        .eq("hasAdlcAssignment", false)
+        .endOr()
+        .findList();
+    Set<Long> found = imagesWithAdlcFinds(null);
+    clear();
+    for (Image image : images) {
+      queue(image, found.contains(image.getId()));
+    }
+  }
+
+  /** Forgets all queued images, for when the image table is cleared */
+  public void clear() {
+    mdlcQueue.clear();
+    adlcQueue.clear();
+  }
+
+  /**
+   * Queues a newly inserted image for the kinds of assignment it doesn't have yet
+   *
+   * @param image the image, which must already be committed to the database
+   */
+  public void offer(Image image) {
+    queue(image, false);
+  }
+
+  /**
+   * Queues an image again after its assignment was given up. The image must already be marked as
+   * unassigned in the database.
+   *
+   * @param imageId the id of the image
+   * @param adlc whether the image needs an ADLC rather than an MDLC assignment
+   */
+  public void release(long imageId, boolean adlc) {
+    Image image = DB.find(Image.class).fetch("telemetry").fetch("fov").setId(imageId).findOne();
+    if (image == null) {
+      return;
+    }
+    if (adlc) {
+      adlcQueue.put(imageId, scheduler.rank(image, true, false));
+    } else {
+      boolean found = !imagesWithAdlcFinds(Collections.singleton(imageId)).isEmpty();
+      if (!putMdlc(image, found)) {
+        return;
+      }
+    }
+    wake(adlc);
+  }
+
+  /**
+   * Re-ranks an image that is waiting for MDLC after ADLC placed an ROI or target sighting on it
+   *
+   * @param image the image
+   */
+  public void adlcFound(Image image) {
+    if (image != null && mdlcQueue.contains(image.getId())) {
+      putMdlc(image, true);
+    }
+  }
+
+  /**
+   * Tells the scheduler that a tagger finished an image, and re-ranks the queued images it says
+   * were affected
+   *
+   * @param image the image, with its telemetry and FOV
+   */
+  public void mdlcDone(Image image) {
+    if (image == null) {
+      return;
+    }
+    List<Long> affected = new ArrayList<>();
+    for (Long id : scheduler.imageDone(image)) {
+      if (mdlcQueue.contains(id)) {
+        affected.add(id);
+      }
+    }
+    if (affected.isEmpty()) {
+      return;
+    }
+    List<Image> images = DB.find(Image.class)
+        .fetch("telemetry")
+        .fetch("fov")
+        .where()
+        .idIn(affected)
+        .findList();
+    Set<Long> found = imagesWithAdlcFinds(affected);
+    for (Image queued : images) {
+      if (mdlcQueue.contains(queued.getId())) {
+        putMdlc(queued, found.contains(queued.getId()));
+      }
+    }
+  }
+
+  /**
+   * Takes the highest ranked image that still needs an assignment for a kind of user, marking it
+   * as assigned in the database. If the mark is made in a transaction that is rolled back, the
+   * image is queued again.
+   *
+   * @param userType the type of user the image will be assigned to
+   * @return the id of the image, or null if every image has been assigned
+   */
+  public Long claim(ODLCUser.UserType userType) {
+    boolean adlc = userType.equals(ODLCUser.UserType.ADLC);
+    if (Flags.CLAIM_WITH_SKIP_LOCKED) {
+      Long imageId = claimFromDatabase(adlc);
+      if (imageId != null) {
+        dequeuedOnCommit(imageId, adlc);
+      }
+      return imageId;
+    }
+    PendingQueue queue = adlc ? adlcQueue : mdlcQueue;
+    Pending entry;
+    while ((entry = queue.poll()) != null) {
+      if (markAssigned(entry.imageId, adlc)) {
+        requeueOnRollback(queue, entry, adlc);
+        dequeuedOnCommit(entry.imageId, adlc);
+        return entry.imageId;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects up to a number of images without an assignment, in the same order as {@link #claim},
+   * and marks them as assigned. The marks are made in the caller's transaction, so they are undone
+   * along with it, and the images are then queued again.
+   *
+   * @param userType the type of user requesting the images
+   * @param max the largest number of images to claim
+   * @return the ids of the images, which is empty if every image has been assigned
+   */
+  public List<Long> claimBatch(ODLCUser.UserType userType, int max) {
+    boolean adlc = userType.equals(ODLCUser.UserType.ADLC);
+    if (Flags.CLAIM_WITH_SKIP_LOCKED) {
+      String column = adlc ? "has_adlc_assignment" : "has_mdlc_assignment";
+      String sql = "UPDATE image SET " + column + " = true WHERE id IN ("
+          + "SELECT id FROM image WHERE " + column + " = false ORDER BY id LIMIT :max "
+          + "FOR UPDATE SKIP LOCKED) RETURNING id";
+      List<Long> ids = new ArrayList<>();
+      for (SqlRow row : DB.sqlQuery(sql).setParameter("max", max).findList()) {
+        ids.add(row.getLong("id"));
+        dequeuedOnCommit(row.getLong("id"), adlc);
+      }
+      return ids;
+    }
+    PendingQueue queue = adlc ? adlcQueue : mdlcQueue;
+    List<Long> ids = new ArrayList<>();
+    Pending entry;
+    while (ids.size() < max && (entry = queue.poll()) != null) {
+      if (markAssigned(entry.imageId, adlc)) {
+        requeueOnRollback(queue, entry, adlc);
+        dequeuedOnCommit(entry.imageId, adlc);
+        ids.add(entry.imageId);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Gets the images that will be handed out next, without claiming them
+   *
+   * @param userType the type of user the images would be handed to
+   * @param max the largest number of images to get
+   * @return the ids of the images, in the order they would be claimed in
+   */
+  public List<Long> peek(ODLCUser.UserType userType, int max) {
+    boolean adlc = userType.equals(ODLCUser.UserType.ADLC);
+    if (Flags.CLAIM_WITH_SKIP_LOCKED) {
+      return DB.find(Image.class)
+          .where()
+          .eq(adlc ? "hasAdlcAssignment" : "hasMdlcAssignment", false)
+          .order("id asc")
+          .setMaxRows(max)
+          .findIds();
+    }
+    return (adlc ? adlcQueue : mdlcQueue).peek(max);
+  }
+
+  /**
+   * Parks a client until an image is queued for its kind of user. The waiter is woken at most
+   * once, and must wait again if it finds no work when woken.
+   *
+   * @param userType the type of user waiting
+   * @param waiter called once an image may be available
+   */
+  public void await(ODLCUser.UserType userType, Waiter waiter) {
+    boolean adlc = userType.equals(ODLCUser.UserType.ADLC);
+    (adlc ? adlcWaiters : mdlcWaiters).add(waiter);
+    // an image queued before the waiter was added would not have woken it
+    if (hasPending(adlc)) {
+      wake(adlc);
+    }
+  }
+
+  /**
+   * Stops a client from waiting
+   *
+   * @param userType the type of user waiting
+   * @param waiter the waiter passed to {@link #await}
+   */
+  public void cancel(ODLCUser.UserType userType, Waiter waiter) {
+    (userType.equals(ODLCUser.UserType.ADLC) ? adlcWaiters : mdlcWaiters).remove(waiter);
+  }
+
+  /** Stops waking waiters */
+  public void shutDown() {
+    wakers.shutdownNow();
+  }
+
+  /**
+   * Checks whether there may be an image to claim for a kind of assignment. Claims made in the
+   * database never take images out of the queues, so the database is asked instead.
+   */
+  private boolean hasPending(boolean adlc) {
+    if (Flags.CLAIM_WITH_SKIP_LOCKED) {
+      return DB.find(Image.class)
+          .where()
+          .eq(adlc ? "hasAdlcAssignment" : "hasMdlcAssignment", false)
+          .exists();
+    }
+    return !(adlc ? adlcQueue : mdlcQueue).isEmpty();
+  }
+
+  /** Wakes the longest waiting client that is still there, on the pool */
+  private void wake(boolean adlc) {
+    Queue<Waiter> waiters = adlc ? adlcWaiters : mdlcWaiters;
+    if (waiters.isEmpty()) {
+      return;
+    }
+    try {
+      wakers.execute(() -> {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+          if (waiter.wake()) {
+            return;
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // shutting down
+    }
+  }
+
+  /**
+   * Selects the earliest image without an assignment of a kind and marks it in one statement. The
+   * row is locked while it is marked, and concurrent claims skip locked rows rather than waiting
+   * for them, so claims from several backends neither block each other nor return the same image.
+   *
+   * @param adlc whether to claim an image for ADLC rather than MDLC
+   * @return the id of the image, or null if every image has been assigned
+   */
+  Long claimFromDatabase(boolean adlc) {
+    String column = adlc ? "has_adlc_assignment" : "has_mdlc_assignment";
+    String sql = "UPDATE image SET " + column + " = true WHERE id = ("
+        + "SELECT id FROM image WHERE " + column + " = false ORDER BY id LIMIT 1 "
+        + "FOR UPDATE SKIP LOCKED) RETURNING id";
+    try (Transaction transaction = DB.beginTransaction()) {
+      SqlRow row = DB.sqlQuery(sql).findOne();
+      transaction.commit();
+      return row == null ? null : row.getLong("id");
+    }
+  }
+
+  /**
+   * Marks an image as assigned unless it already is
+   *
+   * @param imageId the id of the image
+   * @param adlc whether to mark the ADLC rather than the MDLC assignment
+   * @return true if this call marked the image, false if it was already marked or doesn't exist
+   */
+  boolean markAssigned(long imageId, boolean adlc) {
+    String property = adlc ? "hasAdlcAssignment" : "hasMdlcAssignment";
+    return DB.update(Image.class)
+        .set(property, true)
+        .where()
+        .idEq(imageId)
+        .eq(property, false)
+        .update() == 1;
+  }
+
+  /**
+   * Puts a claimed image back in its queue if the transaction that marked it as assigned is rolled
+   * back, since the mark is then undone and the image still needs the assignment
+   */
+  private void requeueOnRollback(PendingQueue queue, Pending entry, boolean adlc) {
+    TransactionCallbacks.onRollback(() -> {
+      queue.put(entry.imageId, entry.rank);
+      wake(adlc);
+    });
+  }
+
+  /**
+   * Tells the scheduler that a claimed image no longer waits for MDLC once the claim commits, as a
+   * claim that is rolled back leaves the image queued
+   */
+  private void dequeuedOnCommit(long imageId, boolean adlc) {
+    if (!adlc) {
+      TransactionCallbacks.afterCommit(() -> scheduler.imageDequeued(imageId));
+    }
+  }
+
+  /** Queues an image for the kinds of assignment it doesn't have yet */
+  private void queue(Image image, boolean adlcFound) {
+    if (!image.getHasMdlcAssignment() && putMdlc(image, adlcFound)) {
+      wake(false);
+    }
+    if (!image.getHasAdlcAssignment()) {
+      adlcQueue.put(image.getId(), scheduler.rank(image, true, adlcFound));
+      wake(true);
+    }
+  }
+
+  /**
+   * Ranks an image for MDLC and queues it, or takes it out of the queue if the scheduler skips it
+   *
+   * @return whether the image is queued
+   */
+  private boolean putMdlc(Image image, boolean adlcFound) {
+    if (scheduler.skip(image, false)) {
+      mdlcQueue.remove(image.getId());
+      scheduler.imageDequeued(image.getId());
+      return false;
+    }
+    mdlcQueue.put(image.getId(), scheduler.rank(image, false, adlcFound));
+    return true;
+  }
+
+  /**
+   * Finds the images ADLC has placed ROIs or target sightings on
+   *
+   * @param imageIds the only images to look at, or null for all of them
+   * @return the ids of the images
+   */
+  private static Set<Long> imagesWithAdlcFinds(Collection<Long> imageIds) {
+    Set<Long> ids = new HashSet<>();
+    addAdlcFinds(ROI.class, ROI::getAssignment, imageIds, ids);
+    addAdlcFinds(AlphanumTargetSighting.class, AlphanumTargetSighting::getAssignment, imageIds,
+        ids);
+    addAdlcFinds(EmergentTargetSighting.class, EmergentTargetSighting::getAssignment, imageIds,
+        ids);
+    return ids;
+  }
+
+  private static <T> void addAdlcFinds(Class<T> type, Function<T, Assignment> assignment,
+      Collection<Long> imageIds, Set<Long> ids) {
+    ExpressionList<T> query = DB.find(type)
+        .select("id")
+        .fetch("assignment", "image")
+        .where()
+        .eq("assignment.assignee.userType", ODLCUser.UserType.ADLC);
+    if (imageIds != null) {
+      query = query.in("assignment.image.id", imageIds);
+    }
+    for (T find : query.findList()) {
+      Assignment a = assignment.apply(find);
+      if (a != null && a.getImage() != null) {
+        ids.add(a.getImage().getId());
+      }
+    }
+  }
+}
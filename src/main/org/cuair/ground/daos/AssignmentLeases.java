@@ -0,0 +1,262 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import io.ebean.ExpressionList;
+import io.ebean.Transaction;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes back the images of assignments whose clients went away. Every assignment is leased for
+ * Flags.ASSIGNMENT_LEASE_MILLIS and clients renew the lease while they work on it. A background
+ * sweep finds unfinished assignments whose lease has run out, through the index on their expiry,
+ * ends their lease and puts their images back in the {@link AssignmentDispatcher}.
+ */
+public class AssignmentLeases {
+  private static final Logger logger = LoggerFactory.getLogger(AssignmentLeases.class);
+
+  private static AssignmentLeases instance;
+
+  /** Runs the sweeps */
+  private final ScheduledExecutorService sweeper;
+
+  /** The number of assignments taken back since startup */
+  private final AtomicLong reclaimed = new AtomicLong();
+
+  /** The total time the reclaimed assignments were held for, in milliseconds */
+  private final AtomicLong reclaimedAgeMillis = new AtomicLong();
+
+  /**
+   * Creates a sweeper
+   *
+   * @param intervalMillis the time between sweeps, or 0 to only sweep when asked
+   */
+  AssignmentLeases(long intervalMillis) {
+    sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "assignment-leases");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (intervalMillis > 0) {
+      sweeper.scheduleWithFixedDelay(() -> {
+        try {
+          sweep();
+        } catch (RuntimeException e) {
+          logger.error("Unable to reclaim expired assignments", e);
+        }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Gets the shared sweeper, starting it on first use
+   *
+   * @return the shared sweeper
+   */
+  public static synchronized AssignmentLeases getInstance() {
+    if (instance == null) {
+      instance = new AssignmentLeases(Flags.ASSIGNMENT_SWEEP_INTERVAL_MILLIS);
+    }
+    return instance;
+  }
+
+  /** Stops the shared sweeper if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Gets when a lease starting now runs out
+   *
+   * @return the expiry of a new or renewed lease
+   */
+  public static Timestamp newExpiry() {
+    return new Timestamp(System.currentTimeMillis() + Flags.ASSIGNMENT_LEASE_MILLIS);
+  }
+
+  /**
+   * Extends the lease of an unfinished assignment
+   *
+   * @param assignmentId the id of the assignment
+   * @return the new expiry, or null if the assignment is done, doesn't exist or its lease has
+   *     already been reclaimed
+   */
+  public Timestamp renew(long assignmentId) {
+    Timestamp expiry = newExpiry();
+    int renewed = DB.update(Assignment.class)
+        .set("leaseExpires", expiry)
+        .where()
+        .idEq(assignmentId)
+        .eq("done", false)
+        .isNotNull("leaseExpires")
+        .update();
+    return renewed == 1 ? expiry : null;
+  }
+
+  /**
+   * Extends the leases of several unfinished assignments of one user at once, such as a batch the
+   * user has just received
+   *
+   * @param assignmentIds the ids of the assignments
+   * @param assignee the user the assignments must be assigned to
+   * @param expiry the new expiry, from {@link #newExpiry}
+   * @return the ids of the assignments whose lease was extended, leaving out those that are done,
+   *     don't exist, are assigned to someone else or have already been reclaimed
+   */
+  public List<Long> renewAll(Collection<Long> assignmentIds, ODLCUser assignee,
+      Timestamp expiry) {
+    if (assignmentIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    try (Transaction transaction = DB.beginTransaction()) {
+      DB.update(Assignment.class)
+          .set("leaseExpires", expiry)
+          .where()
+          .idIn(assignmentIds)
+          .eq("assignee", assignee)
+          .eq("done", false)
+          .isNotNull("leaseExpires")
+          .update();
+      List<Long> renewed = DB.find(Assignment.class)
+          .where()
+          .idIn(assignmentIds)
+          .eq("assignee", assignee)
+          .eq("leaseExpires", expiry)
+          .findIds();
+      transaction.commit();
+      return renewed;
+    }
+  }
+
+  /**
+   * Takes back the image of an assignment right away, for when it was claimed but couldn't be
+   * handed to its client
+   *
+   * @param a the assignment, with its image and assignee
+   * @return true if the image was taken back, false if the assignment is done or already reclaimed
+   */
+  public boolean release(Assignment a) {
+    return reclaim(a, null);
+  }
+
+  /**
+   * Takes back the images of all unfinished assignments whose lease has run out
+   *
+   * @return the number of assignments reclaimed
+   */
+  public int sweep() {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    List<Assignment> expired = DB.find(Assignment.class)
+        .select("timestamp")
+        .fetch("image", "id")
+        .fetch("assignee", "userType")
+        .where()
+        .eq("done", false)
+        .lt("leaseExpires", now)
+        .findList();
+    int count = 0;
+    for (Assignment a : expired) {
+      if (reclaim(a, now)) {
+        count++;
+        reclaimed.incrementAndGet();
+        if (a.getTimestamp() != null) {
+          reclaimedAgeMillis.addAndGet(now.getTime() - a.getTimestamp().getTime());
+        }
+      }
+    }
+    if (count > 0) {
+      logger.info("Reclaimed " + count + " expired assignments");
+    }
+    return count;
+  }
+
+  /**
+   * Reports how many assignments have been reclaimed and how long current leases have been held
+   *
+   * @return the number of assignments reclaimed since startup, the average time they were held,
+   *     the number of assignments currently leased and the age of the oldest of them
+   */
+  public Map<String, Object> getStats() {
+    long now = System.currentTimeMillis();
+    int active = DB.find(Assignment.class)
+        .where()
+        .eq("done", false)
+        .isNotNull("leaseExpires")
+        .findCount();
+    Assignment oldest = DB.find(Assignment.class)
+        .select("timestamp")
+        .where()
+        .eq("done", false)
+        .isNotNull("leaseExpires")
+        .order("timestamp asc")
+        .setMaxRows(1)
+        .findOne();
+    long count = reclaimed.get();
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("reclaimed", count);
+    stats.put("reclaimedAverageAgeMillis", count == 0 ? 0 : reclaimedAgeMillis.get() / count);
+    stats.put("activeLeases", active);
+    stats.put("oldestLeaseAgeMillis", oldest == null || oldest.getTimestamp() == null
+        ? 0 : now - oldest.getTimestamp().getTime());
+    return stats;
+  }
+
+  /** Stops sweeping */
+  public void shutDown() {
+    sweeper.shutdownNow();
+  }
+
+  /**
+   * Ends the lease of an assignment and marks its image as needing work again, unless the client
+   * renewed or finished it since it was found
+   *
+   * @param a the assignment, with its image and assignee
+   * @param now the time the lease must have run out by, or null to end it whenever it runs out
+   */
+  private static boolean reclaim(Assignment a, Timestamp now) {
+    if (a.getImage() == null) {
+      return false;
+    }
+    boolean adlc = a.getAssignee().getUserType().equals(ODLCUser.UserType.ADLC);
+    long imageId = a.getImage().getId();
+    try (Transaction transaction = DB.beginTransaction()) {
+      ExpressionList<Assignment> unfinished = DB.update(Assignment.class)
+          .setNull("leaseExpires")
+          .where()
+          .idEq(a.getId())
+          .eq("done", false);
+      int ended = (now == null
+          ? unfinished.isNotNull("leaseExpires")
+          : unfinished.lt("leaseExpires", now)).update();
+      if (ended != 1) {
+        return false;
+      }
+      DB.update(Image.class)
+          .set(adlc ? "hasAdlcAssignment" : "hasMdlcAssignment", false)
+          .where()
+          .idEq(imageId)
+          .update();
+      transaction.commit();
+    }
+    MissionStats.getInstance().reclaimed(a.getAssignee().getId());
+    AssignmentDispatcher.getInstance().release(imageId, adlc);
+    return true;
+  }
+}
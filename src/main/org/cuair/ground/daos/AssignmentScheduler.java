@@ -0,0 +1,54 @@
+package org.cuair.ground.daos;
+
+import java.util.Collection;
+import java.util.Collections;
+import org.cuair.ground.models.Image;
+
+/**
+ * Decides the order in which the {@link AssignmentDispatcher} hands out images. Images are ranked
+ * once when they are queued, and again when something that affects their rank happens to them.
+ */
+public interface AssignmentScheduler {
+
+  /**
+   * Ranks an image that is waiting to be assigned
+   *
+   * @param image the image, with its telemetry and FOV
+   * @param adlc whether the image is waiting for an ADLC rather than an MDLC assignment
+   * @param adlcFound whether ADLC has already placed ROIs or target sightings on the image
+   * @return the rank of the image, where images with higher ranks are handed out first
+   */
+  double rank(Image image, boolean adlc, boolean adlcFound);
+
+  /**
+   * Decides whether an image should not be handed out at all
+   *
+   * @param image the image, with its telemetry and FOV
+   * @param adlc whether the image is waiting for an ADLC rather than an MDLC assignment
+   * @return true to leave the image out of the queue
+   */
+  default boolean skip(Image image, boolean adlc) {
+    return false;
+  }
+
+  /**
+   * Tells the scheduler that a tagger finished an image
+   *
+   * @param image the image, with its telemetry and FOV
+   * @return the ids of images ranked earlier whose rank may have changed because of it
+   */
+  default Collection<Long> imageDone(Image image) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Tells the scheduler that an image is no longer waiting for MDLC, because it was claimed or
+   * skipped, so it can forget what it kept to re-rank it
+   *
+   * @param imageId the id of the image
+   */
+  default void imageDequeued(long imageId) {}
+
+  /** Reloads anything the scheduler keeps about earlier images, before the queues are rebuilt */
+  default void rebuild() {}
+}
@@ -1,9 +1,23 @@
 package org.cuair.ground.daos;
 
+import io.ebean.BeanState;
 import io.ebean.DB;
+import io.ebean.DuplicateKeyException;
+import io.ebean.FetchGroup;
+import io.ebean.Transaction;
+import io.ebean.TxScope;
+import io.ebean.annotation.PersistBatch;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
 import org.cuair.ground.models.CUAirModel;
+import org.cuair.ground.util.Flags;
 
 /**
  * Database Accessor class that provides an interface for persisting models into a database.
@@ -42,9 +56,22 @@ public class DatabaseAccessor<T extends CUAirModel> {
     return DB.find(modelClass).findList();
   }
 
+  /**
+   * Retrieves all instances of T models from the database, together with the associations in
+   * {@code fetchGroup}, so that serializing them doesn't lazily load each association one model at
+   * a time. Returns an empty list if no such models exist in the database.
+   *
+   * @param fetchGroup the properties and associations to load
+   * @return a list of all instances
+   */
+  public List<T> getAll(FetchGroup<T> fetchGroup) {
+    return DB.find(modelClass).select(fetchGroup).findList();
+  }
+
   /**
    * Retrieves the instance of Model T with id {@code id}. If a model with the corresponding id
-   * doesn't exist, then it returns null.
+   * doesn't exist, then it returns null. Within a transaction, a model that was already loaded is
+   * returned without querying the database again.
    *
    * @param id of the model
    * @return instance of T
@@ -53,7 +80,7 @@ public class DatabaseAccessor<T extends CUAirModel> {
     if (id == null) {
       return null;
     }
-    return DB.find(modelClass).where().eq("id", id).findOne();
+    return DB.find(modelClass, id);
   }
 
   /**
@@ -73,28 +100,113 @@ public class DatabaseAccessor<T extends CUAirModel> {
    * Stores {@code object} in the database and returns true. Returns false if the object has already
    * been entered in the database.
    *
+   * <p>The object is inserted without first looking it up. An object without an id can't be in the
+   * database yet, and inserting one that has an id fails on its primary key if it already is.
+   * Inside a caller's transaction, where a failed insert would abort the whole transaction, objects
+   * with an id are checked for first instead. Conflicts on any other unique constraint are not
+   * caught.
+   *
    * @param object to be stored in the database
    * @return whether the object was successfully entered into the database
+   * @throws DuplicateKeyException if the object conflicts with another on a unique constraint
    */
   public boolean create(T object) {
-    if (get(object.getId()) != null) {
+    // the insert sets the id of an object without one
+    Long id = object.getId();
+    boolean inTransaction = DB.currentTransaction() != null;
+    if (id != null && inTransaction && exist(Collections.singletonList(id))) {
+      return false;
+    }
+    try {
+      DB.insert(object);
+    } catch (DuplicateKeyException e) {
+      if (id == null || inTransaction || !exist(Collections.singletonList(id))) {
+        throw e;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stores all of {@code objects} in the database in one transaction, sending the inserts in JDBC
+   * batches. If any of the objects has already been entered in the database, none of them are.
+   *
+   * @param objects to be stored in the database
+   * @return whether the objects were successfully entered into the database
+   * @throws DuplicateKeyException if an object conflicts with another on a unique constraint
+   */
+  public boolean createAll(Collection<T> objects) {
+    List<Long> ids = objects.stream()
+        .map(CUAirModel::getId)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+    boolean inTransaction = DB.currentTransaction() != null;
+    if (inTransaction && existAny(ids)) {
+      return false;
+    }
+    try (Transaction transaction = beginBatch()) {
+      DB.insertAll(objects);
+      transaction.commit();
+    } catch (DuplicateKeyException e) {
+      if (inTransaction || !existAny(ids)) {
+        throw e;
+      }
       return false;
     }
-    DB.save(object);
     return true;
   }
 
   /**
-   * Updates {@code object} in the database
+   * Updates {@code object} in the database with a single update statement, which reports whether
+   * there was a row to update. An object loaded from the database without changes isn't written,
+   * so it is looked up instead. Objects built elsewhere, e.g. from a request body, are always
+   * written in full.
    *
    * @param object to be updated in the database
    * @return whether the object was successfully updated in the database
    */
   public boolean update(T object) {
-    if (get(object.getId()) == null) {
+    if (object.getId() == null) {
+      return false;
+    }
+    boolean unchanged = isUnchanged(object);
+    try {
+      // still run for unchanged objects, whose changed children are saved with them
+      DB.update(object);
+    } catch (EntityNotFoundException | OptimisticLockException e) {
+      return false;
+    }
+    return !unchanged || exist(Collections.singletonList(object.getId()));
+  }
+
+  /**
+   * Updates all of {@code objects} in the database in one transaction, sending the updates in JDBC
+   * batches. If any of the objects is not in the database, none of them are updated.
+   *
+   * @param objects to be updated in the database
+   * @return whether the objects were successfully updated in the database
+   */
+  public boolean updateAll(Collection<T> objects) {
+    List<Long> unchanged = new ArrayList<>();
+    for (T object : objects) {
+      if (object.getId() == null) {
+        return false;
+      }
+      if (isUnchanged(object)) {
+        unchanged.add(object.getId());
+      }
+    }
+    try (Transaction transaction = beginBatch()) {
+      DB.updateAll(objects);
+      // loaded objects without changes aren't written, so whether they are there is looked up
+      if (!unchanged.isEmpty() && !exist(unchanged)) {
+        return false;
+      }
+      transaction.commit();
+    } catch (EntityNotFoundException | OptimisticLockException e) {
       return false;
     }
-    DB.update(object);
     return true;
   }
 
@@ -105,10 +217,56 @@ public class DatabaseAccessor<T extends CUAirModel> {
    * @return whether the object was successfully deleted from the database
    */
   public boolean delete(Long id) {
-    if (get(id) == null) {
+    if (id == null) {
       return false;
     }
-    DB.delete(modelClass, id);
-    return true;
+    return DB.delete(modelClass, id) > 0;
+  }
+
+  /**
+   * Deletes the objects with {@code ids} from the database in one transaction
+   *
+   * @param ids ids of the objects to be deleted
+   * @return the number of objects that were deleted
+   */
+  public int deleteAll(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    try (Transaction transaction = beginBatch()) {
+      int deleted = DB.deleteAll(modelClass, ids);
+      transaction.commit();
+      return deleted;
+    }
+  }
+
+  /**
+   * Whether an object was loaded from the database and hasn't changed since, so updating it sends
+   * no statement. Objects that weren't loaded, e.g. built from a request body, are never dirty but
+   * are written in full.
+   */
+  private static boolean isUnchanged(CUAirModel object) {
+    BeanState state = DB.getBeanState(object);
+    return !state.isNew() && !state.isDirty();
+  }
+
+  /** Whether all the objects with {@code ids} are in the database */
+  private boolean exist(Collection<Long> ids) {
+    return DB.find(modelClass).where().idIn(ids).findCount() == new HashSet<>(ids).size();
+  }
+
+  /** Whether any of the objects with {@code ids} are in the database */
+  private boolean existAny(Collection<Long> ids) {
+    return !ids.isEmpty() && DB.find(modelClass).where().idIn(ids).exists();
+  }
+
+  /**
+   * Begins a transaction that sends its statements in JDBC batches. Inside a caller's transaction
+   * the batch is flushed and the caller's batch settings restored once it ends.
+   */
+  private static Transaction beginBatch() {
+    return DB.beginTransaction(TxScope.required()
+        .setBatch(PersistBatch.ALL)
+        .setBatchSize(Flags.DATABASE_BATCH_SIZE));
   }
 }
@@ -0,0 +1,142 @@
+package org.cuair.ground.daos;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.cuair.ground.models.geotag.GpsLocation;
+
+/**
+ * The footprints of images by id, in the same grid of cells as {@link ImageCoverage}, so the
+ * images near a footprint are found by looking only at the cells it overlaps rather than at every
+ * image.
+ */
+class FootprintIndex {
+
+  /** The width and height of a cell, in degrees */
+  private final double cellDegrees;
+
+  /** The footprint of each image */
+  private final Map<Long, GpsLocation[]> footprints = new ConcurrentHashMap<>();
+
+  /** The images whose footprint overlaps each cell */
+  private final Map<Long, Set<Long>> cells = new ConcurrentHashMap<>();
+
+  /**
+   * Creates an empty index
+   *
+   * @param cellDegrees the width and height of a cell, in degrees
+   */
+  FootprintIndex(double cellDegrees) {
+    this.cellDegrees = cellDegrees;
+  }
+
+  /**
+   * Indexes the footprint of an image, replacing the one it had
+   *
+   * @param id the id of the image
+   * @param footprint the corners of its footprint, in order around it
+   */
+  void put(long id, GpsLocation[] footprint) {
+    GpsLocation[] previous = footprints.put(id, footprint);
+    if (previous != null) {
+      unindex(id, previous);
+    }
+    long[] box = cellBox(footprint);
+    if ((box[2] - box[0] + 1) * (box[3] - box[1] + 1) > ImageCoverage.MAX_CELLS) {
+      footprints.remove(id, footprint);
+      return;
+    }
+    for (long row = box[0]; row <= box[2]; row++) {
+      for (long col = box[1]; col <= box[3]; col++) {
+        // added inside compute, so a cell emptied by a concurrent remove can't swallow the id
+        cells.compute(key(row, col), (k, ids) -> {
+          Set<Long> updated = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+          updated.add(id);
+          return updated;
+        });
+      }
+    }
+  }
+
+  /**
+   * Forgets the footprint of an image
+   *
+   * @param id the id of the image
+   */
+  void remove(long id) {
+    GpsLocation[] footprint = footprints.remove(id);
+    if (footprint != null) {
+      unindex(id, footprint);
+    }
+  }
+
+  /**
+   * Finds the images whose footprint may overlap a footprint
+   *
+   * @param footprint the corners of the footprint
+   * @return the ids of the images whose footprint's bounding box overlaps its bounding box
+   */
+  Set<Long> overlapping(GpsLocation[] footprint) {
+    Set<Long> ids = new LinkedHashSet<>();
+    long[] box = cellBox(footprint);
+    if ((box[2] - box[0] + 1) * (box[3] - box[1] + 1) > ImageCoverage.MAX_CELLS) {
+      return ids;
+    }
+    for (long row = box[0]; row <= box[2]; row++) {
+      for (long col = box[1]; col <= box[3]; col++) {
+        Set<Long> near = cells.get(key(row, col));
+        if (near == null) {
+          continue;
+        }
+        for (Long id : near) {
+          GpsLocation[] other = footprints.get(id);
+          if (other != null && !ids.contains(id) && ImageCoverage.mayOverlap(footprint, other)) {
+            ids.add(id);
+          }
+        }
+      }
+    }
+    return ids;
+  }
+
+  /** The number of footprints indexed */
+  int size() {
+    return footprints.size();
+  }
+
+  /** Forgets every footprint */
+  void clear() {
+    footprints.clear();
+    cells.clear();
+  }
+
+  private void unindex(long id, GpsLocation[] footprint) {
+    long[] box = cellBox(footprint);
+    if ((box[2] - box[0] + 1) * (box[3] - box[1] + 1) > ImageCoverage.MAX_CELLS) {
+      return;
+    }
+    for (long row = box[0]; row <= box[2]; row++) {
+      for (long col = box[1]; col <= box[3]; col++) {
+        cells.computeIfPresent(key(row, col), (k, ids) -> {
+          ids.remove(id);
+          return ids.isEmpty() ? null : ids;
+        });
+      }
+    }
+  }
+
+  /** Gets the first and last rows and columns of cells a footprint's bounding box overlaps */
+  private long[] cellBox(GpsLocation[] footprint) {
+    double[] box = ImageCoverage.box(footprint);
+    return new long[] {cell(box[0]), cell(box[1]), cell(box[2]), cell(box[3])};
+  }
+
+  private long cell(double degrees) {
+    return (long) Math.floor(degrees / cellDegrees);
+  }
+
+  private static long key(long row, long col) {
+    return (row << 32) ^ (col & 0xffffffffL);
+  }
+}
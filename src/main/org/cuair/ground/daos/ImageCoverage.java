@@ -0,0 +1,177 @@
+package org.cuair.ground.daos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.cuair.ground.models.geotag.GpsLocation;
+
+/**
+ * The area on the ground that taggers have already looked at, as the footprints of the images they
+ * finished. Footprints are kept in a grid of cells a fixed number of degrees wide, indexed by each
+ * cell their bounding box overlaps, so checking a point only tests the few footprints near it.
+ *
+ * <p>How much of a new footprint is covered is estimated from a grid of points spread over it,
+ * which is exact enough to tell a repeat of a finished frame from one that sees new ground.
+ */
+class ImageCoverage {
+
+  /** Footprints spanning more cells than this come from bad telemetry and are not indexed */
+  static final long MAX_CELLS = 10000;
+
+  /** The width and height of a cell, in degrees */
+  private final double cellDegrees;
+
+  /** The number of points along each side of a footprint that coverage is sampled at */
+  private final int samples;
+
+  /** The footprints overlapping each cell */
+  private final Map<Long, List<GpsLocation[]>> cells = new ConcurrentHashMap<>();
+
+  /**
+   * Creates an empty coverage
+   *
+   * @param cellDegrees the width and height of a cell of the index, in degrees
+   * @param samples the number of points along each side of a footprint to sample coverage at
+   */
+  ImageCoverage(double cellDegrees, int samples) {
+    this.cellDegrees = cellDegrees;
+    this.samples = samples;
+  }
+
+  /**
+   * Marks the area of a footprint as looked at
+   *
+   * @param footprint the corners of the footprint, in order around it
+   * @return false if the footprint was too large to index
+   */
+  boolean add(GpsLocation[] footprint) {
+    long[] box = cellBox(footprint);
+    if ((box[2] - box[0] + 1) * (box[3] - box[1] + 1) > MAX_CELLS) {
+      return false;
+    }
+    for (long row = box[0]; row <= box[2]; row++) {
+      for (long col = box[1]; col <= box[3]; col++) {
+        cells.computeIfAbsent(key(row, col), k -> new CopyOnWriteArrayList<>()).add(footprint);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Estimates how much of a footprint has already been looked at
+   *
+   * @param footprint the corners of a quadrilateral footprint, in order around it
+   * @return the fraction of the footprint inside footprints already added, from 0 to 1
+   */
+  double coveredFraction(GpsLocation[] footprint) {
+    if (cells.isEmpty()) {
+      return 0;
+    }
+    int covered = 0;
+    for (double[] point : samplePoints(footprint)) {
+      List<GpsLocation[]> near = cells.get(key(cell(point[0]), cell(point[1])));
+      if (near == null) {
+        continue;
+      }
+      for (GpsLocation[] other : near) {
+        if (contains(other, point[0], point[1])) {
+          covered++;
+          break;
+        }
+      }
+    }
+    return (double) covered / (samples * samples);
+  }
+
+  /**
+   * Checks whether the bounding boxes of two footprints overlap
+   *
+   * @param a the corners of one footprint
+   * @param b the corners of the other
+   * @return whether they may overlap
+   */
+  static boolean mayOverlap(GpsLocation[] a, GpsLocation[] b) {
+    double[] boxA = box(a);
+    double[] boxB = box(b);
+    return boxA[0] <= boxB[2] && boxB[0] <= boxA[2] && boxA[1] <= boxB[3] && boxB[1] <= boxA[3];
+  }
+
+  /** Forgets every footprint */
+  void clear() {
+    cells.clear();
+  }
+
+  /**
+   * Checks whether a point is inside a polygon, by counting the edges a ray from the point crosses
+   *
+   * @param polygon the corners of the polygon, in order around it
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @return whether the point is inside
+   */
+  static boolean contains(GpsLocation[] polygon, double latitude, double longitude) {
+    boolean inside = false;
+    for (int i = 0, j = polygon.length - 1; i < polygon.length; j = i++) {
+      double xi = polygon[i].getLongitude();
+      double yi = polygon[i].getLatitude();
+      double xj = polygon[j].getLongitude();
+      double yj = polygon[j].getLatitude();
+      if ((yi > latitude) != (yj > latitude)
+          && longitude < (xj - xi) * (latitude - yi) / (yj - yi) + xi) {
+        inside = !inside;
+      }
+    }
+    return inside;
+  }
+
+  /**
+   * Spreads points evenly over a quadrilateral, by interpolating between its corners
+   *
+   * @return the latitude and longitude of each point
+   */
+  private List<double[]> samplePoints(GpsLocation[] quad) {
+    List<double[]> points = new ArrayList<>(samples * samples);
+    for (int i = 0; i < samples; i++) {
+      double u = (i + 0.5) / samples;
+      for (int j = 0; j < samples; j++) {
+        double v = (j + 0.5) / samples;
+        double[] weights = {(1 - u) * (1 - v), u * (1 - v), u * v, (1 - u) * v};
+        double[] point = new double[2];
+        for (int k = 0; k < 4; k++) {
+          point[0] += weights[k] * quad[k].getLatitude();
+          point[1] += weights[k] * quad[k].getLongitude();
+        }
+        points.add(point);
+      }
+    }
+    return points;
+  }
+
+  /** Gets the first and last rows and columns of cells a footprint's bounding box overlaps */
+  private long[] cellBox(GpsLocation[] footprint) {
+    double[] box = box(footprint);
+    return new long[] {cell(box[0]), cell(box[1]), cell(box[2]), cell(box[3])};
+  }
+
+  /** Gets the lowest latitude and longitude and the highest latitude and longitude */
+  static double[] box(GpsLocation[] footprint) {
+    double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (GpsLocation corner : footprint) {
+      box[0] = Math.min(box[0], corner.getLatitude());
+      box[1] = Math.min(box[1], corner.getLongitude());
+      box[2] = Math.max(box[2], corner.getLatitude());
+      box[3] = Math.max(box[3], corner.getLongitude());
+    }
+    return box;
+  }
+
+  private long cell(double degrees) {
+    return (long) Math.floor(degrees / cellDegrees);
+  }
+
+  private static long key(long row, long col) {
+    return (row << 32) ^ (col & 0xffffffffL);
+  }
+}
@@ -1,5 +1,8 @@
 package org.cuair.ground.daos;
 
+import io.ebean.DB;
+import io.ebean.Query;
+import java.sql.Timestamp;
 import org.cuair.ground.models.Image;
 
 /** Database Accessor Object that provides an interface for persisting images. */
@@ -9,6 +12,22 @@ public class ImageDatabaseAccessor extends TimestampDatabaseAccessor<Image> {
     super(Image.class);
   }
 
+  /**
+   * Retrieves the image taken at the given time. Returns null if no such image exists.
+   *
+   * @param timestamp the time the image was taken
+   * @return the image with that timestamp
+   */
+  public Image getByTimestamp(Timestamp timestamp) {
+    return DB.find(Image.class).where().eq("timestamp", timestamp).setMaxRows(1).findOne();
+  }
+
+  /** Fetches the telemetry and FOV in the same query as the images, as every client needs them */
+  @Override
+  protected Query<Image> afterIdQuery(long id) {
+    return super.afterIdQuery(id).fetch("telemetry").fetch("fov");
+  }
+
   public boolean setImageHasMDLCAssignment(Image i) {
     i.setHasMdlcAssignment(true);
     return this.update(i);
@@ -0,0 +1,259 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import io.ebean.SqlRow;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.plane.target.AlphanumTargetSighting;
+import org.cuair.ground.models.plane.target.Target;
+import org.cuair.ground.models.plane.target.TargetSighting;
+
+/**
+ * Counts the progress of the mission: images ingested, assignments handed out, finished and
+ * reclaimed for each user, and target sightings for each target. The counters are rebuilt from the
+ * database at startup and updated as things happen, so reading them never touches the database.
+ *
+ * <p>Images, assignments and sightings are counted by the {@code MissionStatsListener} once the
+ * transaction that saved them commits. Sightings deleted and assignments reclaimed by the lease
+ * sweeper are counted where that happens, since neither goes through a bean Ebean can listen to.
+ */
+public class MissionStats {
+
+  private static MissionStats instance;
+
+  /** Counters for the assignments of a user or kind of user */
+  private static class AssignmentCounts {
+    private final LongAdder assigned = new LongAdder();
+    private final LongAdder done = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+
+    private Map<String, Object> toMap() {
+      long total = assigned.sum();
+      long finished = done.sum();
+      long lost = reclaimed.sum();
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("assigned", total);
+      map.put("done", finished);
+      map.put("reclaimed", lost);
+      map.put("inProgress", total - finished - lost);
+      return map;
+    }
+  }
+
+  private final LongAdder imagesIngested = new LongAdder();
+
+  private final AssignmentCounts mdlc = new AssignmentCounts();
+  private final AssignmentCounts adlc = new AssignmentCounts();
+
+  /** Assignment counters by the id of their user */
+  private final ConcurrentMap<Long, AssignmentCounts> byUser = new ConcurrentHashMap<>();
+
+  /** The users counted, by id, as the assignee of an assignment that was loaded may be partial */
+  private final ConcurrentMap<Long, ODLCUser> users = new ConcurrentHashMap<>();
+
+  private final LongAdder alphanumSightings = new LongAdder();
+  private final LongAdder emergentSightings = new LongAdder();
+
+  /** Sightings by target, keyed like "alphanum/3" */
+  private final ConcurrentMap<String, LongAdder> byTarget = new ConcurrentHashMap<>();
+
+  /** Creates counters that start at zero */
+  MissionStats() {}
+
+  /**
+   * Gets the shared counters, creating them on first use
+   *
+   * @return the shared counters
+   */
+  public static synchronized MissionStats getInstance() {
+    if (instance == null) {
+      instance = new MissionStats();
+    }
+    return instance;
+  }
+
+  /**
+   * Recounts everything from the database, e.g. at startup or after the tables are cleared.
+   * Anything counted while this runs may be counted twice or not at all.
+   */
+  public synchronized void rebuild() {
+    imagesIngested.reset();
+    mdlc.assigned.reset();
+    mdlc.done.reset();
+    mdlc.reclaimed.reset();
+    adlc.assigned.reset();
+    adlc.done.reset();
+    adlc.reclaimed.reset();
+    byUser.clear();
+    users.clear();
+    alphanumSightings.reset();
+    emergentSightings.reset();
+    byTarget.clear();
+
+    imagesIngested.add(DB.find(Image.class).findCount());
+
+    for (ODLCUser user : DB.find(ODLCUser.class).findList()) {
+      users.put(user.getId(), user);
+    }
+    // an unfinished assignment without a lease was reclaimed by the sweeper
+    String assignments = "SELECT assignee_id, COUNT(*) AS assigned, "
+        + "SUM(CASE WHEN done THEN 1 ELSE 0 END) AS done, "
+        + "SUM(CASE WHEN NOT done AND lease_expires IS NULL THEN 1 ELSE 0 END) AS reclaimed "
+        + "FROM assignment WHERE assignee_id IS NOT NULL GROUP BY assignee_id";
+    for (SqlRow row : DB.sqlQuery(assignments).findList()) {
+      long userId = row.getLong("assignee_id");
+      add(userId, c -> c.assigned, row.getLong("assigned"));
+      add(userId, c -> c.done, row.getLong("done"));
+      add(userId, c -> c.reclaimed, row.getLong("reclaimed"));
+    }
+
+    countSightings("alphanum", "alphanum_target_sighting", alphanumSightings);
+    countSightings("emergent", "emergent_target_sighting", emergentSightings);
+  }
+
+  /** Counts an image that was ingested */
+  public void imageIngested() {
+    imagesIngested.increment();
+  }
+
+  /**
+   * Counts an assignment that was handed out
+   *
+   * @param assignee the user the assignment was handed to
+   */
+  public void assigned(ODLCUser assignee) {
+    users.putIfAbsent(assignee.getId(), assignee);
+    add(assignee.getId(), c -> c.assigned, 1);
+  }
+
+  /**
+   * Counts an assignment that was finished
+   *
+   * @param assigneeId the id of the user the assignment was handed to
+   */
+  public void done(long assigneeId) {
+    add(assigneeId, c -> c.done, 1);
+  }
+
+  /**
+   * Counts an assignment whose lease ran out, so its image was handed to someone else
+   *
+   * @param assigneeId the id of the user the assignment was handed to
+   */
+  public void reclaimed(long assigneeId) {
+    add(assigneeId, c -> c.reclaimed, 1);
+  }
+
+  /**
+   * Counts a target sighting that was created
+   *
+   * @param ts the sighting
+   */
+  public void sightingCreated(TargetSighting ts) {
+    (ts instanceof AlphanumTargetSighting ? alphanumSightings : emergentSightings).increment();
+    addToTarget(ts, ts.getTarget(), 1);
+  }
+
+  /**
+   * Counts a target sighting that was deleted
+   *
+   * @param ts the sighting, as it was before it was deleted
+   */
+  public void sightingDeleted(TargetSighting ts) {
+    (ts instanceof AlphanumTargetSighting ? alphanumSightings : emergentSightings).decrement();
+    addToTarget(ts, ts.getTarget(), -1);
+  }
+
+  /**
+   * Moves a target sighting from one target to another
+   *
+   * @param ts the sighting
+   * @param from the target it was a sighting of, or null if it had none
+   * @param to the target it is now a sighting of, or null if it has none
+   */
+  public void sightingRetargeted(TargetSighting ts, Target from, Target to) {
+    addToTarget(ts, from, -1);
+    addToTarget(ts, to, 1);
+  }
+
+  /**
+   * Forgets the sightings of a target after they were all unassociated from it at once
+   *
+   * @param type the kind of sightings that were unassociated
+   * @param targetId the id of the target
+   */
+  public void sightingsUnassociated(Class<? extends TargetSighting> type, long targetId) {
+    String kind = AlphanumTargetSighting.class.isAssignableFrom(type) ? "alphanum" : "emergent";
+    byTarget.remove(kind + "/" + targetId);
+  }
+
+  /**
+   * Reads the counters
+   *
+   * @return the images ingested, the assignments of MDLC, ADLC and each user, and the sightings
+   *     of each kind and each target
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> perUser = new LinkedHashMap<>();
+    for (Map.Entry<Long, AssignmentCounts> entry : byUser.entrySet()) {
+      ODLCUser user = users.get(entry.getKey());
+      perUser.put(user == null ? String.valueOf(entry.getKey()) : user.getUsername(),
+          entry.getValue().toMap());
+    }
+    Map<String, Object> perTarget = new LinkedHashMap<>();
+    for (Map.Entry<String, LongAdder> entry : byTarget.entrySet()) {
+      perTarget.put(entry.getKey(), entry.getValue().sum());
+    }
+    Map<String, Object> sightings = new LinkedHashMap<>();
+    sightings.put("alphanum", alphanumSightings.sum());
+    sightings.put("emergent", emergentSightings.sum());
+    sightings.put("byTarget", perTarget);
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("imagesIngested", imagesIngested.sum());
+    stats.put("mdlc", mdlc.toMap());
+    stats.put("adlc", adlc.toMap());
+    stats.put("users", perUser);
+    stats.put("sightings", sightings);
+    return stats;
+  }
+
+  /** Adds to a counter of a user and of their kind of user */
+  private void add(long userId, CounterOf counter, long delta) {
+    counter.of(byUser.computeIfAbsent(userId, id -> new AssignmentCounts())).add(delta);
+    ODLCUser user = users.get(userId);
+    if (user != null) {
+      counter.of(user.getUserType() == ODLCUser.UserType.ADLC ? adlc : mdlc).add(delta);
+    }
+  }
+
+  private void addToTarget(TargetSighting ts, Target target, long delta) {
+    if (target == null || target.getId() == null) {
+      return;
+    }
+    String kind = ts instanceof AlphanumTargetSighting ? "alphanum" : "emergent";
+    byTarget.computeIfAbsent(kind + "/" + target.getId(), key -> new LongAdder()).add(delta);
+  }
+
+  private void countSightings(String kind, String table, LongAdder total) {
+    String sql = "SELECT target_id, COUNT(*) AS sightings FROM " + table + " GROUP BY target_id";
+    for (SqlRow row : DB.sqlQuery(sql).findList()) {
+      long count = row.getLong("sightings");
+      total.add(count);
+      Long targetId = row.getLong("target_id");
+      if (targetId != null) {
+        byTarget.computeIfAbsent(kind + "/" + targetId, key -> new LongAdder()).add(count);
+      }
+    }
+  }
+
+  /** Picks one of the counters of an {@link AssignmentCounts} */
+  private interface CounterOf {
+    LongAdder of(AssignmentCounts counts);
+  }
+}
@@ -0,0 +1,42 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import io.ebean.Database;
+import io.ebean.migration.MigrationConfig;
+import io.ebean.migration.MigrationRunner;
+import io.ebean.plugin.SpiServer;
+
+/**
+ * Applies the versioned schema migrations in {@code resources/dbmigration} that the database
+ * doesn't have yet, e.g. the indexes for the columns the hot queries filter on. Migrations are
+ * named {@code <version>__<description>.sql}, applied in version order, and recorded in the
+ * {@code db_migration} table so each is applied once.
+ *
+ * <p>The tables themselves are created from the models, so migrations only add what the models
+ * can't declare, and must run after the tables exist.
+ */
+public class SchemaMigrations {
+
+  /** The classpath directory of the migrations */
+  private static final String MIGRATION_PATH = "dbmigration";
+
+  /** The table recording which migrations were applied */
+  private static final String MIGRATION_TABLE = "db_migration";
+
+  private SchemaMigrations() {}
+
+  /** Applies the migrations that haven't been applied yet */
+  public static void run() {
+    Database db = DB.getDefault();
+    SpiServer server = db.getPluginApi();
+    if (server.getServerConfig().isDdlRun()) {
+      // the tables were just dropped and created from the models, so none of the applied
+      // migrations are in them any more
+      db.sqlUpdate("DROP TABLE IF EXISTS " + MIGRATION_TABLE).execute();
+    }
+    MigrationConfig config = new MigrationConfig();
+    config.setMigrationPath(MIGRATION_PATH);
+    config.setMetaTable(MIGRATION_TABLE);
+    new MigrationRunner(config).run(server.getDataSource());
+  }
+}
@@ -1,6 +1,11 @@
 package org.cuair.ground.daos;
 
 import io.ebean.Ebean;
+import io.ebean.ExpressionList;
+import io.ebean.FetchGroup;
+import io.ebean.FetchGroupBuilder;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.cuair.ground.models.Confidence;
@@ -16,6 +21,9 @@ import org.cuair.ground.models.plane.target.TargetSighting;
 public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
     extends ClientCreatableDatabaseAccessor<T> {
 
+  /** What serializing a target sighting reads, from {@link #serializedFetchGroup} */
+  private final FetchGroup<T> serialized;
+
   /**
    * Creates a Target Sightings database accessor object
    *
@@ -23,6 +31,41 @@ public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
    */
   TargetSightingsDatabaseAccessor(Class<T> modelClass) {
     super(modelClass);
+    this.serialized = serializedFetchGroup(FetchGroup.of(modelClass)).build();
+  }
+
+  /**
+   * Adds what serializing a target sighting reads to a fetch group: its creator, geotag and
+   * target, and its assignment with the assignment's image and assignee. These are joined into the
+   * query for the sightings, so a list of sightings doesn't lazily load each association of each
+   * sighting. Subclasses with more associations add them here.
+   *
+   * @param builder the fetch group of the model class
+   * @return the builder
+   */
+  protected FetchGroupBuilder<T> serializedFetchGroup(FetchGroupBuilder<T> builder) {
+    return builder
+        .fetch("creator")
+        .fetch("geotag")
+        .fetch("assignment")
+        .fetch("assignment.image")
+        .fetch("assignment.image.telemetry")
+        .fetch("assignment.image.fov")
+        .fetch("assignment.assignee")
+        .fetch("target")
+        .fetch("target.geotag")
+        .fetch("target.creator");
+  }
+
+  /**
+   * Retrieves all instances of TargetSightings, together with everything they serialize, in a
+   * fixed number of queries. Returns an empty list if no such models exist in the database.
+   *
+   * @return a list of all instances
+   */
+  @Override
+  public List<T> getAll() {
+    return getAll(serialized);
   }
 
   /**
@@ -32,7 +75,20 @@ public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
    * @return a list of all instances that don't have a Target
    */
   public List<T> getAllNoTargets() {
-    return Ebean.find(getModelClass()).where().isNull("target_id").findList();
+    return Ebean.find(getModelClass()).select(serialized).where().isNull("target_id").findList();
+  }
+
+  /**
+   * Retrieves TargetSightings together with their geotags in a single query
+   *
+   * @param ids the ids of the TargetSightings
+   * @return the TargetSightings that exist, in no particular order
+   */
+  public List<T> getWithGeotags(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Ebean.find(getModelClass()).fetch("geotag").where().idIn(ids).findList();
   }
 
   /**
@@ -42,7 +98,28 @@ public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
    * @return a list of all instances that have the same Target
    */
   public List<T> getAllTargetSightingsForTarget(Long id) {
-    return Ebean.find(getModelClass()).where().eq("target_id", id).findList();
+    return Ebean.find(getModelClass()).select(serialized).where().eq("target_id", id).findList();
+  }
+
+  /**
+   * Retrieves TargetSightings together with their assignments and images, so their thumbnails can
+   * be rendered without a query per sighting. Exactly one of {@code targetId} and {@code ids}
+   * should be given.
+   *
+   * @param targetId Long id of the Target that all TargetSightings share, or null
+   * @param ids the ids of the TargetSightings, or null
+   * @return a list of the TargetSightings, ordered by id
+   */
+  public List<T> getWithImages(Long targetId, List<Long> ids) {
+    ExpressionList<T> query =
+        Ebean.find(getModelClass()).fetch("assignment").fetch("assignment.image").where();
+    if (targetId != null) {
+      query = query.eq("target.id", targetId);
+    }
+    if (ids != null) {
+      query = query.idIn(ids);
+    }
+    return query.order("id").findList();
   }
 
   /**
@@ -52,11 +129,32 @@ public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
    * @param id Long id of target
    */
   public void unassociateAllTargetSightingsForTarget(Long id) {
-    List<T> sightings = Ebean.find(getModelClass()).where().eq("target_id", id).findList();
-    for (TargetSighting sighting : sightings) {
-      sighting.makeAssociatedTargetNull();
-      Ebean.update(sighting);
+    unassociateAllTargetSightingsForTargets(Collections.singletonList(id));
+  }
+
+  /**
+   * Removes the pointers of all target sightings of any of the given targets to their target, with
+   * a single update statement however many sightings there are
+   *
+   * @param ids the ids of the targets
+   * @return the number of target sightings that were unassociated
+   */
+  public int unassociateAllTargetSightingsForTargets(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
     }
+    int updated = Ebean.update(getModelClass())
+        .setNull("target_id")
+        .where()
+        .in("target_id", ids)
+        .update();
+    // the update bypasses the bean listeners that keep the sighting counts of targets
+    TransactionCallbacks.afterCommit(() -> {
+      for (Long id : ids) {
+        MissionStats.getInstance().sightingsUnassociated(getModelClass(), id);
+      }
+    });
+    return updated;
   }
 
   /**
@@ -66,7 +164,11 @@ public class TargetSightingsDatabaseAccessor<T extends TargetSighting>
    * @return a list of all instances that were created by the assignment
    */
   public List<T> getAllTargetSightingsForAssignment(Long assignmentId) {
-    return Ebean.find(getModelClass()).where().eq("assignment_id", assignmentId).findList();
+    return Ebean.find(getModelClass())
+        .select(serialized)
+        .where()
+        .eq("assignment_id", assignmentId)
+        .findList();
   }
 
   /**
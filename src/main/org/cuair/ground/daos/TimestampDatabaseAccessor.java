@@ -1,6 +1,8 @@
 package org.cuair.ground.daos;
 
 import io.ebean.DB;
+import io.ebean.Query;
+import java.util.List;
 import org.cuair.ground.models.TimestampModel;
 
 /**
@@ -28,4 +30,32 @@ public class TimestampDatabaseAccessor<T extends TimestampModel> extends Databas
   public T getRecent() {
     return DB.find(getModelClass()).orderBy().desc("timestamp").setMaxRows(1).findOne();
   }
+
+  /**
+   * Retrieves the instances of Model T with ids greater than {@code id} in ascending id order, in
+   * a single query. To page through the table, pass the id of the last instance returned as
+   * {@code id} for the next page.
+   *
+   * @param id the id after which to start
+   * @param limit the maximum number of instances to return, or null for no limit
+   * @return the instances after {@code id}
+   */
+  public List<T> getAfterId(long id, Integer limit) {
+    Query<T> query = afterIdQuery(id);
+    if (limit != null) {
+      query.setMaxRows(limit);
+    }
+    return query.findList();
+  }
+
+  /**
+   * Builds the query for the instances with ids greater than {@code id}. Subclasses may add fetches
+   * of associations that are always needed with the model.
+   *
+   * @param id the id after which to start
+   * @return the query
+   */
+  protected Query<T> afterIdQuery(long id) {
+    return DB.find(getModelClass()).where().gt("id", id).order().asc("id");
+  }
 }
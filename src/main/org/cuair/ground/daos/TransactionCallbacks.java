@@ -0,0 +1,52 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import io.ebean.Transaction;
+import io.ebean.TransactionCallbackAdapter;
+
+/**
+ * Ties changes to in-memory state, such as the dispatcher queues and the mission stats, to the
+ * transaction of the database changes they mirror, so a rollback doesn't leave the two apart.
+ */
+public class TransactionCallbacks {
+
+  private TransactionCallbacks() {}
+
+  /**
+   * Runs an action once the current transaction commits, or straight away if there is none
+   *
+   * @param action the change to in-memory state
+   */
+  public static void afterCommit(Runnable action) {
+    Transaction transaction = DB.currentTransaction();
+    if (transaction == null || !transaction.isActive()) {
+      action.run();
+      return;
+    }
+    transaction.register(new TransactionCallbackAdapter() {
+      @Override
+      public void postCommit() {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Runs an action if the current transaction is rolled back. Without a transaction, changes are
+   * committed as they are made, so the action is never run.
+   *
+   * @param action the undoing of a change to in-memory state
+   */
+  public static void onRollback(Runnable action) {
+    Transaction transaction = DB.currentTransaction();
+    if (transaction == null || !transaction.isActive()) {
+      return;
+    }
+    transaction.register(new TransactionCallbackAdapter() {
+      @Override
+      public void postRollback() {
+        action.run();
+      }
+    });
+  }
+}
@@ -0,0 +1,215 @@
+package org.cuair.ground.daos;
+
+import io.ebean.DB;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.plane.target.AlphanumTarget;
+import org.cuair.ground.models.plane.target.EmergentTarget;
+import org.cuair.ground.models.plane.target.Target;
+import org.cuair.ground.util.Flags;
+import org.cuair.ground.util.Geotagging;
+
+/**
+ * Ranks images by a weighted sum of what makes them worth tagging sooner: tracking and off-axis
+ * images are aimed at something, ADLC finds deserve a human look, images covering known targets
+ * add sightings to them, and recent images are closer to where the plane is now. The weights are
+ * in Flags. Recency adds a weight for every minute later an image was taken, so with the defaults
+ * a tracking image stays ahead of fixed images taken up to 100 minutes after it.
+ *
+ * <p>Taggers gain little from images of ground they have already looked at, as back to back frames
+ * overlap heavily. Images whose footprint is mostly inside the footprints of images taggers
+ * finished are handed to taggers after everything else, or not at all if
+ * Flags.SKIP_COVERED_IMAGES is set. The finished footprints are kept in an {@link ImageCoverage}.
+ * Images scored as blurry or badly exposed at ingest are likewise handed to taggers last.
+ */
+public class WeightedAssignmentScheduler implements AssignmentScheduler {
+
+  /** Gets the locations of the known targets */
+  private final Supplier<List<GpsLocation>> targetLocations;
+
+  /** Gets the images taggers have finished */
+  private final Supplier<List<Image>> finishedImages;
+
+  /** The ground covered by the images taggers have finished */
+  private final ImageCoverage coverage =
+      new ImageCoverage(Flags.COVERAGE_CELL_DEGREES, Flags.COVERAGE_SAMPLES);
+
+  /**
+   * The footprints of the images waiting for taggers, in the same grid as the coverage, to find
+   * those a finished image overlaps without looking at every queued image
+   */
+  private final FootprintIndex rankedFootprints = new FootprintIndex(Flags.COVERAGE_CELL_DEGREES);
+
+  /** The target locations last looked up, refreshed every Flags.SCHEDULER_TARGET_REFRESH_MILLIS */
+  private volatile List<GpsLocation> targets;
+  private volatile long targetsLoadedAt;
+
+  /** Creates a scheduler that looks up targets and finished images in the database */
+  public WeightedAssignmentScheduler() {
+    this(WeightedAssignmentScheduler::loadTargetLocations,
+        WeightedAssignmentScheduler::loadFinishedImages);
+  }
+
+  /**
+   * Creates a scheduler
+   *
+   * @param targetLocations gets the locations of the known targets
+   * @param finishedImages gets the images taggers have finished, with their telemetry and FOV
+   */
+  WeightedAssignmentScheduler(Supplier<List<GpsLocation>> targetLocations,
+      Supplier<List<Image>> finishedImages) {
+    this.targetLocations = targetLocations;
+    this.finishedImages = finishedImages;
+  }
+
+  @Override
+  public double rank(Image image, boolean adlc, boolean adlcFound) {
+    GpsLocation[] footprint = footprintOf(image);
+    double rank = 0;
+    Image.ImgMode mode = image.getImgMode();
+    if (mode == Image.ImgMode.TRACKING || mode == Image.ImgMode.OFFAXIS) {
+      rank += Flags.SCHEDULER_TRACKING_WEIGHT;
+    }
+    if (adlcFound && !adlc) {
+      rank += Flags.SCHEDULER_ADLC_FOUND_WEIGHT;
+    }
+    rank += Flags.SCHEDULER_TARGET_OVERLAP_WEIGHT * countTargetsCovered(footprint);
+    if (image.getTimestamp() != null) {
+      rank += Flags.SCHEDULER_RECENCY_WEIGHT_PER_MINUTE * image.getTimestamp().getTime() / 60000.0;
+    }
+    if (!adlc && isLowQuality(image)) {
+      rank -= Flags.SCHEDULER_LOW_QUALITY_WEIGHT;
+    }
+    if (!adlc && footprint != null) {
+      if (image.getId() != null) {
+        rankedFootprints.put(image.getId(), footprint);
+      }
+      if (coverage.coveredFraction(footprint) >= Flags.COVERAGE_THRESHOLD) {
+        rank -= Flags.SCHEDULER_COVERED_WEIGHT;
+      }
+    }
+    return rank;
+  }
+
+  @Override
+  public boolean skip(Image image, boolean adlc) {
+    if (adlc || !Flags.SKIP_COVERED_IMAGES) {
+      return false;
+    }
+    GpsLocation[] footprint = footprintOf(image);
+    return footprint != null && coverage.coveredFraction(footprint) >= Flags.COVERAGE_THRESHOLD;
+  }
+
+  @Override
+  public Collection<Long> imageDone(Image image) {
+    GpsLocation[] footprint = footprintOf(image);
+    if (footprint == null || !coverage.add(footprint)) {
+      return Collections.emptyList();
+    }
+    if (image.getId() != null) {
+      rankedFootprints.remove(image.getId());
+    }
+    return rankedFootprints.overlapping(footprint);
+  }
+
+  @Override
+  public void imageDequeued(long imageId) {
+    rankedFootprints.remove(imageId);
+  }
+
+  @Override
+  public void rebuild() {
+    coverage.clear();
+    rankedFootprints.clear();
+    for (Image image : finishedImages.get()) {
+      GpsLocation[] footprint = footprintOf(image);
+      if (footprint != null) {
+        coverage.add(footprint);
+      }
+    }
+  }
+
+  /** Counts the known targets inside the area on the ground an image covers */
+  private int countTargetsCovered(GpsLocation[] footprint) {
+    if (footprint == null) {
+      return 0;
+    }
+    List<GpsLocation> locations = getTargets();
+    if (locations.isEmpty()) {
+      return 0;
+    }
+    int count = 0;
+    for (GpsLocation location : locations) {
+      if (contains(footprint, location)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private List<GpsLocation> getTargets() {
+    long now = System.currentTimeMillis();
+    if (targets == null || now - targetsLoadedAt > Flags.SCHEDULER_TARGET_REFRESH_MILLIS) {
+      targets = targetLocations.get();
+      targetsLoadedAt = now;
+    }
+    return targets;
+  }
+
+  /** Whether an image was scored as blurry or badly exposed at ingest */
+  private static boolean isLowQuality(Image image) {
+    return (image.getSharpness() != null && image.getSharpness() < Flags.QUALITY_MIN_SHARPNESS)
+        || (image.getExposure() != null && image.getExposure() < Flags.QUALITY_MIN_EXPOSURE);
+  }
+
+  /** Gets the area on the ground an image covers, or null if it can't be calculated */
+  private static GpsLocation[] footprintOf(Image image) {
+    if (image.getTelemetry() == null || image.getFov() == null) {
+      return null;
+    }
+    return Geotagging.getFootprint(image.getTelemetry(), image.getFov());
+  }
+
+  /** Whether a point is inside a polygon */
+  static boolean contains(GpsLocation[] polygon, GpsLocation point) {
+    return ImageCoverage.contains(polygon, point.getLatitude(), point.getLongitude());
+  }
+
+  private static List<GpsLocation> loadTargetLocations() {
+    List<GpsLocation> locations = new ArrayList<>();
+    List<Target> all = new ArrayList<>();
+    all.addAll(DB.find(AlphanumTarget.class).fetch("geotag").findList());
+    all.addAll(DB.find(EmergentTarget.class).fetch("geotag").findList());
+    for (Target target : all) {
+      if (target.getGeotag() != null && target.getGeotag().getGpsLocation() != null) {
+        locations.add(target.getGeotag().getGpsLocation());
+      }
+    }
+    return locations;
+  }
+
+  private static List<Image> loadFinishedImages() {
+    List<Image> images = new ArrayList<>();
+    List<Assignment> finished = DB.find(Assignment.class)
+        .fetch("image")
+        .fetch("image.telemetry")
+        .fetch("image.fov")
+        .where()
+        .eq("done", true)
+        .ne("assignee.userType", ODLCUser.UserType.ADLC)
+        .findList();
+    for (Assignment a : finished) {
+      if (a.getImage() != null) {
+        images.add(a.getImage());
+      }
+    }
+    return images;
+  }
+}
@@ -0,0 +1,152 @@
+package org.cuair.ground.filters;
+
+import io.ebean.DB;
+import io.ebean.Transaction;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.cuair.ground.util.Flags;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * Runs each request in one database transaction, so everything a controller reads and writes
+ * shares one connection and is committed once rather than once per statement. The transaction's
+ * persistence context doubles as an identity map: fetching a model by id that was already loaded
+ * during the request returns the loaded instance without a query.
+ *
+ * <p>The transaction is committed just before the first byte of the response is written, so a
+ * failed commit still turns into an error response, and a file being streamed doesn't hold on to
+ * a connection. Requests that throw are rolled back, including those whose exception Spring turns
+ * into an error response. Multipart uploads are left out, since they would hold a connection
+ * while the upload is read, and so are the GETs that mostly read and render files, which would
+ * hold one while they render.
+ */
+@Component
+@Order(2)
+public class UnitOfWorkFilter implements Filter {
+
+  /** GETs that mostly read and render image files, relative to the context path */
+  private static final List<String> RENDERING_PATHS = Arrays.asList(
+      "/image/file/**", "/image/*/tiles/**", "/*/thumbnails", "/*/thumbnails/sprite",
+      "/stream/**");
+
+  private static final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+  /** The transaction of a request, which is ended at most once */
+  private static class UnitOfWork {
+    private final Transaction transaction;
+    private boolean ended;
+
+    UnitOfWork(Transaction transaction) {
+      this.transaction = transaction;
+    }
+
+    synchronized void commit() {
+      if (!ended) {
+        ended = true;
+        try {
+          transaction.commit();
+        } catch (RuntimeException e) {
+          transaction.end();
+          throw e;
+        }
+      }
+    }
+
+    synchronized void end() {
+      if (!ended) {
+        ended = true;
+        transaction.end();
+      }
+    }
+  }
+
+  /** Commits the unit of work before anything is sent to the client */
+  private static class CommittingResponse extends HttpServletResponseWrapper {
+    private final UnitOfWork work;
+
+    CommittingResponse(HttpServletResponse response, UnitOfWork work) {
+      super(response);
+      this.work = work;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      work.commit();
+      return super.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      work.commit();
+      return super.getWriter();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      work.commit();
+      super.flushBuffer();
+    }
+
+    /** Errors are sent for exceptions that Spring resolves, so the request is rolled back */
+    @Override
+    public void sendError(int sc) throws IOException {
+      work.end();
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      work.end();
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      work.commit();
+      super.sendRedirect(location);
+    }
+  }
+
+  @Override
+  public void doFilter(final ServletRequest request, final ServletResponse response,
+                       final FilterChain chain)
+      throws IOException, ServletException {
+    String contentType = request.getContentType();
+    if (!Flags.REQUEST_UNIT_OF_WORK || DB.currentTransaction() != null
+        || (contentType != null && contentType.startsWith("multipart/"))
+        || isRendering((HttpServletRequest) request)) {
+      chain.doFilter(request, response);
+      return;
+    }
+    UnitOfWork work = new UnitOfWork(DB.beginTransaction());
+    try {
+      chain.doFilter(request, new CommittingResponse((HttpServletResponse) response, work));
+      work.commit();
+    } finally {
+      // rolls back if the request threw before anything was committed
+      work.end();
+    }
+  }
+
+  /** Whether a request is a GET that mostly reads and renders image files */
+  static boolean isRendering(HttpServletRequest request) {
+    if (!"GET".equals(request.getMethod())) {
+      return false;
+    }
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    return RENDERING_PATHS.stream().anyMatch(pattern -> pathMatcher.match(pattern, path));
+  }
+}
@@ -0,0 +1,201 @@
+package org.cuair.ground.imaging;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Decoding and encoding shared by everything that renders parts of the plane's images. Images are
+ * only ever decoded through an {@link ImageReader} with a source region and subsampling, so the
+ * pixels outside of what is rendered are never held in memory.
+ */
+class ImageCodec {
+
+  /**
+   * Reads the dimensions of an image from its header without decoding it
+   *
+   * @param file the image file
+   * @return the width and height of the image in pixels
+   * @throws IOException if the image cannot be read
+   */
+  static Dimension size(Path file) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+      ImageReader reader = reader(in, file);
+      try {
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Decodes part of an image, skipping rows and columns while decoding
+   *
+   * @param file the image file
+   * @param region the part of the image to decode in pixels of the original, or null for all of it
+   * @param subsampling decode every n-th row and column
+   * @return the decoded region, about {@code 1 / subsampling} of its size in each dimension
+   * @throws IOException if the image cannot be decoded
+   */
+  static BufferedImage read(Path file, Rectangle region, int subsampling) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+      ImageReader reader = reader(in, file);
+      try {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+          param.setSourceRegion(region);
+        }
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Decodes several parts of one image, opening the file and parsing its header only once.
+   * Regions are cut off at the edges of the image.
+   *
+   * @param file the image file
+   * @param regions the parts of the image to decode, in pixels of the original
+   * @param subsampling for each region, decode every n-th row and column
+   * @return the decoded regions, in the same order, with null for regions outside of the image
+   * @throws IOException if the image cannot be decoded
+   */
+  static BufferedImage[] readRegions(Path file, Rectangle[] regions, int[] subsampling)
+      throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+      // the reader seeks back to the start of the image data for every region
+      ImageReader reader = reader(in, file, false);
+      try {
+        Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+        BufferedImage[] images = new BufferedImage[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+          Rectangle region = regions[i].intersection(bounds);
+          if (region.isEmpty()) {
+            continue;
+          }
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setSourceRegion(region);
+          param.setSourceSubsampling(subsampling[i], subsampling[i], 0, 0);
+          images[i] = reader.read(0, param);
+        }
+        return images;
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Decodes an image scaled down by the largest subsampling that keeps it at least {@code width}
+   * wide, so no more than about twice the needed pixels are ever held in memory.
+   *
+   * @param file the image file
+   * @param width the width the image will be scaled to
+   * @return the decoded image, at least {@code width} wide unless the original is smaller
+   * @throws IOException if the image cannot be decoded
+   */
+  static BufferedImage readAtLeast(Path file, int width) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+      ImageReader reader = reader(in, file);
+      try {
+        int subsampling = Math.max(1, reader.getWidth(0) / width);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Encodes an image as a JPEG
+   *
+   * @param image the image to encode
+   * @param out the stream to write the JPEG to
+   * @param quality the compression quality, between 0 and 1
+   * @param progressive whether to write a progressive JPEG, which browsers draw in increasing
+   *     detail as it downloads
+   * @throws IOException if the JPEG cannot be written
+   */
+  static void write(BufferedImage image, ImageOutputStream out, float quality,
+      boolean progressive) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      if (progressive) {
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+      }
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(toRgb(image), null, null), param);
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * Encodes an image as a baseline JPEG in memory
+   *
+   * @param image the image to encode
+   * @param quality the compression quality, between 0 and 1
+   * @return the JPEG
+   * @throws IOException if the JPEG cannot be written
+   */
+  static byte[] encode(BufferedImage image, float quality) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+      write(image, out, quality, false);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static ImageReader reader(ImageInputStream in, Path file) throws IOException {
+    return reader(in, file, true);
+  }
+
+  private static ImageReader reader(ImageInputStream in, Path file, boolean seekForwardOnly)
+      throws IOException {
+    Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+    if (readers == null || !readers.hasNext()) {
+      throw new IOException("No image reader for " + file);
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(in, seekForwardOnly, true);
+    return reader;
+  }
+
+  /** Drops any alpha channel, which the JPEG writer can't encode */
+  private static BufferedImage toRgb(BufferedImage image) {
+    if (!image.getColorModel().hasAlpha()) {
+      return image;
+    }
+    BufferedImage rgb =
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = rgb.createGraphics();
+    try {
+      g.drawImage(image, 0, 0, null);
+    } finally {
+      g.dispose();
+    }
+    return rgb;
+  }
+}
@@ -0,0 +1,346 @@
+package org.cuair.ground.imaging;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates smaller copies of the images uploaded by the plane, so taggers can browse a
+ * screen-sized image instead of downloading the full resolution original.
+ *
+ * <p>Each derivative is a progressive JPEG written to a subdirectory of the image directory named
+ * after its size, e.g. {@code images/screen/1000.jpeg} for {@code images/1000.jpeg}. The sizes of
+ * an image are generated in parallel on a dedicated pool, so decoding and scaling never runs on
+ * the request threads or the ingest stages. Derivatives are also generated on demand for images
+ * that were stored before they existed.
+ *
+ * <p>Pixel coordinates stored by the ground server are always in the space of the original. The
+ * coordinates of a client that tags on a derivative are converted with {@link Size#toOriginalX}
+ * and {@link Size#toOriginalY}, from the dimensions of its original (see {@link #originalSize}).
+ */
+public class ImageDerivatives {
+  private static final Logger logger = LoggerFactory.getLogger(ImageDerivatives.class);
+
+  /** Extension of every derivative, which are always JPEGs */
+  private static final String EXTENSION = ".jpeg";
+
+  /** Suffix of derivatives that have not been completely written */
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private static ImageDerivatives instance;
+
+  /** The sizes an image is served in */
+  public enum Size {
+    /** A small preview for lists and overviews */
+    PREVIEW(Flags.PREVIEW_IMAGE_WIDTH),
+    /** A copy that fits on a tagger's screen */
+    SCREEN(Flags.SCREEN_IMAGE_WIDTH),
+    /** The image as uploaded by the plane */
+    ORIGINAL((int) Flags.RAW_IMAGE_WIDTH);
+
+    /** The width of the image in this size, in pixels */
+    private final int width;
+
+    Size(int width) {
+      this.width = width;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    /**
+     * Gets the dimensions of an image in this size. Images are scaled down to the width of the
+     * size, keeping their aspect ratio, and images that are no wider are left as they are.
+     *
+     * @param original the dimensions of the original image
+     * @return the dimensions in this size
+     */
+    public Dimension scale(Dimension original) {
+      if (this == ORIGINAL || original.width <= width) {
+        return original;
+      }
+      return new Dimension(width,
+          Math.max(1, (int) Math.round((double) original.height * width / original.width)));
+    }
+
+    /**
+     * Converts an x pixel coordinate or width in this size to the original image
+     *
+     * @param x the coordinate in this size
+     * @param original the dimensions of the original image
+     * @return the coordinate in the original image
+     */
+    public double toOriginalX(double x, Dimension original) {
+      return x * original.width / scale(original).width;
+    }
+
+    /**
+     * Converts a y pixel coordinate or height in this size to the original image
+     *
+     * @param y the coordinate in this size
+     * @param original the dimensions of the original image
+     * @return the coordinate in the original image
+     */
+    public double toOriginalY(double y, Dimension original) {
+      return y * original.height / scale(original).height;
+    }
+
+    /**
+     * Converts an x pixel coordinate or width in the original image to this size
+     *
+     * @param x the coordinate in the original image
+     * @param original the dimensions of the original image
+     * @return the coordinate in this size
+     */
+    public double fromOriginalX(double x, Dimension original) {
+      return x * scale(original).width / original.width;
+    }
+
+    /**
+     * Converts a y pixel coordinate or height in the original image to this size
+     *
+     * @param y the coordinate in the original image
+     * @param original the dimensions of the original image
+     * @return the coordinate in this size
+     */
+    public double fromOriginalY(double y, Dimension original) {
+      return y * scale(original).height / original.height;
+    }
+
+    /**
+     * Parses a size from a request parameter, ignoring case
+     *
+     * @param name the name of the size, e.g. "screen"
+     * @return the size, ORIGINAL if the name is null, or null if there is no size with that name
+     */
+    public static Size fromParam(String name) {
+      if (name == null) {
+        return ORIGINAL;
+      }
+      try {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /** The pool derivatives are generated on */
+  private final ExecutorService pool;
+
+  /** Derivatives being generated, so concurrent requests for one wait on the same work */
+  private final ConcurrentMap<Path, CompletableFuture<Path>> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a generator of image derivatives
+   *
+   * @param threads the number of images that may be decoded and scaled at once
+   */
+  ImageDerivatives(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, "image-derivatives-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    pool = Executors.newFixedThreadPool(threads, factory);
+  }
+
+  /**
+   * Gets the shared generator, creating it on first use
+   *
+   * @return the shared generator
+   */
+  public static synchronized ImageDerivatives getInstance() {
+    if (instance == null) {
+      instance = new ImageDerivatives(Flags.DERIVATIVE_THREADS);
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared generator if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Gets the file a derivative of an image is stored in, whether or not it has been generated
+   *
+   * @param original the original image file
+   * @param size the size of the derivative
+   * @return the derivative file, or {@code original} for ORIGINAL
+   */
+  public static Path pathFor(Path original, Size size) {
+    if (size == Size.ORIGINAL) {
+      return original;
+    }
+    String name = original.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    String base = dot > 0 ? name.substring(0, dot) : name;
+    return original.resolveSibling(size.name().toLowerCase(Locale.ROOT)).resolve(base + EXTENSION);
+  }
+
+  /**
+   * Gets the dimensions of the original of an image, which derivative coordinates are scaled to
+   *
+   * @param image the image
+   * @return the dimensions read from the header of its file, or the dimensions the camera takes
+   *     images in, Flags.RAW_IMAGE_WIDTH by Flags.RAW_IMAGE_HEIGHT, if the file can't be read
+   */
+  public static Dimension originalSize(Image image) {
+    try {
+      return ImageCodec.size(Paths.get(image.getLocalImageUrl()));
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to read the dimensions of image " + image.getId(), e);
+      return new Dimension((int) Flags.RAW_IMAGE_WIDTH, (int) Flags.RAW_IMAGE_HEIGHT);
+    }
+  }
+
+  /**
+   * Generates every derivative of a persisted image in the background
+   *
+   * @param image the image, whose local file must exist
+   */
+  public void generate(Image image) {
+    generate(Paths.get(image.getLocalImageUrl())).whenComplete((v, e) -> {
+      if (e != null) {
+        logger.error("Unable to generate derivatives of image " + image.getId(), e);
+      }
+    });
+  }
+
+  /**
+   * Generates every derivative of an image, each on its own thread of the pool
+   *
+   * @param original the original image file
+   * @return a future completed once all derivatives are written
+   */
+  public CompletableFuture<Void> generate(Path original) {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[Size.values().length - 1];
+    int i = 0;
+    for (Size size : Size.values()) {
+      if (size != Size.ORIGINAL) {
+        futures[i++] = get(original, size);
+      }
+    }
+    return CompletableFuture.allOf(futures);
+  }
+
+  /**
+   * Gets a derivative of an image, generating it if it doesn't exist yet
+   *
+   * @param original the original image file
+   * @param size the size of the derivative
+   * @return a future completed with the derivative file once it exists
+   */
+  public CompletableFuture<Path> get(Path original, Size size) {
+    Path derivative = pathFor(original, size);
+    if (Files.isRegularFile(derivative)) {
+      return CompletableFuture.completedFuture(derivative);
+    }
+    CompletableFuture<Path> future = new CompletableFuture<>();
+    CompletableFuture<Path> existing = pending.putIfAbsent(derivative, future);
+    if (existing != null) {
+      return existing;
+    }
+    pool.execute(() -> {
+      try {
+        write(original, derivative, size.getWidth());
+        future.complete(derivative);
+      } catch (IOException e) {
+        future.completeExceptionally(new UncheckedIOException(e));
+      } catch (RuntimeException | Error e) {
+        future.completeExceptionally(e);
+      } finally {
+        pending.remove(derivative, future);
+      }
+    });
+    return future;
+  }
+
+  /** Stops generating derivatives, waiting briefly for those in progress */
+  public void shutDown() {
+    pool.shutdownNow();
+    try {
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Decodes an image at reduced resolution and writes it as a progressive JPEG no wider than
+   * {@code width}.
+   *
+   * @param original the original image file
+   * @param derivative the file to write
+   * @param width the maximum width of the derivative
+   * @throws IOException if the original cannot be decoded or the derivative cannot be written
+   */
+  private static void write(Path original, Path derivative, int width) throws IOException {
+    BufferedImage scaled = scale(ImageCodec.readAtLeast(original, width), width);
+
+    Files.createDirectories(derivative.getParent());
+    Path partial = derivative.resolveSibling(derivative.getFileName() + PARTIAL_SUFFIX);
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(partial.toFile())) {
+      ImageCodec.write(scaled, out, Flags.DERIVATIVE_JPEG_QUALITY, true);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(partial);
+      throw e;
+    }
+    Files.move(partial, derivative, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Scales an image down to a width, keeping its aspect ratio
+   *
+   * @param image the image to scale
+   * @param width the maximum width
+   * @return the scaled image, or {@code image} if it is no wider than {@code width}
+   */
+  private static BufferedImage scale(BufferedImage image, int width) {
+    if (image.getWidth() <= width) {
+      return image;
+    }
+    // within a pixel of the height Size.scale gives for the original, which isn't subsampled
+    int height =
+        Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = scaled.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return scaled;
+  }
+}
@@ -0,0 +1,222 @@
+package org.cuair.ground.imaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.util.FileResponses;
+import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms the files of images that are about to be handed to taggers, so they don't wait on the disk
+ * or on generating a derivative when they open their next assignment.
+ *
+ * <p>Warming an image generates its screen derivative if it doesn't exist yet, then reads the
+ * derivative and the original through once so they are in the page cache, where {@link
+ * FileResponses} serves them from with sendfile. The bytes are never held on the heap: files are
+ * read through a small direct buffer per thread, which is overwritten as it goes. The files warmed
+ * are tracked in least recently used order and bounded by Flags.PREFETCH_CACHE_BYTES, so warming
+ * doesn't push more into the page cache than it can be expected to keep, and recently warmed
+ * files aren't read again.
+ */
+public class ImagePrefetcher {
+  private static final Logger logger = LoggerFactory.getLogger(ImagePrefetcher.class);
+
+  /** The size of the buffer files are read through */
+  private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+  private static ImagePrefetcher instance;
+
+  /** The pool files are warmed on */
+  private final ExecutorService pool;
+
+  /** The number of bytes of files to keep warm */
+  private final long capacity;
+
+  /** Sizes of the files warmed, in least recently used order */
+  private final LinkedHashMap<Path, Long> warmed = new LinkedHashMap<>(16, 0.75f, true);
+  private long warmedBytes;
+
+  /** The buffer each thread of the pool reads files through, outside of the heap */
+  private final ThreadLocal<ByteBuffer> buffers =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_BYTES));
+
+  /** Images being warmed, so an image asked for twice is only warmed once */
+  private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a prefetcher
+   *
+   * @param threads the number of images that may be warmed at once
+   * @param capacity the number of bytes of files to keep warm
+   */
+  ImagePrefetcher(int threads, long capacity) {
+    this.capacity = capacity;
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, "image-prefetch-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    pool = Executors.newFixedThreadPool(threads, factory);
+  }
+
+  /**
+   * Gets the shared prefetcher, creating it on first use
+   *
+   * @return the shared prefetcher
+   */
+  public static synchronized ImagePrefetcher getInstance() {
+    if (instance == null) {
+      instance = new ImagePrefetcher(Flags.PREFETCH_THREADS, Flags.PREFETCH_CACHE_BYTES);
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared prefetcher if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Warms the files of images in the background, in the order given
+   *
+   * @param images the images, whose local files need not exist
+   */
+  public void warm(List<Image> images) {
+    for (Image image : images) {
+      if (image.getLocalImageUrl() == null) {
+        continue;
+      }
+      Path original = Paths.get(image.getLocalImageUrl());
+      Path screen = ImageDerivatives.pathFor(original, ImageDerivatives.Size.SCREEN);
+      if (isWarm(screen) || !pending.add(original)) {
+        continue;
+      }
+      try {
+        pool.execute(() -> {
+          try {
+            read(ImageDerivatives.getInstance().get(original, ImageDerivatives.Size.SCREEN)
+                .join());
+            if (Flags.PREFETCH_ORIGINALS) {
+              read(original);
+            }
+          } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to prefetch image " + image.getId(), e);
+          } finally {
+            pending.remove(original);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // shutting down
+        pending.remove(original);
+      }
+    }
+  }
+
+  /**
+   * Gets the URLs and ETags of the screen derivatives and originals of images, for clients to
+   * download ahead of time. Derivatives that haven't been generated yet are left out.
+   *
+   * @param images the images
+   * @return a hint for each file that exists, with the image id, the url and the etag
+   */
+  public List<Map<String, String>> hints(List<Image> images) {
+    List<Map<String, String>> hints = new ArrayList<>();
+    for (Image image : images) {
+      if (image.getLocalImageUrl() == null || image.getImageUrl() == null) {
+        continue;
+      }
+      Path original = Paths.get(image.getLocalImageUrl());
+      Path screen = ImageDerivatives.pathFor(original, ImageDerivatives.Size.SCREEN);
+      addHint(hints, image, screen, image.getImageUrl() + "?size=screen");
+      addHint(hints, image, original, image.getImageUrl());
+    }
+    return hints;
+  }
+
+  /**
+   * Gets the number of bytes of files warmed that are still expected to be in the page cache
+   *
+   * @return the bytes warmed
+   */
+  public synchronized long getWarmedBytes() {
+    return warmedBytes;
+  }
+
+  /** Stops warming images */
+  public void shutDown() {
+    pool.shutdownNow();
+  }
+
+  /** Whether a file was warmed and hasn't been evicted since */
+  private synchronized boolean isWarm(Path file) {
+    return warmed.get(file) != null;
+  }
+
+  private static void addHint(List<Map<String, String>> hints, Image image, Path file,
+      String url) {
+    if (!Files.isRegularFile(file)) {
+      return;
+    }
+    try {
+      Map<String, String> hint = new LinkedHashMap<>();
+      hint.put("imageId", String.valueOf(image.getId()));
+      hint.put("url", url);
+      hint.put("etag", FileResponses.etag(file));
+      hints.add(hint);
+    } catch (IOException e) {
+      // deleted since it was checked
+    }
+  }
+
+  /** Reads a file through once unless it is already warm, evicting the least recently warmed */
+  private void read(Path file) throws IOException {
+    if (isWarm(file)) {
+      return;
+    }
+    long size;
+    ByteBuffer buffer = buffers.get();
+    buffer.clear();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      size = channel.size();
+      if (size > capacity) {
+        return;
+      }
+      while (channel.read(buffer) > 0) {
+        buffer.clear();
+      }
+    }
+    synchronized (this) {
+      Long previous = warmed.put(file, size);
+      warmedBytes += size - (previous == null ? 0 : previous);
+      Iterator<Map.Entry<Path, Long>> lru = warmed.entrySet().iterator();
+      while (warmedBytes > capacity && lru.hasNext()) {
+        Map.Entry<Path, Long> eldest = lru.next();
+        lru.remove();
+        warmedBytes -= eldest.getValue();
+      }
+    }
+  }
+}
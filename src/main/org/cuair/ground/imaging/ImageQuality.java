@@ -0,0 +1,122 @@
+package org.cuair.ground.imaging;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.cuair.ground.util.Flags;
+
+/**
+ * Scores how useful an image is likely to be to taggers, from a copy decoded at about
+ * {@link Flags#QUALITY_ANALYSIS_WIDTH} pixels wide so scoring costs little more than the decode.
+ *
+ * <p>Sharpness is the variance of the Laplacian of the luminance. Edges make the Laplacian swing
+ * far from zero, so motion blurred or out of focus frames, whose edges are smeared out, score much
+ * lower than sharp frames of the same scene. Exposure is the fraction of pixels whose luminance
+ * is neither crushed to black nor blown out to white, read from the luminance histogram.
+ *
+ * <p>Scoring is stateless, so images are scored in parallel simply by scoring them on several
+ * threads, e.g. the quality stage of the {@code IngestPipeline}.
+ */
+public class ImageQuality {
+
+  /** Luminance levels at or below this are counted as crushed */
+  private static final int DARKEST_EXPOSED_LEVEL = 15;
+
+  /** Luminance levels at or above this are counted as blown out */
+  private static final int BRIGHTEST_EXPOSED_LEVEL = 240;
+
+  /** The scores of an image */
+  public static class Scores {
+
+    /** The variance of the Laplacian of the luminance, where higher is sharper */
+    private final double sharpness;
+
+    /** The fraction of pixels that are neither crushed nor blown out, from 0 to 1 */
+    private final double exposure;
+
+    Scores(double sharpness, double exposure) {
+      this.sharpness = sharpness;
+      this.exposure = exposure;
+    }
+
+    public double getSharpness() {
+      return sharpness;
+    }
+
+    public double getExposure() {
+      return exposure;
+    }
+  }
+
+  private ImageQuality() {}
+
+  /**
+   * Scores an image file
+   *
+   * @param file the image file
+   * @return the scores of the image
+   * @throws IOException if the image cannot be decoded
+   */
+  public static Scores analyze(Path file) throws IOException {
+    return analyze(ImageCodec.readAtLeast(file, Flags.QUALITY_ANALYSIS_WIDTH));
+  }
+
+  /**
+   * Scores a decoded image
+   *
+   * @param image the image
+   * @return the scores of the image
+   */
+  static Scores analyze(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] luma = luminance(image);
+
+    int[] histogram = new int[256];
+    for (int value : luma) {
+      histogram[value]++;
+    }
+    long exposed = 0;
+    for (int level = DARKEST_EXPOSED_LEVEL + 1; level < BRIGHTEST_EXPOSED_LEVEL; level++) {
+      exposed += histogram[level];
+    }
+    double exposure = luma.length == 0 ? 0 : (double) exposed / luma.length;
+
+    // the 4-neighbour Laplacian of every pixel not on the border
+    double sum = 0;
+    double sumOfSquares = 0;
+    long count = 0;
+    for (int y = 1; y < height - 1; y++) {
+      int row = y * width;
+      for (int x = 1; x < width - 1; x++) {
+        int i = row + x;
+        int laplacian = luma[i - 1] + luma[i + 1] + luma[i - width] + luma[i + width] - 4 * luma[i];
+        sum += laplacian;
+        sumOfSquares += (double) laplacian * laplacian;
+        count++;
+      }
+    }
+    double sharpness = 0;
+    if (count > 0) {
+      double mean = sum / count;
+      sharpness = sumOfSquares / count - mean * mean;
+    }
+    return new Scores(sharpness, exposure);
+  }
+
+  /** Converts an image to 8 bit luminance, one int per pixel in row order */
+  private static int[] luminance(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+    for (int i = 0; i < pixels.length; i++) {
+      int rgb = pixels[i];
+      int r = (rgb >> 16) & 0xFF;
+      int g = (rgb >> 8) & 0xFF;
+      int b = rgb & 0xFF;
+      // Rec. 601 weights in fixed point
+      pixels[i] = (77 * r + 150 * g + 29 * b) >> 8;
+    }
+    return pixels;
+  }
+}
@@ -0,0 +1,327 @@
+package org.cuair.ground.imaging;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+import org.cuair.ground.util.Flags;
+
+/**
+ * Renders square tiles of the plane's images for deep zoom viewers, so a tagger can zoom into a
+ * small target on a full resolution frame without downloading the whole file.
+ *
+ * <p>Tiles form a pyramid. At the highest level, {@link Source#getMaxLevel}, tiles hold pixels of
+ * the original one to one, and every level below halves the resolution, down to level 0 where the
+ * whole image fits in a single tile. A tile is rendered by decoding only its region of the
+ * original, subsampled to the resolution of its level.
+ *
+ * <p>Rendered tiles are kept in a {@link TileCache}. Requests for a tile that is already being
+ * rendered wait for that render instead of starting another.
+ */
+public class ImageTiles {
+
+  /** The number of images whose files and dimensions are remembered */
+  private static final int MAX_SOURCES = 1024;
+
+  private static ImageTiles instance;
+
+  /** An image that tiles are rendered from */
+  public static class Source {
+
+    /** The id of the image */
+    private final long imageId;
+
+    /** The original image file */
+    private final Path file;
+
+    /** The width of the original image in pixels */
+    private final int width;
+
+    /** The height of the original image in pixels */
+    private final int height;
+
+    Source(long imageId, Path file, int width, int height) {
+      this.imageId = imageId;
+      this.file = file;
+      this.width = width;
+      this.height = height;
+    }
+
+    public long getImageId() {
+      return imageId;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * Gets the level at which tiles hold the pixels of the original one to one
+     *
+     * @param tileSize the width and height of the tiles in pixels
+     * @return the highest level of the pyramid
+     */
+    public int getMaxLevel(int tileSize) {
+      int level = 0;
+      while ((long) tileSize << level < Math.max(width, height)) {
+        level++;
+      }
+      return level;
+    }
+
+    /**
+     * Gets the number of columns of tiles at a level
+     *
+     * @param tileSize the width and height of the tiles in pixels
+     * @param z the level
+     * @return the number of columns
+     */
+    public int getColumns(int tileSize, int z) {
+      return ceilDiv(width, span(tileSize, z));
+    }
+
+    /**
+     * Gets the number of rows of tiles at a level
+     *
+     * @param tileSize the width and height of the tiles in pixels
+     * @param z the level
+     * @return the number of rows
+     */
+    public int getRows(int tileSize, int z) {
+      return ceilDiv(height, span(tileSize, z));
+    }
+
+    /** The number of pixels of the original covered by one tile in each dimension at a level */
+    private int span(int tileSize, int z) {
+      return tileSize << (getMaxLevel(tileSize) - z);
+    }
+
+    private static int ceilDiv(int a, int b) {
+      return (a + b - 1) / b;
+    }
+  }
+
+  /** Identifies a tile in the cache */
+  static class TileKey {
+    private final long imageId;
+    private final int tileSize;
+    private final int z;
+    private final int x;
+    private final int y;
+
+    TileKey(long imageId, int tileSize, int z, int x, int y) {
+      this.imageId = imageId;
+      this.tileSize = tileSize;
+      this.z = z;
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TileKey)) {
+        return false;
+      }
+      TileKey other = (TileKey) o;
+      return imageId == other.imageId && tileSize == other.tileSize && z == other.z
+          && x == other.x && y == other.y;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(imageId, tileSize, z, x, y);
+    }
+
+    /** Used as the name of the file the tile is spilled to */
+    @Override
+    public String toString() {
+      return imageId + "_" + tileSize + "_" + z + "_" + x + "_" + y + ".jpeg";
+    }
+  }
+
+  /** The pool tiles are rendered on */
+  private final ExecutorService pool;
+
+  /** Rendered tiles */
+  private final TileCache<TileKey> cache;
+
+  /** Tiles being rendered, so concurrent requests for one wait on the same render */
+  private final ConcurrentMap<TileKey, CompletableFuture<byte[]>> pending =
+      new ConcurrentHashMap<>();
+
+  /** The most recently used sources, by image id */
+  private final Map<Long, Source> sources = new LinkedHashMap<Long, Source>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Source> eldest) {
+      return size() > MAX_SOURCES;
+    }
+  };
+
+  /**
+   * Creates a tile renderer
+   *
+   * @param cacheDir the directory to spill rendered tiles to
+   * @param memoryBytes the number of bytes of tiles to cache in memory
+   * @param diskBytes the number of bytes of tiles to cache on disk
+   * @param threads the number of tiles that may be rendered at once
+   * @throws IOException if the cache directory cannot be created
+   */
+  ImageTiles(Path cacheDir, long memoryBytes, long diskBytes, int threads) throws IOException {
+    cache = new TileCache<>(cacheDir, memoryBytes, diskBytes);
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, "image-tiles-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    pool = Executors.newFixedThreadPool(threads, factory);
+  }
+
+  /**
+   * Gets the shared tile renderer, creating it on first use
+   *
+   * @return the shared tile renderer
+   */
+  public static synchronized ImageTiles getInstance() {
+    if (instance == null) {
+      try {
+        instance = new ImageTiles(Paths.get(Flags.TILE_CACHE_DIR), Flags.TILE_CACHE_MEMORY_BYTES,
+            Flags.TILE_CACHE_DISK_BYTES, Flags.TILE_RENDER_THREADS);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared tile renderer if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Whether tiles can be rendered in a size
+   *
+   * @param tileSize the width and height of the tiles in pixels
+   * @return true for 256 and 512
+   */
+  public static boolean isValidTileSize(int tileSize) {
+    return tileSize == 256 || tileSize == 512;
+  }
+
+  /**
+   * Gets the image to render tiles of, reading its dimensions the first time it is asked for
+   *
+   * @param imageId the id of the image
+   * @param files looks up the original file of an image by id, returning null if there is none
+   * @return the image, or null if it doesn't exist
+   * @throws IOException if the image header cannot be read
+   */
+  public Source getSource(long imageId, LongFunction<Path> files) throws IOException {
+    synchronized (sources) {
+      Source source = sources.get(imageId);
+      if (source != null) {
+        return source;
+      }
+    }
+    Path file = files.apply(imageId);
+    if (file == null) {
+      return null;
+    }
+    Dimension size = ImageCodec.size(file);
+    Source source = new Source(imageId, file, size.width, size.height);
+    synchronized (sources) {
+      sources.put(imageId, source);
+    }
+    return source;
+  }
+
+  /**
+   * Gets a tile of an image, rendering it if it isn't cached
+   *
+   * @param source the image
+   * @param tileSize the width and height of the tile in pixels
+   * @param z the level of the tile
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return a future completed with the tile as a JPEG, or null if there is no such tile
+   */
+  public CompletableFuture<byte[]> getTile(Source source, int tileSize, int z, int x, int y) {
+    if (z < 0 || z > source.getMaxLevel(tileSize) || x < 0 || y < 0
+        || x >= source.getColumns(tileSize, z) || y >= source.getRows(tileSize, z)) {
+      return null;
+    }
+    TileKey key = new TileKey(source.getImageId(), tileSize, z, x, y);
+    byte[] cached = cache.get(key);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = pending.putIfAbsent(key, future);
+    if (existing != null) {
+      return existing;
+    }
+    pool.execute(() -> {
+      try {
+        byte[] tile = render(source, tileSize, z, x, y);
+        cache.put(key, tile);
+        future.complete(tile);
+      } catch (IOException e) {
+        future.completeExceptionally(new UncheckedIOException(e));
+      } catch (RuntimeException | Error e) {
+        future.completeExceptionally(e);
+      } finally {
+        pending.remove(key, future);
+      }
+    });
+    return future;
+  }
+
+  /** Stops rendering tiles, waiting briefly for those in progress */
+  public void shutDown() {
+    pool.shutdownNow();
+    try {
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Decodes the region of the original covered by a tile, subsampled to the resolution of its
+   * level. Tiles on the right and bottom edges are cut off at the edge of the image.
+   */
+  private static byte[] render(Source source, int tileSize, int z, int x, int y)
+      throws IOException {
+    int scale = 1 << (source.getMaxLevel(tileSize) - z);
+    int span = tileSize * scale;
+    Rectangle region = new Rectangle(x * span, y * span,
+        Math.min(span, source.getWidth() - x * span),
+        Math.min(span, source.getHeight() - y * span));
+    return ImageCodec.encode(ImageCodec.read(source.file, region, scale), Flags.TILE_JPEG_QUALITY);
+  }
+}
@@ -0,0 +1,450 @@
+package org.cuair.ground.imaging;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.plane.target.TargetSighting;
+import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the thumbnails of target sightings, which are the parts of their images inside the
+ * sightings' pixel boxes. Only the pixel box is decoded, rather than the whole image, since many
+ * sightings are usually tagged in the same image.
+ *
+ * <p>Thumbnails are cached by sighting along with the pixel box they were rendered from, so a
+ * thumbnail is rendered again once the box of its sighting changes. Thumbnails of new sightings
+ * are rendered in the background so they are ready by the time they are submitted.
+ */
+public class SightingThumbnails {
+  private static final Logger logger = LoggerFactory.getLogger(SightingThumbnails.class);
+
+  private static SightingThumbnails instance;
+
+  /** What a thumbnail is rendered from */
+  private static class Source {
+
+    /** Identifies the sighting, or null if the sighting hasn't been saved */
+    private final String key;
+
+    /** The image file the sighting was tagged in */
+    private final Path file;
+
+    /** The pixel box of the sighting, in pixels of the original image */
+    private final Rectangle box;
+
+    Source(String key, Path file, Rectangle box) {
+      this.key = key;
+      this.file = file;
+      this.box = box;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Source)) {
+        return false;
+      }
+      Source other = (Source) o;
+      return Objects.equals(key, other.key) && file.equals(other.file) && box.equals(other.box);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(key, file, box);
+    }
+  }
+
+  /** A rendered thumbnail and what it was rendered from */
+  private static class Thumbnail {
+    private final Source source;
+    private final byte[] jpeg;
+
+    Thumbnail(Source source, byte[] jpeg) {
+      this.source = source;
+      this.jpeg = jpeg;
+    }
+  }
+
+  /** The thumbnails of several target sightings laid out in a single image */
+  public static class SpriteSheet {
+
+    /** The sprite sheet as a JPEG */
+    private final byte[] jpeg;
+
+    /** The width of the sprite sheet in pixels */
+    private final int width;
+
+    /** The height of the sprite sheet in pixels */
+    private final int height;
+
+    /** Where the thumbnail of each sighting is, in the order the sightings were given */
+    private final List<Sprite> sprites;
+
+    /** The ids of the sightings whose thumbnails could not be rendered */
+    private final List<Long> missing;
+
+    SpriteSheet(byte[] jpeg, int width, int height, List<Sprite> sprites, List<Long> missing) {
+      this.jpeg = jpeg;
+      this.width = width;
+      this.height = height;
+      this.sprites = sprites;
+      this.missing = missing;
+    }
+
+    public byte[] getJpeg() {
+      return jpeg;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public List<Sprite> getSprites() {
+      return sprites;
+    }
+
+    public List<Long> getMissing() {
+      return missing;
+    }
+  }
+
+  /** The position of the thumbnail of a target sighting in a sprite sheet */
+  public static class Sprite {
+    private final Long id;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    Sprite(Long id, int x, int y, int width, int height) {
+      this.id = id;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    public Long getId() {
+      return id;
+    }
+
+    public int getX() {
+      return x;
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+  }
+
+  /** The pool thumbnails are rendered on */
+  private final ExecutorService pool;
+
+  /** The most recently used thumbnails, by sighting */
+  private final Map<String, Thumbnail> cache;
+
+  /** Thumbnails being rendered, so concurrent requests for one wait on the same render */
+  private final ConcurrentMap<Source, CompletableFuture<byte[]>> pending =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates a thumbnail renderer
+   *
+   * @param capacity the number of thumbnails to cache
+   * @param threads the number of thumbnails that may be rendered at once
+   */
+  SightingThumbnails(int capacity, int threads) {
+    cache = new LinkedHashMap<String, Thumbnail>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Thumbnail> eldest) {
+        return size() > capacity;
+      }
+    };
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, "sighting-thumbnails-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    pool = Executors.newFixedThreadPool(threads, factory);
+  }
+
+  /**
+   * Gets the shared thumbnail renderer, creating it on first use
+   *
+   * @return the shared thumbnail renderer
+   */
+  public static synchronized SightingThumbnails getInstance() {
+    if (instance == null) {
+      instance = new SightingThumbnails(Flags.THUMBNAIL_CACHE_SIZE, Flags.THUMBNAIL_THREADS);
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared thumbnail renderer if it was started */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Gets the thumbnail of a target sighting, rendering it if it isn't cached for the sighting's
+   * current pixel box
+   *
+   * @param ts the target sighting, with its assignment and image
+   * @return a future completed with the thumbnail as a JPEG
+   */
+  public CompletableFuture<byte[]> get(TargetSighting ts) {
+    Source source = sourceOf(ts);
+    if (source == null) {
+      CompletableFuture<byte[]> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new UncheckedIOException(new IOException(
+          "Target sighting " + ts.getId() + " has no image file or pixel box")));
+      return failed;
+    }
+    if (source.key != null) {
+      synchronized (cache) {
+        Thumbnail cached = cache.get(source.key);
+        if (cached != null && cached.source.equals(source)) {
+          return CompletableFuture.completedFuture(cached.jpeg);
+        }
+      }
+    }
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = pending.putIfAbsent(source, future);
+    if (existing != null) {
+      return existing;
+    }
+    pool.execute(() -> {
+      // no longer pending once completed, so a request after an invalidate renders again
+      try {
+        byte[] jpeg = render(source);
+        if (source.key != null) {
+          synchronized (cache) {
+            cache.put(source.key, new Thumbnail(source, jpeg));
+          }
+        }
+        pending.remove(source, future);
+        future.complete(jpeg);
+      } catch (IOException e) {
+        pending.remove(source, future);
+        future.completeExceptionally(new UncheckedIOException(e));
+      } catch (RuntimeException | Error e) {
+        pending.remove(source, future);
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Renders the thumbnails of several target sightings into a single sprite sheet. The sightings
+   * are grouped by image so every image is opened once, and the images are cropped in parallel.
+   * Thumbnails are scaled down to fit in Flags.SPRITE_THUMBNAIL_SIZE, and laid out in rows no
+   * wider than Flags.SPRITE_SHEET_WIDTH.
+   *
+   * @param sightings the target sightings, with their assignments and images
+   * @return a future completed with the sprite sheet
+   */
+  public CompletableFuture<SpriteSheet> getSpriteSheet(List<? extends TargetSighting> sightings) {
+    Source[] sources = new Source[sightings.size()];
+    Map<Path, List<Integer>> byImage = new LinkedHashMap<>();
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = sourceOf(sightings.get(i));
+      if (sources[i] != null) {
+        byImage.computeIfAbsent(sources[i].file, file -> new ArrayList<>()).add(i);
+      }
+    }
+
+    BufferedImage[] crops = new BufferedImage[sources.length];
+    List<CompletableFuture<Void>> reads = new ArrayList<>();
+    for (Map.Entry<Path, List<Integer>> image : byImage.entrySet()) {
+      reads.add(CompletableFuture.runAsync(() -> crop(image.getKey(), image.getValue(), sources,
+          crops), pool));
+    }
+    return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+        .thenApplyAsync(v -> layOut(sightings, crops), pool);
+  }
+
+  /**
+   * Renders the thumbnail of a new target sighting in the background
+   *
+   * @param ts the target sighting, with its assignment and image
+   */
+  public void prerender(TargetSighting ts) {
+    get(ts).whenComplete((jpeg, e) -> {
+      if (e != null) {
+        logger.warn("Unable to render thumbnail of target sighting " + ts.getId(), e);
+      }
+    });
+  }
+
+  /**
+   * Drops the cached thumbnail of a target sighting
+   *
+   * @param ts the target sighting
+   */
+  public void invalidate(TargetSighting ts) {
+    String key = keyOf(ts);
+    if (key != null) {
+      synchronized (cache) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  /** Stops rendering thumbnails, waiting briefly for those in progress */
+  public void shutDown() {
+    pool.shutdownNow();
+    try {
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads what to render from a sighting on the caller's thread, where it is safe to load
+   *
+   * @return what to render, or null if the sighting has no image file or pixel box
+   */
+  private static Source sourceOf(TargetSighting ts) {
+    Image image = ts.getAssignment() == null ? null : ts.getAssignment().getImage();
+    if (image == null || image.getLocalImageUrl() == null || ts.getpixelx() == null
+        || ts.getpixely() == null || ts.getWidth() == null || ts.getHeight() == null) {
+      return null;
+    }
+    Path file = Paths.get(image.getLocalImageUrl());
+    Rectangle box = new Rectangle(ts.getpixelx() - ts.getWidth() / 2,
+        ts.getpixely() - ts.getHeight() / 2, ts.getWidth(), ts.getHeight());
+    return new Source(keyOf(ts), file, box);
+  }
+
+  private static String keyOf(TargetSighting ts) {
+    return ts.getId() == null ? null : ts.getClass().getSimpleName() + ":" + ts.getId();
+  }
+
+  /** Decodes the thumbnails of the sightings in one image, leaving null for those that fail */
+  private static void crop(Path file, List<Integer> indices, Source[] sources,
+      BufferedImage[] crops) {
+    Rectangle[] regions = new Rectangle[indices.size()];
+    int[] subsampling = new int[indices.size()];
+    for (int i = 0; i < regions.length; i++) {
+      regions[i] = sources[indices.get(i)].box;
+      int longest = Math.max(regions[i].width, regions[i].height);
+      subsampling[i] = Math.max(1, (longest + Flags.SPRITE_THUMBNAIL_SIZE - 1)
+          / Flags.SPRITE_THUMBNAIL_SIZE);
+    }
+    try {
+      BufferedImage[] images = ImageCodec.readRegions(file, regions, subsampling);
+      for (int i = 0; i < images.length; i++) {
+        crops[indices.get(i)] = images[i];
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to crop thumbnails from " + file, e);
+    }
+  }
+
+  /** Places the thumbnails in rows, left to right, and encodes the sheet */
+  private static SpriteSheet layOut(List<? extends TargetSighting> sightings,
+      BufferedImage[] crops) {
+    List<Sprite> sprites = new ArrayList<>();
+    List<Long> missing = new ArrayList<>();
+    int x = 0;
+    int y = 0;
+    int rowHeight = 0;
+    int width = 0;
+    for (int i = 0; i < crops.length; i++) {
+      BufferedImage crop = crops[i];
+      if (crop == null) {
+        missing.add(sightings.get(i).getId());
+        continue;
+      }
+      if (x > 0 && x + crop.getWidth() > Flags.SPRITE_SHEET_WIDTH) {
+        x = 0;
+        y += rowHeight;
+        rowHeight = 0;
+      }
+      sprites.add(new Sprite(sightings.get(i).getId(), x, y, crop.getWidth(), crop.getHeight()));
+      x += crop.getWidth();
+      width = Math.max(width, x);
+      rowHeight = Math.max(rowHeight, crop.getHeight());
+    }
+    int height = y + rowHeight;
+    if (sprites.isEmpty()) {
+      return new SpriteSheet(null, 0, 0, sprites, missing);
+    }
+
+    BufferedImage sheet = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = sheet.createGraphics();
+    try {
+      int s = 0;
+      for (BufferedImage crop : crops) {
+        if (crop != null) {
+          Sprite sprite = sprites.get(s++);
+          g.drawImage(crop, sprite.getX(), sprite.getY(), null);
+        }
+      }
+    } finally {
+      g.dispose();
+    }
+    try {
+      byte[] jpeg = ImageCodec.encode(sheet, Flags.THUMBNAIL_JPEG_QUALITY);
+      return new SpriteSheet(jpeg, width, height, sprites, missing);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Decodes the part of the image inside the pixel box, cut off at the edges of the image
+   *
+   * @throws IOException if the image cannot be decoded or the box is outside of it
+   */
+  private static byte[] render(Source source) throws IOException {
+    Dimension size = ImageCodec.size(source.file);
+    Rectangle region = source.box.intersection(new Rectangle(size));
+    if (region.isEmpty()) {
+      throw new IOException("Pixel box " + source.box + " is outside of " + source.file);
+    }
+    return ImageCodec.encode(ImageCodec.read(source.file, region, 1),
+        Flags.THUMBNAIL_JPEG_QUALITY);
+  }
+}
@@ -0,0 +1,168 @@
+package org.cuair.ground.imaging;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A least recently used cache of rendered tiles, bounded by the number of bytes it holds. Tiles
+ * evicted from memory are spilled to a directory on disk, which is bounded the same way, and are
+ * moved back into memory when they are asked for again. Files are only read and written outside
+ * of the cache's lock.
+ *
+ * @param <K> the type of the keys, whose string form must be usable as a file name
+ */
+class TileCache<K> {
+  private static final Logger logger = LoggerFactory.getLogger(TileCache.class);
+
+  /** Suffix of spilled tiles that have not been completely written */
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  /** The directory tiles are spilled to */
+  private final Path dir;
+
+  private final long memoryCapacity;
+  private final long diskCapacity;
+
+  /** Tiles in memory, in least recently used order */
+  private final LinkedHashMap<K, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes;
+
+  /** Sizes of the tiles spilled to disk, in least recently used order */
+  private final LinkedHashMap<K, Integer> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private long diskBytes;
+
+  /**
+   * Creates a tile cache, deleting any tiles spilled by a previous cache in the same directory
+   *
+   * @param dir the directory to spill tiles to
+   * @param memoryCapacity the number of bytes of tiles to hold in memory
+   * @param diskCapacity the number of bytes of tiles to hold on disk
+   * @throws IOException if the directory cannot be created
+   */
+  TileCache(Path dir, long memoryCapacity, long diskCapacity) throws IOException {
+    this.dir = dir;
+    this.memoryCapacity = memoryCapacity;
+    this.diskCapacity = diskCapacity;
+    FileUtils.deleteDirectory(dir.toFile());
+    Files.createDirectories(dir);
+  }
+
+  /**
+   * Gets a tile, reading it back from disk if it was spilled
+   *
+   * @param key the key of the tile
+   * @return the tile, or null if it isn't cached
+   */
+  byte[] get(K key) {
+    synchronized (this) {
+      byte[] tile = memory.get(key);
+      if (tile != null || disk.get(key) == null) {
+        return tile;
+      }
+    }
+    byte[] tile;
+    try {
+      tile = Files.readAllBytes(fileFor(key));
+    } catch (NoSuchFileException e) {
+      // evicted from disk since it was looked up
+      synchronized (this) {
+        Integer size = disk.remove(key);
+        diskBytes -= size == null ? 0 : size;
+      }
+      return null;
+    } catch (IOException e) {
+      logger.warn("Unable to read spilled tile " + key, e);
+      return null;
+    }
+    put(key, tile);
+    return tile;
+  }
+
+  /**
+   * Adds a tile to memory, spilling the least recently used tiles to disk to make room
+   *
+   * @param key the key of the tile
+   * @param tile the tile
+   */
+  void put(K key, byte[] tile) {
+    List<Map.Entry<K, byte[]>> spilled = new ArrayList<>();
+    synchronized (this) {
+      byte[] previous = memory.put(key, tile);
+      memoryBytes += tile.length - (previous == null ? 0 : previous.length);
+      Iterator<Map.Entry<K, byte[]>> lru = memory.entrySet().iterator();
+      while (memoryBytes > memoryCapacity && lru.hasNext()) {
+        Map.Entry<K, byte[]> eldest = lru.next();
+        if (eldest.getKey().equals(key)) {
+          continue;
+        }
+        lru.remove();
+        memoryBytes -= eldest.getValue().length;
+        if (!disk.containsKey(eldest.getKey())) {
+          spilled.add(eldest);
+        }
+      }
+    }
+    for (Map.Entry<K, byte[]> entry : spilled) {
+      spill(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Gets the number of bytes of tiles in memory and on disk
+   *
+   * @return the bytes in memory and on disk, in that order
+   */
+  synchronized long[] getBytes() {
+    return new long[] {memoryBytes, diskBytes};
+  }
+
+  /** Writes a tile evicted from memory to disk, evicting the least recently used spilled tiles */
+  private void spill(K key, byte[] tile) {
+    if (tile.length > diskCapacity) {
+      return;
+    }
+    Path file = fileFor(key);
+    Path partial = file.resolveSibling(file.getFileName() + PARTIAL_SUFFIX);
+    try {
+      Files.createDirectories(dir);
+      Files.write(partial, tile);
+      Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn("Unable to spill tile " + key, e);
+      FileUtils.deleteQuietly(partial.toFile());
+      return;
+    }
+
+    List<K> evicted = new ArrayList<>();
+    synchronized (this) {
+      Integer previous = disk.put(key, tile.length);
+      diskBytes += tile.length - (previous == null ? 0 : previous);
+      Iterator<Map.Entry<K, Integer>> lru = disk.entrySet().iterator();
+      while (diskBytes > diskCapacity && lru.hasNext()) {
+        Map.Entry<K, Integer> eldest = lru.next();
+        lru.remove();
+        diskBytes -= eldest.getValue();
+        evicted.add(eldest.getKey());
+      }
+    }
+    for (K old : evicted) {
+      FileUtils.deleteQuietly(fileFor(old).toFile());
+    }
+  }
+
+  private Path fileFor(K key) {
+    return dir.resolve(key.toString());
+  }
+}
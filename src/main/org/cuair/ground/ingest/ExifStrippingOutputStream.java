@@ -0,0 +1,233 @@
+package org.cuair.ground.ingest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that rewrites a JPEG without its APP1 (EXIF and XMP) segments. Every other segment
+ * and all of the entropy-coded image data are copied byte for byte, so the image itself is not
+ * recompressed. We drop the EXIF because its orientation tag screws with the image display on the
+ * frontend.
+ *
+ * <p>Data that does not start with a JPEG start-of-image marker is passed through untouched.
+ */
+public class ExifStrippingOutputStream extends FilterOutputStream {
+
+  /** Marker prefix byte, also used as fill byte between segments */
+  private static final int MARKER_PREFIX = 0xFF;
+
+  /** Start of image */
+  private static final int SOI = 0xD8;
+
+  /** End of image */
+  private static final int EOI = 0xD9;
+
+  /** Start of scan, after which the entropy-coded data follows */
+  private static final int SOS = 0xDA;
+
+  /** Application segment 1, which holds EXIF and XMP metadata */
+  private static final int APP1 = 0xE1;
+
+  /** Temporary marker used in arithmetic coding, which has no length */
+  private static final int TEM = 0x01;
+
+  /** First and last restart markers, which have no length */
+  private static final int RST0 = 0xD0;
+  private static final int RST7 = 0xD7;
+
+  /** Where in the JPEG structure the next written byte falls */
+  private enum State {
+    /** Expecting the first byte of the start-of-image marker */
+    START,
+    /** Expecting the second byte of the start-of-image marker */
+    START_MARKER,
+    /** Expecting the prefix of the next segment's marker */
+    MARKER_PREFIX,
+    /** Expecting the type byte of the next segment's marker */
+    MARKER_TYPE,
+    /** Expecting the high byte of the segment length */
+    LENGTH_HIGH,
+    /** Expecting the low byte of the segment length */
+    LENGTH_LOW,
+    /** Inside a segment's payload */
+    PAYLOAD,
+    /** Copying everything as is, either the image data or a stream that is not a JPEG */
+    COPY
+  }
+
+  private State state = State.START;
+
+  /** The type of the segment currently being read */
+  private int marker;
+
+  /** The high byte of the length of the segment currently being read */
+  private int lengthHigh;
+
+  /** The number of payload bytes left in the segment currently being read */
+  private int remaining;
+
+  /** Whether the segment currently being read is being dropped */
+  private boolean dropping;
+
+  /**
+   * Creates an EXIF stripping output stream
+   *
+   * @param out the stream to write the rewritten JPEG to
+   */
+  public ExifStrippingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    b &= 0xFF;
+    switch (state) {
+      case START:
+        if (b == MARKER_PREFIX) {
+          state = State.START_MARKER;
+        } else {
+          out.write(b);
+          state = State.COPY;
+        }
+        break;
+      case START_MARKER:
+        out.write(MARKER_PREFIX);
+        out.write(b);
+        state = (b == SOI) ? State.MARKER_PREFIX : State.COPY;
+        break;
+      case MARKER_PREFIX:
+        if (b == MARKER_PREFIX) {
+          state = State.MARKER_TYPE;
+        } else {
+          // not a valid JPEG structure, so give up on rewriting and keep the rest as is
+          out.write(b);
+          state = State.COPY;
+        }
+        break;
+      case MARKER_TYPE:
+        if (b == MARKER_PREFIX) {
+          // fill byte, which may be dropped without changing the image
+          break;
+        }
+        marker = b;
+        if (isStandalone(marker)) {
+          out.write(MARKER_PREFIX);
+          out.write(marker);
+          state = (marker == EOI) ? State.COPY : State.MARKER_PREFIX;
+        } else {
+          state = State.LENGTH_HIGH;
+        }
+        break;
+      case LENGTH_HIGH:
+        lengthHigh = b;
+        state = State.LENGTH_LOW;
+        break;
+      case LENGTH_LOW:
+        remaining = ((lengthHigh << 8) | b) - 2;
+        dropping = (marker == APP1);
+        if (!dropping) {
+          out.write(MARKER_PREFIX);
+          out.write(marker);
+          out.write(lengthHigh);
+          out.write(b);
+        }
+        if (remaining <= 0) {
+          endSegment();
+        } else {
+          state = State.PAYLOAD;
+        }
+        break;
+      case PAYLOAD:
+        if (!dropping) {
+          out.write(b);
+        }
+        if (--remaining == 0) {
+          endSegment();
+        }
+        break;
+      default:
+        out.write(b);
+        break;
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    int end = off + len;
+    while (off < end) {
+      if (state == State.COPY) {
+        out.write(b, off, end - off);
+        return;
+      }
+      if (state == State.PAYLOAD) {
+        int n = Math.min(remaining, end - off);
+        if (!dropping) {
+          out.write(b, off, n);
+        }
+        off += n;
+        remaining -= n;
+        if (remaining == 0) {
+          endSegment();
+        }
+        continue;
+      }
+      write(b[off++]);
+    }
+  }
+
+  /**
+   * Writes the marker bytes held back while the stream ended, so a truncated file keeps its last
+   * bytes, and closes the underlying stream
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      writePending();
+    } finally {
+      super.close();
+    }
+  }
+
+  /** Writes the bytes of a marker that was cut off before it could be told apart */
+  private void writePending() throws IOException {
+    switch (state) {
+      case START_MARKER:
+      case MARKER_TYPE:
+        out.write(MARKER_PREFIX);
+        break;
+      case LENGTH_HIGH:
+        if (marker != APP1) {
+          out.write(MARKER_PREFIX);
+          out.write(marker);
+        }
+        break;
+      case LENGTH_LOW:
+        if (marker != APP1) {
+          out.write(MARKER_PREFIX);
+          out.write(marker);
+          out.write(lengthHigh);
+        }
+        break;
+      default:
+        break;
+    }
+    state = State.COPY;
+  }
+
+  /** Moves on from the segment that was just read */
+  private void endSegment() {
+    // everything after the start of scan header is image data
+    state = (marker == SOS) ? State.COPY : State.MARKER_PREFIX;
+  }
+
+  /**
+   * Whether the given marker stands alone, i.e. is not followed by a length and payload
+   *
+   * @param marker the marker type byte
+   * @return true if the marker has no segment length
+   */
+  private static boolean isStandalone(int marker) {
+    return marker == SOI || marker == EOI || marker == TEM || (marker >= RST0 && marker <= RST7);
+  }
+}
@@ -0,0 +1,301 @@
+package org.cuair.ground.ingest;
+
+import com.drew.imaging.FileType;
+import com.drew.imaging.FileTypeDetector;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.cuair.ground.imaging.ImageQuality;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.geotag.FOV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Streams image files uploaded by the plane into the image directory. The file type and the EXIF
+ * metadata are read off the stream while it is being written to disk, so an upload is only ever
+ * held in memory one buffer at a time, regardless of its size. JPEGs are written without their
+ * EXIF segments (see {@link ExifStrippingOutputStream}).
+ *
+ * <p>The steps after storing the file are shared by the synchronous upload in the image controller
+ * and the stages of the {@link IngestPipeline}.
+ */
+public class ImageIngest {
+  private static final Logger logger = LoggerFactory.getLogger(ImageIngest.class);
+
+  /** Size of the buffer used to sniff the file type and read the metadata segments */
+  private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+
+  /** Content type assumed for files whose type cannot be detected from their magic bytes */
+  private static final String DEFAULT_CONTENT_TYPE = "image/jpeg";
+
+  /** Suffix of partially written image files in the image directory */
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  /** Callbacks run once an ingested image has been persisted */
+  private static final List<Consumer<Image>> persistListeners = new CopyOnWriteArrayList<>();
+
+  /** An image file that has been written to the image directory but not yet given its final name */
+  public static class StoredImage {
+
+    /** The partially written file holding the image */
+    private final Path file;
+
+    /** The content type detected from the file's magic bytes */
+    private final String contentType;
+
+    /** The metadata read from the image header */
+    private final Metadata metadata;
+
+    StoredImage(Path file, String contentType, Metadata metadata) {
+      this.file = file;
+      this.contentType = contentType;
+      this.metadata = metadata;
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public Metadata getMetadata() {
+      return metadata;
+    }
+
+    /**
+     * Whether the stored file is an image
+     *
+     * @return true if the detected content type is an image type
+     */
+    public boolean isImage() {
+      return contentType.startsWith("image/");
+    }
+
+    /**
+     * Gets the file extension corresponding to the content type, e.g. "jpeg" for "image/jpeg"
+     *
+     * @return the file extension of this image
+     */
+    public String getExtension() {
+      return contentType.split("\\/")[1];
+    }
+  }
+
+  /**
+   * Writes the contents of {@code in} to a new file in {@code dir}, detecting the file type,
+   * reading the image metadata and stripping the EXIF in the same pass. The caller is responsible
+   * for moving the returned file to its final name with {@link #moveToFinal} or deleting it.
+   *
+   * @param in the stream of the uploaded file
+   * @param dir the directory to write the image to
+   * @return the stored image
+   * @throws IOException on errors reading the upload or writing the file
+   * @throws ImageProcessingException if the image metadata cannot be parsed
+   */
+  public static StoredImage store(InputStream in, Path dir)
+      throws IOException, ImageProcessingException {
+    Files.createDirectories(dir);
+    Path partial = Files.createTempFile(dir, "upload-", PARTIAL_SUFFIX);
+    try (OutputStream out =
+            new ExifStrippingOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)));
+        BufferedInputStream header =
+            new BufferedInputStream(new TeeInputStream(in, out), HEADER_BUFFER_SIZE)) {
+      FileType fileType = FileTypeDetector.detectFileType(header);
+      String contentType = fileType.getMimeType();
+      if (contentType == null) {
+        contentType = DEFAULT_CONTENT_TYPE;
+      }
+      Metadata metadata = null;
+      if (contentType.startsWith("image/")) {
+        // the metadata readers stop at the start of the image data, so this only touches the header
+        metadata = ImageMetadataReader.readMetadata(header, -1, fileType);
+      }
+      // everything read through the tee lands in the file, so draining it writes the rest
+      IOUtils.copyLarge(header, NullOutputStream.NULL_OUTPUT_STREAM);
+      return new StoredImage(partial, contentType, metadata);
+    } catch (IOException | ImageProcessingException | RuntimeException e) {
+      Files.deleteIfExists(partial);
+      throw e;
+    }
+  }
+
+  /**
+   * Gives a stored image its final name in the directory it was written to.
+   *
+   * @param stored the stored image
+   * @param fileName the final file name
+   * @return the path of the image file
+   * @throws java.nio.file.FileAlreadyExistsException if a file with that name already exists
+   * @throws IOException on other errors moving the file
+   */
+  public static Path moveToFinal(StoredImage stored, String fileName) throws IOException {
+    Path target = stored.getFile().resolveSibling(fileName);
+    return Files.move(stored.getFile(), target);
+  }
+
+  /**
+   * Extracts the focal length of the image, which is included in the EXIF of the jpeg file
+   * Uses metadata-extraction library: https://drewnoakes.com/code/exif/
+   *
+   * @param metadata the metadata read from the image
+   * @return the focal length in mm
+   * @throws ImageProcessingException if the EXIF does not contain a focal length
+   */
+  public static double extractFocalLength(Metadata metadata) throws ImageProcessingException {
+    // Focal length lives in ExifSubIFDDirectory
+    ExifSubIFDDirectory directory =
+        metadata == null ? null : metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+    Double focalLength =
+        directory == null ? null : directory.getDoubleObject(ExifSubIFDDirectory.TAG_FOCAL_LENGTH);
+    if (focalLength == null) {
+      throw new ImageProcessingException("Image EXIF does not contain a focal length");
+    }
+    return focalLength;
+  }
+
+  /**
+   * Checks that a stored upload is an image, deleting it if it isn't.
+   *
+   * @param stored the stored upload
+   * @throws IngestException with status 400 if the upload is not an image
+   */
+  public static void checkImage(StoredImage stored) throws IngestException {
+    if (!stored.isImage()) {
+      FileUtils.deleteQuietly(stored.getFile().toFile());
+      throw new IngestException(HttpStatus.BAD_REQUEST, "expected an image as a filePart");
+    }
+  }
+
+  /**
+   * Reads the focal length from the EXIF of a stored image, deleting the image if it has none.
+   *
+   * @param stored the stored image
+   * @return the focal length in mm
+   * @throws IngestException with status 500 if the focal length cannot be read
+   */
+  public static double readFocalLength(StoredImage stored) throws IngestException {
+    try {
+      return extractFocalLength(stored.getMetadata());
+    } catch (ImageProcessingException e) {
+      FileUtils.deleteQuietly(stored.getFile().toFile());
+      throw new IngestException(HttpStatus.INTERNAL_SERVER_ERROR,
+          "Error when extracting focal length from image file: \n" + e);
+    }
+  }
+
+  /**
+   * Sets the FOV of an image from the focal length of the lens it was taken with
+   *
+   * @param image the image
+   * @param focalLength the focal length in mm
+   */
+  public static void setFov(Image image, double focalLength) {
+    image.setFov(FOV.fromFocalLength(focalLength));
+  }
+
+  /**
+   * Scores the sharpness and exposure of a stored image. The scores only decide the order images
+   * are handed out in, so an image that can't be scored is ingested without them.
+   *
+   * @param image the image to set the scores of
+   * @param stored the stored image file
+   */
+  public static void scoreQuality(Image image, StoredImage stored) {
+    try {
+      ImageQuality.Scores scores = ImageQuality.analyze(stored.getFile());
+      image.setSharpness(scores.getSharpness());
+      image.setExposure(scores.getExposure());
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to score the quality of image " + image.getTimestamp(), e);
+      image.setSharpness(null);
+      image.setExposure(null);
+    }
+  }
+
+  /**
+   * Moves a stored image to its final name, which is the timestamp of the image, and points the
+   * image's urls at it. The stored file is deleted if it cannot be moved.
+   *
+   * @param image the image
+   * @param stored the stored image file
+   * @throws IngestException with status 400 if an image with the same timestamp already exists,
+   *     or 500 on other errors moving the file
+   */
+  public static void place(Image image, StoredImage stored) throws IngestException {
+    // set the filename to the timestamp of the image
+    String imageFileName =
+        String.format("%d", image.getTimestamp().getTime()) + "." + stored.getExtension();
+    Path target;
+    try {
+      target = moveToFinal(stored, imageFileName);
+    } catch (FileAlreadyExistsException e) {
+      FileUtils.deleteQuietly(stored.getFile().toFile());
+      throw new IngestException(HttpStatus.BAD_REQUEST, "File with timestamp already exists");
+    } catch (IOException e) {
+      FileUtils.deleteQuietly(stored.getFile().toFile());
+      throw new IngestException(HttpStatus.INTERNAL_SERVER_ERROR,
+          "Error when moving image file: \n" + e);
+    }
+    image.setLocalImageUrl(target.getParent() + "/" + imageFileName);
+    image.setImageUrl("/api/v1/image/file/" + imageFileName);
+  }
+
+  /**
+   * Deletes the file of an image that was placed with {@link #place} but couldn't be saved, so the
+   * plane can upload it again under the same timestamp
+   *
+   * @param image the image
+   */
+  public static void unplace(Image image) {
+    if (image.getLocalImageUrl() != null) {
+      FileUtils.deleteQuietly(new File(image.getLocalImageUrl()));
+    }
+  }
+
+  /**
+   * Registers a callback to run for every image after it has been persisted, whether it was
+   * uploaded synchronously or through the {@link IngestPipeline}.
+   *
+   * @param listener the callback
+   */
+  public static void addPersistListener(Consumer<Image> listener) {
+    persistListeners.add(listener);
+  }
+
+  /**
+   * Runs the persist callbacks for an image. A failing callback is logged and does not stop the
+   * others.
+   *
+   * @param image the image that was persisted
+   */
+  public static void notifyPersisted(Image image) {
+    for (Consumer<Image> listener : persistListeners) {
+      try {
+        listener.accept(image);
+      } catch (RuntimeException e) {
+        logger.error("Image persist listener failed for image " + image.getId(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package org.cuair.ground.ingest;
+
+import org.springframework.http.HttpStatus;
+
+/** Thrown when an uploaded image cannot be ingested, carrying the status to report to the plane */
+public class IngestException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  /** The HTTP status the failure maps to */
+  private final HttpStatus status;
+
+  /**
+   * Creates an ingest exception
+   *
+   * @param status the HTTP status the failure maps to
+   * @param message the message to report to the plane
+   */
+  public IngestException(HttpStatus status, String message) {
+    super(message);
+    this.status = status;
+  }
+
+  public HttpStatus getStatus() {
+    return status;
+  }
+}
@@ -0,0 +1,564 @@
+package org.cuair.ground.ingest;
+
+import com.drew.imaging.ImageProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.commons.io.IOUtils;
+import org.cuair.ground.daos.DAOFactory;
+import org.cuair.ground.daos.ImageDatabaseAccessor;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Asynchronous image ingest. An upload is accepted as soon as it and its json have been durably
+ * written to the staging directory; the rest of the work happens on bounded executor stages:
+ *
+ * <ol>
+ *   <li>metadata: store the file in the image directory, reading its type and EXIF
+ *   <li>fov: compute the FOV from the focal length
+ *   <li>quality: score the sharpness and exposure of a downsampled decode of the image, on as
+ *       many threads as {@link Flags#INGEST_QUALITY_THREADS} since it is the most CPU heavy stage
+ *   <li>persist: move the file to its final name and save the image, which makes it visible to
+ *       the assignment queue
+ *   <li>notify: run the persist listeners registered with {@link ImageIngest}
+ * </ol>
+ *
+ * <p>Each stage has a fixed number of threads and a bounded queue. When the first queue is full new
+ * uploads are turned away so the plane can retry; when a later queue is full the stage feeding it
+ * waits for room. Staged uploads that were never processed, e.g. because the server went down, are
+ * picked up again by {@link #recover()}.
+ */
+public class IngestPipeline {
+  private static final Logger logger = LoggerFactory.getLogger(IngestPipeline.class);
+
+  /** Suffix of staged upload files */
+  private static final String UPLOAD_SUFFIX = ".upload";
+
+  /** Suffix of the json of staged uploads */
+  private static final String JSON_SUFFIX = ".json";
+
+  /** Suffix of staged files that have not been completely written */
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private static IngestPipeline instance;
+
+  /** The states an upload goes through */
+  public enum State {
+    /** Durably staged and waiting for the metadata stage */
+    STAGED,
+    /** Being stored in the image directory and having its metadata read */
+    METADATA,
+    /** Having its FOV computed */
+    FOV,
+    /** Having its sharpness and exposure scored */
+    QUALITY,
+    /** Being saved to the database */
+    PERSIST,
+    /** Saved, and visible to the assignment queue */
+    VISIBLE,
+    /** Processing failed, see the error */
+    FAILED
+  }
+
+  /** The status of an upload, as reported to the plane */
+  public static class Status {
+
+    /** The timestamp of the image, which identifies the upload */
+    private final long timestamp;
+
+    private volatile State state = State.STAGED;
+
+    /** The id of the image once it has been persisted */
+    private volatile Long imageId;
+
+    /** The HTTP status the failure maps to, if the upload failed */
+    private volatile HttpStatus errorStatus;
+
+    /** Why the upload failed, if it did */
+    private volatile String error;
+
+    /** When the upload failed, in milliseconds since the epoch, if it did */
+    private volatile long failedAt;
+
+    Status(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    /**
+     * Creates the status of an image that has been persisted and is no longer being tracked
+     *
+     * @param timestamp the timestamp of the image
+     * @param imageId the id of the image
+     * @return a VISIBLE status
+     */
+    public static Status persisted(long timestamp, Long imageId) {
+      Status status = new Status(timestamp);
+      status.imageId = imageId;
+      status.state = State.VISIBLE;
+      return status;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public Long getImageId() {
+      return imageId;
+    }
+
+    public HttpStatus getErrorStatus() {
+      return errorStatus;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    void setState(State state) {
+      this.state = state;
+    }
+
+    void setImageId(Long imageId) {
+      this.imageId = imageId;
+    }
+
+    void fail(HttpStatus errorStatus, String error) {
+      this.errorStatus = errorStatus;
+      this.error = error;
+      this.failedAt = System.currentTimeMillis();
+      this.state = State.FAILED;
+    }
+
+    /** Whether the upload failed longer than Flags.INGEST_FAILED_STATUS_MILLIS ago */
+    boolean isExpired(long now) {
+      return state == State.FAILED && now - failedAt > Flags.INGEST_FAILED_STATUS_MILLIS;
+    }
+  }
+
+  /** A fixed-size thread pool with a bounded queue */
+  static class Stage {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a stage
+     *
+     * @param name the name of the stage, used for its thread names
+     * @param threads the number of threads working the stage
+     * @param capacity the number of tasks that may wait for a thread
+     */
+    Stage(String name, int threads, int capacity) {
+      AtomicInteger count = new AtomicInteger();
+      executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(capacity),
+          r -> new Thread(r, "ingest-" + name + "-" + count.incrementAndGet()),
+          (r, e) -> {
+            // a full queue makes the stage feeding it wait rather than dropping the image
+            if (e.isShutdown()) {
+              // the upload is still staged, so it is picked up again by the next recovery
+              logger.info("Ingest stage " + name + " is shut down, dropping queued work");
+              return;
+            }
+            try {
+              e.getQueue().put(r);
+            } catch (InterruptedException ie) {
+              Thread.currentThread().interrupt();
+              throw new RejectedExecutionException(ie);
+            }
+          });
+      executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Runs a task on the stage, waiting for room in the queue if it is full
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+      executor.execute(task);
+    }
+
+    /**
+     * Runs a task on the stage unless its queue is full. The task is offered to the queue directly,
+     * as checking for room and then executing would let another caller take the room in between
+     * and leave this one waiting. All the threads are started up front, so they take tasks from
+     * the queue like any executed task.
+     *
+     * @param task the task
+     * @return false if the queue was full, or the stage shut down, and the task was not accepted
+     */
+    boolean tryExecute(Runnable task) {
+      return !executor.isShutdown() && executor.getQueue().offer(task);
+    }
+
+    /**
+     * Gets the number of tasks waiting for a thread
+     *
+     * @return the queue depth
+     */
+    int getQueueDepth() {
+      return executor.getQueue().size();
+    }
+
+    void shutDown() {
+      executor.shutdown();
+    }
+  }
+
+  private final Path stagingDir;
+
+  private final Path imageDir;
+
+  /** Saves an image to the database */
+  private final Consumer<Image> persister;
+
+  private final Stage metadataStage;
+  private final Stage fovStage;
+  private final Stage qualityStage;
+  private final Stage persistStage;
+  private final Stage notifyStage;
+
+  /**
+   * Statuses of uploads that have not been persisted yet, or failed, by image timestamp. Failed
+   * uploads are forgotten after Flags.INGEST_FAILED_STATUS_MILLIS.
+   */
+  private final Map<Long, Status> statuses = new ConcurrentHashMap<>();
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * Gets the ingest pipeline, starting it the first time it is needed
+   *
+   * @return the ingest pipeline
+   */
+  public static synchronized IngestPipeline getInstance() {
+    if (instance == null) {
+      ImageDatabaseAccessor imageDao = (ImageDatabaseAccessor) DAOFactory
+          .getDAO(DAOFactory.ModellessDAOType.IMAGE_DATABASE_ACCESSOR);
+      instance = new IngestPipeline(Paths.get(Flags.INGEST_STAGING_DIR),
+          Paths.get(Flags.PLANE_IMAGE_DIR), Flags.INGEST_STAGE_THREADS,
+          Flags.INGEST_STAGE_QUEUE_CAPACITY, imageDao::create);
+    }
+    return instance;
+  }
+
+  /** Shuts down the ingest pipeline if it was started. Queued work stays staged on disk. */
+  public static synchronized void shutDownInstance() {
+    if (instance != null) {
+      instance.shutDown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Creates an ingest pipeline
+   *
+   * @param stagingDir the directory uploads are staged in
+   * @param imageDir the directory images are stored in
+   * @param threads the number of threads per stage, other than the quality stage
+   * @param capacity the queue capacity of each stage
+   * @param persister saves an image to the database
+   */
+  IngestPipeline(Path stagingDir, Path imageDir, int threads, int capacity,
+      Consumer<Image> persister) {
+    this.stagingDir = stagingDir;
+    this.imageDir = imageDir;
+    this.persister = persister;
+    metadataStage = new Stage("metadata", threads, capacity);
+    fovStage = new Stage("fov", threads, capacity);
+    qualityStage = new Stage("quality", Flags.INGEST_QUALITY_THREADS, capacity);
+    persistStage = new Stage("persist", threads, capacity);
+    notifyStage = new Stage("notify", threads, capacity);
+  }
+
+  /**
+   * Stages an upload and queues it for processing. Returns once the upload has been durably
+   * written, before any of its metadata has been read.
+   *
+   * @param image the image parsed from the upload's json
+   * @param json the upload's json, kept so the upload can be recovered after a restart
+   * @param in the stream of the uploaded file
+   * @return the status of the upload
+   * @throws FileAlreadyExistsException if an image with the same timestamp is already being
+   *     ingested
+   * @throws RejectedExecutionException if the pipeline is too far behind to accept the upload
+   * @throws IOException on errors staging the upload
+   */
+  public Status submit(Image image, String json, InputStream in) throws IOException {
+    evictExpired();
+    long timestamp = image.getTimestamp().getTime();
+    Status status = new Status(timestamp);
+    Status existing = statuses.putIfAbsent(timestamp, status);
+    if (existing != null) {
+      if (existing.getState() != State.FAILED || !statuses.replace(timestamp, existing, status)) {
+        throw new FileAlreadyExistsException("Image with timestamp is already being ingested");
+      }
+    }
+
+    Path upload;
+    try {
+      upload = stage(timestamp, json, in);
+    } catch (IOException | RuntimeException e) {
+      statuses.remove(timestamp, status);
+      throw e;
+    }
+
+    if (!metadataStage.tryExecute(() -> readMetadata(image, upload, status))) {
+      unstage(upload);
+      statuses.remove(timestamp, status);
+      throw new RejectedExecutionException("Ingest queue is full");
+    }
+    return status;
+  }
+
+  /**
+   * Queues staged uploads that were never processed, e.g. because the server went down while they
+   * were queued. Staged files that were not completely written are deleted.
+   *
+   * @throws IOException on errors listing the staging directory
+   */
+  public void recover() throws IOException {
+    if (!Files.isDirectory(stagingDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingDir)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(PARTIAL_SUFFIX)) {
+          Files.deleteIfExists(file);
+        } else if (name.endsWith(UPLOAD_SUFFIX)) {
+          recover(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Queues a single staged upload
+   *
+   * @param upload the staged upload file
+   */
+  private void recover(Path upload) throws IOException {
+    Path jsonFile = jsonFor(upload);
+    Image image;
+    try {
+      image = mapper.readValue(Files.readAllBytes(jsonFile), Image.class);
+    } catch (IOException e) {
+      logger.error("Dropping staged upload " + upload + " with unreadable json", e);
+      unstage(upload);
+      return;
+    }
+    Status status = new Status(image.getTimestamp().getTime());
+    if (statuses.putIfAbsent(status.getTimestamp(), status) != null) {
+      return;
+    }
+    logger.info("Recovering staged upload " + upload);
+    metadataStage.execute(() -> readMetadata(image, upload, status));
+  }
+
+  /**
+   * Gets the status of the upload of the image with the given timestamp. Uploads that have been
+   * persisted are only tracked until the persist listeners have run; after that, look the image up
+   * in the database instead. Failed uploads are only tracked for Flags.INGEST_FAILED_STATUS_MILLIS.
+   *
+   * @param timestamp the timestamp of the image
+   * @return the status, or null if no upload with that timestamp is being tracked
+   */
+  public Status getStatus(long timestamp) {
+    Status status = statuses.get(timestamp);
+    if (status != null && status.isExpired(System.currentTimeMillis())) {
+      statuses.remove(timestamp, status);
+      return null;
+    }
+    return status;
+  }
+
+  /**
+   * Gets the number of uploads waiting in each stage
+   *
+   * @return the queue depth of each stage, by stage name, in pipeline order
+   */
+  public Map<String, Integer> getQueueDepths() {
+    Map<String, Integer> depths = new LinkedHashMap<>();
+    depths.put("metadata", metadataStage.getQueueDepth());
+    depths.put("fov", fovStage.getQueueDepth());
+    depths.put("quality", qualityStage.getQueueDepth());
+    depths.put("persist", persistStage.getQueueDepth());
+    depths.put("notify", notifyStage.getQueueDepth());
+    return depths;
+  }
+
+  /** Stops taking new work. Uploads that have not been stored are recovered on the next start. */
+  public void shutDown() {
+    metadataStage.shutDown();
+    fovStage.shutDown();
+    qualityStage.shutDown();
+    persistStage.shutDown();
+    notifyStage.shutDown();
+  }
+
+  /** Metadata stage: stores the staged upload in the image directory and reads its EXIF */
+  private void readMetadata(Image image, Path upload, Status status) {
+    status.setState(State.METADATA);
+    ImageIngest.StoredImage stored;
+    try (InputStream in = Files.newInputStream(upload)) {
+      stored = ImageIngest.store(in, imageDir);
+    } catch (IOException | ImageProcessingException e) {
+      fail(status, upload, new IngestException(HttpStatus.INTERNAL_SERVER_ERROR,
+          "Error when extracting image from request: \n" + e));
+      return;
+    }
+
+    double focalLength;
+    try {
+      ImageIngest.checkImage(stored);
+      focalLength = ImageIngest.readFocalLength(stored);
+    } catch (IngestException e) {
+      fail(status, upload, e);
+      return;
+    }
+    status.setState(State.FOV);
+    fovStage.execute(() -> computeFov(image, upload, stored, focalLength, status));
+  }
+
+  /** FOV stage: computes the FOV of the image from the focal length */
+  private void computeFov(Image image, Path upload, ImageIngest.StoredImage stored,
+      double focalLength, Status status) {
+    ImageIngest.setFov(image, focalLength);
+    status.setState(State.QUALITY);
+    qualityStage.execute(() -> scoreQuality(image, upload, stored, status));
+  }
+
+  /** Quality stage: scores the sharpness and exposure of the image */
+  private void scoreQuality(Image image, Path upload, ImageIngest.StoredImage stored,
+      Status status) {
+    ImageIngest.scoreQuality(image, stored);
+    status.setState(State.PERSIST);
+    persistStage.execute(() -> persist(image, upload, stored, status));
+  }
+
+  /** Persist stage: moves the image to its final name and saves it */
+  private void persist(Image image, Path upload, ImageIngest.StoredImage stored,
+      Status status) {
+    try {
+      ImageIngest.place(image, stored);
+    } catch (IngestException e) {
+      fail(status, upload, e);
+      return;
+    }
+    try {
+      persister.accept(image);
+    } catch (RuntimeException e) {
+      logger.error("Error when saving ingested image " + image.getTimestamp(), e);
+      // otherwise the file would keep its timestamp from the plane's retry
+      ImageIngest.unplace(image);
+      fail(status, upload, new IngestException(HttpStatus.INTERNAL_SERVER_ERROR,
+          "Error when saving image: \n" + e));
+      return;
+    }
+    // the upload is only dropped from the staging directory once the image is safely stored
+    unstage(upload);
+    status.setImageId(image.getId());
+    status.setState(State.VISIBLE);
+    notifyStage.execute(() -> notifyPersisted(image, status));
+  }
+
+  /** Notify stage: runs the persist listeners, after which the image is found by the database */
+  private void notifyPersisted(Image image, Status status) {
+    ImageIngest.notifyPersisted(image);
+    statuses.remove(status.getTimestamp(), status);
+  }
+
+  /** Forgets uploads that failed longer than Flags.INGEST_FAILED_STATUS_MILLIS ago */
+  private void evictExpired() {
+    long now = System.currentTimeMillis();
+    statuses.values().removeIf(status -> status.isExpired(now));
+  }
+
+  /** Marks an upload as failed and drops it from the staging directory */
+  private void fail(Status status, Path upload, IngestException e) {
+    logger.warn("Ingest of image " + status.getTimestamp() + " failed: " + e.getMessage());
+    unstage(upload);
+    status.fail(e.getStatus(), e.getMessage());
+  }
+
+  /**
+   * Durably writes an upload and its json to the staging directory. The upload file only appears
+   * under its final name once both have been synced to disk, so its presence means the upload is
+   * complete.
+   *
+   * @return the staged upload file
+   */
+  private Path stage(long timestamp, String json, InputStream in) throws IOException {
+    Files.createDirectories(stagingDir);
+    Path upload = stagingDir.resolve(timestamp + UPLOAD_SUFFIX);
+    Path jsonFile = jsonFor(upload);
+    Path partialUpload = stagingDir.resolve(upload.getFileName() + PARTIAL_SUFFIX);
+    Path partialJson = stagingDir.resolve(jsonFile.getFileName() + PARTIAL_SUFFIX);
+    try {
+      try (FileChannel channel = FileChannel.open(partialJson, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        OutputStream out = Channels.newOutputStream(channel);
+        out.write(json.getBytes(StandardCharsets.UTF_8));
+        channel.force(true);
+      }
+      try (FileChannel channel = FileChannel.open(partialUpload, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        IOUtils.copyLarge(in, Channels.newOutputStream(channel));
+        channel.force(true);
+      }
+      Files.move(partialJson, jsonFile, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(partialUpload, upload, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(partialJson);
+      Files.deleteIfExists(partialUpload);
+      Files.deleteIfExists(jsonFile);
+      throw e;
+    }
+    return upload;
+  }
+
+  /** Deletes a staged upload and its json */
+  private void unstage(Path upload) {
+    try {
+      Files.deleteIfExists(upload);
+      Files.deleteIfExists(jsonFor(upload));
+    } catch (IOException e) {
+      logger.error("Unable to delete staged upload " + upload, e);
+    }
+  }
+
+  private static Path jsonFor(Path upload) {
+    String name = upload.getFileName().toString();
+    return upload.resolveSibling(
+        name.substring(0, name.length() - UPLOAD_SUFFIX.length()) + JSON_SUFFIX);
+  }
+}
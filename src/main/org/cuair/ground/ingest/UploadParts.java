@@ -0,0 +1,182 @@
+package org.cuair.ground.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.io.IOUtils;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUploadBase;
+import org.apache.tomcat.util.http.fileupload.FileUploadException;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletFileUpload;
+import org.cuair.ground.util.Flags;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.support.AbstractMultipartHttpServletRequest;
+
+/**
+ * Reads the "json" and "files" parts of an image upload straight off the request body, so the
+ * image file is only written to disk once, where it is stored, instead of being spooled to a
+ * temporary file by the container first. Multipart requests are resolved lazily, so the body is
+ * still unread when the controller gets the request.
+ *
+ * <p>The parts are parsed with the streaming API of the commons-fileupload copy that ships with
+ * the embedded Tomcat. A "files" part that comes before the "json" part has to be set aside until
+ * the json has been read, so it is written to the staging directory and read back from there.
+ * Requests whose parts have already been resolved, e.g. in tests, are read from the resolved parts.
+ */
+public class UploadParts implements Closeable {
+
+  /** The name of the part with the json describing the image */
+  private static final String JSON_PART = "json";
+
+  /** The name of the part with the image file */
+  private static final String FILE_PART = "files";
+
+  /** The parts of the request body that haven't been read yet, or null if already resolved */
+  private final FileItemIterator items;
+
+  /** The request whose parts were already resolved, or null if they are read off the body */
+  private final MultipartHttpServletRequest resolved;
+
+  /** A file part that came before the json part, set aside until the json has been read */
+  private Path spooled;
+
+  private UploadParts(FileItemIterator items, MultipartHttpServletRequest resolved) {
+    this.items = items;
+    this.resolved = resolved;
+  }
+
+  /**
+   * Starts reading the parts of an upload
+   *
+   * @param request the upload request
+   * @return the parts of the upload
+   * @throws IngestException 400 if the request isn't a multipart request, or 413 if it is larger
+   *     than Flags.MAX_IMAGE_UPLOAD_BYTES
+   * @throws IOException on errors reading the request
+   */
+  public static UploadParts of(HttpServletRequest request) throws IngestException, IOException {
+    if (request instanceof MultipartHttpServletRequest
+        && (!(request instanceof AbstractMultipartHttpServletRequest)
+            || ((AbstractMultipartHttpServletRequest) request).isResolved())) {
+      return new UploadParts(null, (MultipartHttpServletRequest) request);
+    }
+    if (!ServletFileUpload.isMultipartContent(request)) {
+      throw new IngestException(HttpStatus.BAD_REQUEST, "Expected a multipart request");
+    }
+    ServletFileUpload upload = new ServletFileUpload();
+    upload.setSizeMax(Flags.MAX_IMAGE_UPLOAD_BYTES);
+    try {
+      return new UploadParts(upload.getItemIterator(request), null);
+    } catch (FileUploadException e) {
+      throw toIngestException(e);
+    }
+  }
+
+  /**
+   * Reads the json part, setting aside a file part that comes before it
+   *
+   * @return the json, or null if there is no json part
+   * @throws IngestException 400 if the body is malformed, or 413 if it is too large
+   * @throws IOException on errors reading the request or setting aside the file part
+   */
+  public String getJson() throws IngestException, IOException {
+    if (resolved != null) {
+      MultipartFile json = resolved.getFile(JSON_PART);
+      return json != null
+          ? new String(json.getBytes(), StandardCharsets.UTF_8) : resolved.getParameter(JSON_PART);
+    }
+    FileItemStream item;
+    while ((item = next()) != null) {
+      if (item.getFieldName().equals(JSON_PART)) {
+        try (InputStream in = item.openStream()) {
+          return IOUtils.toString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+          throw toIngestException(e);
+        }
+      }
+      if (item.getFieldName().equals(FILE_PART) && spooled == null) {
+        Path dir = Paths.get(Flags.INGEST_STAGING_DIR);
+        Files.createDirectories(dir);
+        spooled = Files.createTempFile(dir, "upload-", ".part");
+        try (InputStream in = item.openStream()) {
+          Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+          throw toIngestException(e);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Opens the file part. Once the json has been read, the file part is the next part of the body,
+   * which is read as it arrives.
+   *
+   * @return the contents of the file part, or null if there is none
+   * @throws IngestException 400 if the body is malformed, or 413 if it is too large
+   * @throws IOException on errors reading the request
+   */
+  public InputStream getFile() throws IngestException, IOException {
+    if (resolved != null) {
+      MultipartFile file = resolved.getFile(FILE_PART);
+      return file == null ? null : file.getInputStream();
+    }
+    if (spooled != null) {
+      return Files.newInputStream(spooled);
+    }
+    FileItemStream item;
+    while ((item = next()) != null) {
+      if (item.getFieldName().equals(FILE_PART)) {
+        return item.openStream();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tells whether reading a part failed because the upload is larger than allowed
+   *
+   * @param e the failure
+   * @return whether the upload is larger than Flags.MAX_IMAGE_UPLOAD_BYTES
+   */
+  public static boolean isTooLarge(IOException e) {
+    return e.getCause() instanceof FileUploadBase.SizeException;
+  }
+
+  /** Deletes the file part if it had to be set aside */
+  @Override
+  public void close() throws IOException {
+    if (spooled != null) {
+      Files.deleteIfExists(spooled);
+    }
+  }
+
+  private FileItemStream next() throws IngestException, IOException {
+    try {
+      return items.hasNext() ? items.next() : null;
+    } catch (FileUploadException e) {
+      throw toIngestException(e);
+    }
+  }
+
+  private static IngestException toIngestException(Exception e) throws IOException {
+    if (e instanceof FileUploadBase.SizeException
+        || (e instanceof IOException && isTooLarge((IOException) e))) {
+      return new IngestException(HttpStatus.PAYLOAD_TOO_LARGE,
+          "Upload is larger than " + Flags.MAX_IMAGE_UPLOAD_BYTES + " bytes");
+    }
+    if (e instanceof FileUploadException) {
+      return new IngestException(HttpStatus.BAD_REQUEST, "Malformed multipart request: " + e);
+    }
+    throw (IOException) e;
+  }
+}
@@ -1,21 +1,41 @@
 package org.cuair.ground.lifecycle;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import org.cuair.ground.daos.AlphanumTargetDatabaseAccessor;
+import org.cuair.ground.daos.AssignmentDispatcher;
+import org.cuair.ground.daos.AssignmentLeases;
 import org.cuair.ground.daos.ClientCreatableDatabaseAccessor;
 import org.cuair.ground.daos.DAOFactory;
+import org.cuair.ground.daos.MissionStats;
 import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
+import org.cuair.ground.daos.SchemaMigrations;
+import org.cuair.ground.imaging.ImageDerivatives;
+import org.cuair.ground.imaging.ImagePrefetcher;
+import org.cuair.ground.imaging.ImageTiles;
+import org.cuair.ground.imaging.SightingThumbnails;
+import org.cuair.ground.ingest.ImageIngest;
+import org.cuair.ground.ingest.IngestPipeline;
 import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.plane.target.AlphanumTarget;
 import org.cuair.ground.models.plane.target.EmergentTarget;
 import org.cuair.ground.util.Flags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
 /* Lifecycle component, contains startup and shutdown logic for server. */
 @Component
+// the tables are created from the models by hibernate before startup migrates them
+@DependsOn("entityManagerFactory")
 public class Lifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(Lifecycle.class);
+
   private static AlphanumTargetDatabaseAccessor<AlphanumTarget> alphaTargetDao = (AlphanumTargetDatabaseAccessor<AlphanumTarget>) DAOFactory
       .getDAO(
           DAOFactory.ModelDAOType.ALPHANUM_TARGET_DATABASE_ACCESSOR, AlphanumTarget.class);
@@ -55,15 +75,37 @@ public class Lifecycle {
     }
   }
 
+  /**
+   * Resumes processing of images that were staged by the ingest pipeline but not yet persisted
+   * when the backend went down.
+   */
+  private static void recoverStagedImages() {
+    if (!Files.isDirectory(Paths.get(Flags.INGEST_STAGING_DIR))) {
+      return;
+    }
+    try {
+      IngestPipeline.getInstance().recover();
+    } catch (IOException e) {
+      logger.error("Unable to recover staged images", e);
+    }
+  }
+
   /**
    * Runs all necessary startup functions
    */
   @PostConstruct
   public void startUp() {
+    SchemaMigrations.run();
     initializeEmergentTargetDatabase();
     if (odlcUserDao.getADLCUser() == null) {
       odlcUserDao.create(new ODLCUser("adlc", "", ODLCUser.UserType.ADLC));
     }
+    AssignmentDispatcher.getInstance().rebuild();
+    MissionStats.getInstance().rebuild();
+    AssignmentLeases.getInstance();
+    // generate the smaller copies of every new image before taggers ask for them
+    ImageIngest.addPersistListener(image -> ImageDerivatives.getInstance().generate(image));
+    recoverStagedImages();
   }
 
   /**
@@ -71,6 +113,12 @@ public class Lifecycle {
    */
   @PreDestroy
   public void shutDown() {
-
+    IngestPipeline.shutDownInstance();
+    AssignmentLeases.shutDownInstance();
+    AssignmentDispatcher.shutDownInstance();
+    ImagePrefetcher.shutDownInstance();
+    ImageDerivatives.shutDownInstance();
+    ImageTiles.shutDownInstance();
+    SightingThumbnails.shutDownInstance();
   }
 }
@@ -1,8 +1,11 @@
 package org.cuair.ground.models
 
+import com.fasterxml.jackson.annotation.JsonInclude
+import java.sql.Timestamp
 import javax.persistence.CascadeType
 import javax.persistence.Entity
 import javax.persistence.ManyToOne
+import javax.persistence.Transient
 
 /** Represents an assignment of an image to either an MDLC or ADLC client for processing  */
 @Entity
@@ -18,6 +21,21 @@ class Assignment : TimestampModel {
   /** Represents whether the image has been processed  */
   var done: Boolean
 
+  /**
+   * When the assignment is given up unless the client renews it, or null once the lease has expired
+   * and the image has been handed back out. The sweep finds expired leases through a partial index
+   * over unfinished assignments, which the migrations create.
+   */
+  var leaseExpires: Timestamp? = null
+
+  /**
+   * Files of the images the client is likely to be assigned next, each with the url and etag to
+   * download it ahead of time with. Only sent with newly generated work, and never stored.
+   */
+  @Transient
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  var prefetch: List<Map<String, String>>? = null
+
   /**
    * Creates an unprocessed Assignment object
    *
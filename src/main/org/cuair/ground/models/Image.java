@@ -45,6 +45,12 @@ public class Image extends TimestampModel {
   @OneToOne(cascade = CascadeType.ALL)
   private FOV fov;
 
+  /** How sharp the image is, as scored at ingest, or null if it wasn't scored */
+  private Double sharpness;
+
+  /** How well exposed the image is from 0 to 1, as scored at ingest, or null if it wasn't scored */
+  private Double exposure;
+
   /** The possible image modes: fixed, tracking, and off-axis */
   public enum ImgMode {
     FIXED("fixed"),
@@ -80,34 +86,18 @@ public class Image extends TimestampModel {
 
   /**
    * Internal method for finding geotags corresponding to four corners of image
+   *
+   * @return the corners under "topLeft", "topRight", "bottomLeft" and "bottomRight", all null if
+   *     any of them can't be calculated (see Geotagging.getFootprint)
    */
   @JsonIgnore
   public Map<String, Object> getLocations() {
-    GpsLocation imageGPS = telemetry.getGps();
-    double centerLat = imageGPS.getLatitude();
-    double centerLong = imageGPS.getLongitude();
-    double planeRoll = telemetry.getGimOrt().getRoll() * Math.PI / 180;
-    double planePitch = telemetry.getGimOrt().getPitch() * Math.PI / 180;
-    double planeYaw = telemetry.getPlaneYaw() * Math.PI / 180;
-    double altitude = telemetry.getAltitude();
-
-    GpsLocation topLeft = Geotagging
-        .getPixelCoordinates(centerLat, centerLong, altitude, fov, 0.0, 0.0, planeRoll, planePitch, planeYaw);
-    GpsLocation topRight = Geotagging
-        .getPixelCoordinates(centerLat, centerLong, altitude, fov, Geotagging.IMAGE_WIDTH, 0.0, planeRoll, planePitch,
-            planeYaw);
-    GpsLocation bottomLeft = Geotagging
-        .getPixelCoordinates(centerLat, centerLong, altitude, fov, 0.0, Geotagging.IMAGE_HEIGHT, planeRoll, planePitch,
-            planeYaw);
-    GpsLocation bottomRight = Geotagging
-        .getPixelCoordinates(centerLat, centerLong, altitude, fov, Geotagging.IMAGE_WIDTH, Geotagging.IMAGE_HEIGHT,
-            planeRoll, planePitch, planeYaw);
-
+    GpsLocation[] footprint = Geotagging.getFootprint(telemetry, fov);
     Map<String, Object> locs = new HashMap<>();
-    locs.put("topLeft", topLeft);
-    locs.put("topRight", topRight);
-    locs.put("bottomLeft", bottomLeft);
-    locs.put("bottomRight", bottomRight);
+    locs.put("topLeft", footprint == null ? null : footprint[0]);
+    locs.put("topRight", footprint == null ? null : footprint[1]);
+    locs.put("bottomRight", footprint == null ? null : footprint[2]);
+    locs.put("bottomLeft", footprint == null ? null : footprint[3]);
 
     return locs;
   }
@@ -132,6 +122,14 @@ public class Image extends TimestampModel {
     return fov;
   }
 
+  public Double getSharpness() {
+    return sharpness;
+  }
+
+  public Double getExposure() {
+    return exposure;
+  }
+
   public boolean getHasMdlcAssignment() {
     return hasMdlcAssignment;
   }
@@ -168,4 +166,12 @@ public class Image extends TimestampModel {
     this.fov = fov;
   }
 
+  public void setSharpness(Double sharpness) {
+    this.sharpness = sharpness;
+  }
+
+  public void setExposure(Double exposure) {
+    this.exposure = exposure;
+  }
+
 }
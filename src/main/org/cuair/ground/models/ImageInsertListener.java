@@ -0,0 +1,30 @@
+package org.cuair.ground.models;
+
+import io.ebean.TransactionCallbackAdapter;
+import io.ebean.event.BeanPersistAdapter;
+import io.ebean.event.BeanPersistRequest;
+import org.cuair.ground.daos.AssignmentDispatcher;
+
+/**
+ * Queues every inserted image for assignment, including images saved along with an assignment.
+ * Images are queued once their transaction commits, so they are never handed out before taggers
+ * can load them.
+ */
+public class ImageInsertListener extends BeanPersistAdapter {
+
+  @Override
+  public boolean isRegisterFor(Class<?> cls) {
+    return Image.class.equals(cls);
+  }
+
+  @Override
+  public void postInsert(BeanPersistRequest<?> request) {
+    Image image = (Image) request.getBean();
+    request.getTransaction().register(new TransactionCallbackAdapter() {
+      @Override
+      public void postCommit() {
+        AssignmentDispatcher.getInstance().offer(image);
+      }
+    });
+  }
+}
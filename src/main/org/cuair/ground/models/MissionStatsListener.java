@@ -0,0 +1,74 @@
+package org.cuair.ground.models;
+
+import io.ebean.TransactionCallbackAdapter;
+import io.ebean.ValuePair;
+import io.ebean.event.BeanPersistAdapter;
+import io.ebean.event.BeanPersistRequest;
+import org.cuair.ground.daos.MissionStats;
+import org.cuair.ground.models.plane.target.Target;
+import org.cuair.ground.models.plane.target.TargetSighting;
+
+/**
+ * Updates the {@link MissionStats} as images, assignments and target sightings are saved. Changes
+ * are counted once their transaction commits, so nothing that is rolled back is counted.
+ */
+public class MissionStatsListener extends BeanPersistAdapter {
+
+  @Override
+  public boolean isRegisterFor(Class<?> cls) {
+    return Image.class.equals(cls) || Assignment.class.equals(cls)
+        || TargetSighting.class.isAssignableFrom(cls);
+  }
+
+  @Override
+  public void postInsert(BeanPersistRequest<?> request) {
+    Object bean = request.getBean();
+    if (bean instanceof Image) {
+      afterCommit(request, () -> MissionStats.getInstance().imageIngested());
+    } else if (bean instanceof Assignment) {
+      ODLCUser assignee = ((Assignment) bean).getAssignee();
+      afterCommit(request, () -> MissionStats.getInstance().assigned(assignee));
+    } else {
+      TargetSighting ts = (TargetSighting) bean;
+      afterCommit(request, () -> MissionStats.getInstance().sightingCreated(ts));
+    }
+  }
+
+  @Override
+  public void postUpdate(BeanPersistRequest<?> request) {
+    Object bean = request.getBean();
+    if (bean instanceof Assignment) {
+      ValuePair done = request.getUpdatedValues().get("done");
+      if (done != null && Boolean.TRUE.equals(done.getNewValue())
+          && !Boolean.TRUE.equals(done.getOldValue())) {
+        long assigneeId = ((Assignment) bean).getAssignee().getId();
+        afterCommit(request, () -> MissionStats.getInstance().done(assigneeId));
+      }
+    } else if (bean instanceof TargetSighting) {
+      ValuePair target = request.getUpdatedValues().get("target");
+      if (target != null && !sameTarget(target.getOldValue(), target.getNewValue())) {
+        TargetSighting ts = (TargetSighting) bean;
+        Target from = (Target) target.getOldValue();
+        Target to = (Target) target.getNewValue();
+        afterCommit(request, () -> MissionStats.getInstance().sightingRetargeted(ts, from, to));
+      }
+    }
+  }
+
+  private static boolean sameTarget(Object from, Object to) {
+    if (from == null || to == null) {
+      return from == to;
+    }
+    Long fromId = ((Target) from).getId();
+    return fromId != null && fromId.equals(((Target) to).getId());
+  }
+
+  private static void afterCommit(BeanPersistRequest<?> request, Runnable count) {
+    request.getTransaction().register(new TransactionCallbackAdapter() {
+      @Override
+      public void postCommit() {
+        count.run();
+      }
+    });
+  }
+}
@@ -1,8 +1,10 @@
 package org.cuair.ground.models;
 
+import java.awt.Dimension;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
+import org.cuair.ground.imaging.ImageDerivatives;
 import org.cuair.ground.models.geotag.FOV;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
@@ -107,6 +109,26 @@ public class ROI extends ClientCreatable {
     return this.pixely;
   }
 
+  /**
+   * Converts the pixel location of this ROI from a derivative of its image, which is what the
+   * tagger clicked on, to the original image, which is what is stored
+   *
+   * @param size the size of the image the ROI was tagged on
+   * @param image the image the ROI was tagged on
+   */
+  public void scaleToOriginal(ImageDerivatives.Size size, Image image) {
+    if (size == ImageDerivatives.Size.ORIGINAL) {
+      return;
+    }
+    Dimension original = ImageDerivatives.originalSize(image);
+    if (pixelx != null) {
+      pixelx = (int) Math.round(size.toOriginalX(pixelx, original));
+    }
+    if (pixely != null) {
+      pixely = (int) Math.round(size.toOriginalY(pixely, original));
+    }
+  }
+
   /**
    * Returns the assignment for this ROI
    *
@@ -1,16 +1,16 @@
 package org.cuair.ground.models.plane.target;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.Dimension;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Objects;
-import java.io.File;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CompletionException;
 import javax.persistence.CascadeType;
 import javax.persistence.ManyToOne;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.OneToOne;
+import org.cuair.ground.imaging.ImageDerivatives;
+import org.cuair.ground.imaging.SightingThumbnails;
 import org.cuair.ground.models.Assignment;
 import org.cuair.ground.models.ClientCreatable;
 import org.cuair.ground.models.Confidence;
@@ -18,9 +18,6 @@ import org.cuair.ground.models.Image;
 import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.geotag.Geotag;
 import org.cuair.ground.models.plane.target.Target;
-import org.cuair.ground.util.Flags;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Model to represent a target sighting. The target sighting is the sighting of
@@ -149,38 +146,59 @@ public abstract class TargetSighting extends ClientCreatable {
     }
   }
 
+  /**
+   * Converts the pixel location and size of this target sighting from a derivative of its image,
+   * which is what the tagger clicked on, to the original image, which is what is stored
+   *
+   * @param size the size of the image the target sighting was tagged on
+   * @param image the image the target sighting was tagged on
+   */
+  public void scaleToOriginal(ImageDerivatives.Size size, Image image) {
+    if (size == ImageDerivatives.Size.ORIGINAL) {
+      return;
+    }
+    Dimension original = ImageDerivatives.originalSize(image);
+    if (pixelx != null) {
+      pixelx = (int) Math.round(size.toOriginalX(pixelx, original));
+    }
+    if (pixely != null) {
+      pixely = (int) Math.round(size.toOriginalY(pixely, original));
+    }
+    if (width != null) {
+      width = (int) Math.round(size.toOriginalX(width, original));
+    }
+    if (height != null) {
+      height = (int) Math.round(size.toOriginalY(height, original));
+    }
+  }
+
+  /** Drops the pixel location and size of this target sighting, e.g. of an update to it */
+  public void clearPixelBox() {
+    pixelx = null;
+    pixely = null;
+    width = null;
+    height = null;
+  }
+
   /** Sets this target to be null */
   public abstract void makeAssociatedTargetNull();
 
   /**
    * Returns the raw content of the thumbnail corresponding to this target
    * sighting, for
-   * submission to interop.
+   * submission to interop. Only the pixel box of the sighting is decoded, and the
+   * thumbnail is cached until the box changes (see SightingThumbnails).
    */
   public byte[] thumbnailImage() throws IOException {
-    Logger logger = LoggerFactory.getLogger(TargetSighting.class);
-    Image image = this.getAssignment().getImage();
-    assert image != null;
-    String imgPathLocal = image.getLocalImageUrl();
-    logger.info(imgPathLocal);
-    // InputStream in = getClass().getResourceAsStream(imgPathLocal);
-    // assert in != null;
-    BufferedImage initialImage = ImageIO.read(new File(imgPathLocal));
-
-    // Produce cropped thumbnail - need to scale up as values are from compressed
-    // frontend image
-    double scaleUpW = Flags.RAW_IMAGE_WIDTH / Flags.FRONTEND_IMAGE_WIDTH;
-    double scaleUpH = Flags.RAW_IMAGE_HEIGHT / Flags.FRONTEND_IMAGE_HEIGHT;
-    BufferedImage croppedThumb = initialImage.getSubimage(
-        (int) (scaleUpW * (pixelx - width / 2)),
-        (int) (scaleUpH * (pixely - height / 2)),
-        (int) (scaleUpW * width),
-        (int) (scaleUpH * height));
-
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ImageIO.write(croppedThumb, "jpg", baos);
-
-    return baos.toByteArray();
+    assert this.getAssignment().getImage() != null;
+    try {
+      return SightingThumbnails.getInstance().get(this).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw e;
+    }
   }
 
   /**
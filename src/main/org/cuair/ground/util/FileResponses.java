@@ -0,0 +1,187 @@
+package org.cuair.ground.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Builds responses that serve files from disk without reading them onto the heap, with support for
+ * Range requests and conditional GETs.
+ *
+ * <p>Every response carries a strong ETag built from the file's size and modification time, and a
+ * Last-Modified header, so If-None-Match and If-Modified-Since requests are answered with a 304.
+ * Files that are never rewritten once they have been written, such as images named by their
+ * capture timestamp, should be served with {@link #IMMUTABLE} so browsers don't ask at all.
+ *
+ * <p>When the servlet container supports sendfile (Tomcat's NIO connector does), GETs for the
+ * whole file or a single range are handed to the container, which copies the file straight from
+ * the page cache to the socket. Everything else, including multi-range requests, gets a {@link
+ * Resource} body, which Spring streams in small chunks and slices into 206 responses itself.
+ */
+public class FileResponses {
+
+  /** How long browsers may keep files that never change, in days */
+  private static final long IMMUTABLE_MAX_AGE_DAYS = 365;
+
+  /** Cache-Control header value for files that never change once written */
+  public static final String IMMUTABLE =
+      CacheControl.maxAge(IMMUTABLE_MAX_AGE_DAYS, TimeUnit.DAYS).cachePublic().getHeaderValue()
+          + ", immutable";
+
+  /** Request attributes used by Tomcat to serve a file with sendfile */
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  /**
+   * Resolves a file name from a request against the directory it must be in.
+   *
+   * @param dir the directory files are served from
+   * @param name the requested file name
+   * @return the file, or null if the name points outside of {@code dir}
+   */
+  public static Path resolve(Path dir, String name) {
+    Path base = dir.toAbsolutePath().normalize();
+    Path file = base.resolve(name).normalize();
+    return file.startsWith(base) && !file.equals(base) ? file : null;
+  }
+
+  /**
+   * Gets the ETag a file is served with, e.g. for clients to check their cached copy against
+   *
+   * @param file the file
+   * @return the quoted ETag
+   * @throws IOException if the size of the file cannot be read
+   */
+  public static String etag(Path file) throws IOException {
+    return etag(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+  }
+
+  /**
+   * Gets the ETag of content rendered in memory, which changes whenever the content does
+   *
+   * @param body the content
+   * @return the quoted ETag
+   */
+  public static String etag(byte[] body) {
+    return "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+  }
+
+  /**
+   * Constructs an HTTP response with content rendered in memory, such as a sprite sheet. The ETag
+   * is built from the content, so conditional requests for content that hasn't changed get a 304.
+   *
+   * @param body the content
+   * @param contentType the type of the content
+   * @param headers extra headers for the response, e.g. caching headers
+   * @param request the request being served
+   * @return the response for the content
+   */
+  public static ResponseEntity<byte[]> serve(byte[] body, MediaType contentType,
+      HttpHeaders headers, HttpServletRequest request) {
+    String etag = etag(body);
+    headers.setETag(etag);
+    if (new ServletWebRequest(request).checkNotModified(etag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+    }
+    headers.setContentType(contentType);
+    return ResponseEntity.ok().headers(headers).body(body);
+  }
+
+  /**
+   * Constructs an HTTP response with the contents of a file. Conditional requests for a file that
+   * hasn't changed get a 304, and Range requests get a 206 with the requested part of the file, or
+   * a 416 if the range is outside of it.
+   *
+   * @param file the file to serve, which must exist
+   * @param headers extra headers for the response, e.g. caching headers
+   * @param request the request being served
+   * @return the response for the file
+   * @throws IOException if the size of the file cannot be read
+   */
+  public static ResponseEntity<Resource> serve(Path file, HttpHeaders headers,
+      HttpServletRequest request) throws IOException {
+    long length = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    String etag = etag(length, lastModified);
+    headers.setETag(etag);
+    headers.setLastModified(lastModified);
+    // checked before sendfile is set up, so the container never sends a body with a 304
+    if (new ServletWebRequest(request).checkNotModified(etag, lastModified)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+    }
+
+    MediaType contentType = MediaTypeFactory.getMediaType(file.getFileName().toString())
+        .orElse(MediaType.APPLICATION_OCTET_STREAM);
+    headers.setContentType(contentType);
+    headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+    List<HttpRange> ranges = Collections.emptyList();
+    String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+    if (rangeHeader != null) {
+      try {
+        ranges = HttpRange.parseRanges(rangeHeader);
+      } catch (IllegalArgumentException e) {
+        return rangeNotSatisfiable(headers, length);
+      }
+      for (HttpRange range : ranges) {
+        if (length == 0 || range.getRangeStart(length) >= length) {
+          return rangeNotSatisfiable(headers, length);
+        }
+      }
+    }
+
+    if (!HttpMethod.GET.matches(request.getMethod())
+        || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+        || ranges.size() > 1) {
+      // Spring streams the resource, slicing it into single or multipart/byteranges 206s
+      return ResponseEntity.ok().headers(headers).body(new FileSystemResource(file));
+    }
+
+    long start = 0;
+    long end = length;
+    HttpStatus status = HttpStatus.OK;
+    if (ranges.size() == 1) {
+      HttpRange range = ranges.get(0);
+      start = range.getRangeStart(length);
+      end = range.getRangeEnd(length) + 1;
+      status = HttpStatus.PARTIAL_CONTENT;
+      headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+    }
+
+    // the container writes the file once the headers have been sent
+    request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+    request.setAttribute(SENDFILE_START, start);
+    request.setAttribute(SENDFILE_END, end);
+    headers.setContentLength(end - start);
+    return ResponseEntity.status(status).headers(headers).build();
+  }
+
+  private static String etag(long length, long lastModified) {
+    return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+  }
+
+  private static ResponseEntity<Resource> rangeNotSatisfiable(HttpHeaders headers, long length) {
+    headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+    headers.remove(HttpHeaders.CONTENT_TYPE);
+    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers)
+        .build();
+  }
+}
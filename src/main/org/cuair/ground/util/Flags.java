@@ -8,6 +8,100 @@ public class Flags {
   /** Image Directory */
   public static String PLANE_IMAGE_DIR = "images/";
 
+  /** Image ingest */
+  // accept plane uploads once staged and process them in the background (overridable per request)
+  public static boolean ASYNC_IMAGE_INGEST = false;
+  // uploads are read straight off the request body, which may be at most this large
+  public static long MAX_IMAGE_UPLOAD_BYTES = 100L * 1024 * 1024;
+  public static String INGEST_STAGING_DIR = PLANE_IMAGE_DIR + "staging/";
+  public static int INGEST_STAGE_THREADS = 2;
+  public static int INGEST_STAGE_QUEUE_CAPACITY = 64;
+  // failed uploads are reported to the plane for this long before they are forgotten
+  public static long INGEST_FAILED_STATUS_MILLIS = 10 * 60 * 1000;
+  // images are scored for sharpness and exposure on a copy decoded at least this many pixels wide
+  public static int QUALITY_ANALYSIS_WIDTH = 1024;
+  public static int INGEST_QUALITY_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** Image listing */
+  // images returned by one page of the images after an id, unless a smaller limit is asked for
+  public static int IMAGE_PAGE_SIZE = 100;
+  public static int IMAGE_MAX_PAGE_SIZE = 1000;
+
+  /** Image derivatives */
+  // widths of the smaller copies taggers browse instead of the original, in pixels
+  public static int PREVIEW_IMAGE_WIDTH = 480;
+  public static int SCREEN_IMAGE_WIDTH = 1900;
+  public static float DERIVATIVE_JPEG_QUALITY = 0.85f;
+  public static int DERIVATIVE_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** Image tiles */
+  // deep zoom tiles are 256 pixels square unless a client asks for 512
+  public static int TILE_SIZE = 256;
+  public static float TILE_JPEG_QUALITY = 0.85f;
+  public static int TILE_RENDER_THREADS = Runtime.getRuntime().availableProcessors();
+  // rendered tiles are kept in memory and spilled to disk once the memory budget is used up
+  public static String TILE_CACHE_DIR = PLANE_IMAGE_DIR + "tiles/";
+  public static long TILE_CACHE_MEMORY_BYTES = 64L * 1024 * 1024;
+  public static long TILE_CACHE_DISK_BYTES = 1024L * 1024 * 1024;
+
+  /** Image prefetching */
+  // how many of the images next in line for each tagger to warm and send hints for
+  public static int PREFETCH_IMAGES = 3;
+  public static int PREFETCH_MAX_IMAGES = 30;
+  public static boolean PREFETCH_ORIGINALS = true;
+  public static int PREFETCH_THREADS = 2;
+  // the number of bytes of images to keep warm in the page cache
+  public static long PREFETCH_CACHE_BYTES = 2L * 1024 * 1024 * 1024;
+
+  /** Target sighting thumbnails */
+  public static int THUMBNAIL_CACHE_SIZE = 512;
+  public static int THUMBNAIL_THREADS = 2;
+  public static float THUMBNAIL_JPEG_QUALITY = 0.9f;
+  // thumbnails in sprite sheets are scaled down to fit in a square of this size
+  public static int SPRITE_THUMBNAIL_SIZE = 256;
+  public static int SPRITE_SHEET_WIDTH = 2048;
+  public static int SPRITE_MAX_SIGHTINGS = 500;
+
+  /** Assignments */
+  // claim images in the database with FOR UPDATE SKIP LOCKED, for several backends sharing one db
+  public static boolean CLAIM_WITH_SKIP_LOCKED = false;
+  // assignments whose client stops renewing them for this long are handed to someone else
+  public static long ASSIGNMENT_LEASE_MILLIS = 5 * 60 * 1000;
+  public static long ASSIGNMENT_SWEEP_INTERVAL_MILLIS = 30 * 1000;
+  // weights the scheduler ranks waiting images by, where higher ranked images are handed out first
+  public static double SCHEDULER_TRACKING_WEIGHT = 100;
+  public static double SCHEDULER_ADLC_FOUND_WEIGHT = 50;
+  public static double SCHEDULER_TARGET_OVERLAP_WEIGHT = 20;
+  public static double SCHEDULER_RECENCY_WEIGHT_PER_MINUTE = 1;
+  public static long SCHEDULER_TARGET_REFRESH_MILLIS = 10 * 1000;
+  // images this much inside the footprints of images taggers finished are handed to taggers last,
+  // or not at all if SKIP_COVERED_IMAGES is set
+  public static double COVERAGE_THRESHOLD = 0.9;
+  public static double SCHEDULER_COVERED_WEIGHT = 1000;
+  public static boolean SKIP_COVERED_IMAGES = false;
+  // cells of the index of finished footprints, in degrees, and the points per side coverage is
+  // sampled at
+  public static double COVERAGE_CELL_DEGREES = 0.0005;
+  public static int COVERAGE_SAMPLES = 8;
+  // images scored below either of these at ingest are handed to taggers after the others. The
+  // sharpness scale depends on the camera and QUALITY_ANALYSIS_WIDTH, so tune it on real frames
+  public static double QUALITY_MIN_SHARPNESS = 10;
+  public static double QUALITY_MIN_EXPOSURE = 0.5;
+  public static double SCHEDULER_LOW_QUALITY_WEIGHT = 1000;
+  // clients waiting for work are answered with 204 after this long, unless they ask for less
+  public static long WORK_WAIT_TIMEOUT_MILLIS = 30 * 1000;
+  public static long WORK_WAIT_MAX_TIMEOUT_MILLIS = 2 * 60 * 1000;
+  public static int WORK_WAITER_THREADS = 2;
+  // batches of work are handed back out unless the client acknowledges them within this long
+  public static long BATCH_ACK_MILLIS = 60 * 1000;
+  public static int BATCH_MAX_SIZE = 100;
+
+  /** Database */
+  // statements the createAll, updateAll and deleteAll of the daos send to the database at once
+  public static int DATABASE_BATCH_SIZE = 100;
+  // run each request in one transaction, which also makes repeated fetches by id free
+  public static boolean REQUEST_UNIT_OF_WORK = true;
+
   /** Test image directory */
   public static String TEST_IMAGE_DIR = "src/test/java/org/cuair/ground/controllers/test_images/";
 
@@ -16,8 +110,6 @@ public class Flags {
   public static double CAM_SENSOR_HEIGHT = 15.4; // in mm
   public static double RAW_IMAGE_WIDTH = 5456;
   public static double RAW_IMAGE_HEIGHT = 3632;
-  public static double FRONTEND_IMAGE_WIDTH = RAW_IMAGE_WIDTH; // 1900
-  public static double FRONTEND_IMAGE_HEIGHT = RAW_IMAGE_HEIGHT; // 1263
 
   public static String DEFAULT_EMERGENT_TARGET_DESC = "A lost hiker with a water bottle.";
 
@@ -7,14 +7,18 @@ import org.cuair.ground.models.geotag.FOV;
 import org.cuair.ground.models.geotag.Geotag;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Radian;
+import org.cuair.ground.models.geotag.Telemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class Geotagging {
   private static final Logger logger = LoggerFactory.getLogger(GpsLocation.class);
-  /** Width of height and image in pixels */
-  public static double IMAGE_WIDTH = Flags.FRONTEND_IMAGE_WIDTH;
-  public static double IMAGE_HEIGHT = Flags.FRONTEND_IMAGE_HEIGHT;
+  /**
+   * Width of height and image in pixels. Pixel coordinates are always in the space of the original
+   * image, whichever derivative was tagged on (see ImageDerivatives.Size).
+   */
+  public static double IMAGE_WIDTH = Flags.RAW_IMAGE_WIDTH;
+  public static double IMAGE_HEIGHT = Flags.RAW_IMAGE_HEIGHT;
   public static double SENSOR_WIDTH = Flags.CAM_SENSOR_WIDTH;
   public static double SENSOR_HEIGHT = Flags.CAM_SENSOR_HEIGHT;
   /** An approximation of the radius of the Earth in meters */
@@ -58,10 +62,10 @@ public class Geotagging {
    * @param longitude       The longitude of the plane in degrees
    * @param altitude        The altitude of the plane in meters
    * @param fov             The (horizontal, vertical) fov of the camera
-   * @param pixelx          The x-coordinate of the pixel center of the tag on the
-   *                        frontend with respect to the image
-   * @param pixely          The y-coordinate of the pixel center of the tag on the
-   *                        frontend with respect to the image
+   * @param pixelx          The x-coordinate of the pixel center of the tag with
+   *                        respect to the original image
+   * @param pixely          The y-coordinate of the pixel center of the tag with
+   *                        respect to the original image
    * @param planeYawRadians The yaw of the plane in radians
    */
   public static GpsLocation getPixelCoordinates(
@@ -108,6 +112,35 @@ public class Geotagging {
     return gps;
   }
 
+  /**
+   * Calculates the corners of the area on the ground an image covers
+   *
+   * @param telemetry The telemetry of the plane when the image was taken
+   * @param fov       The (horizontal, vertical) fov of the camera
+   * @return the gps locations of the top left, top right, bottom right and bottom left corners of
+   *         the image, or null if any of them can't be calculated
+   */
+  public static GpsLocation[] getFootprint(Telemetry telemetry, FOV fov) {
+    double[][] corners = {{0, 0}, {IMAGE_WIDTH, 0}, {IMAGE_WIDTH, IMAGE_HEIGHT}, {0, IMAGE_HEIGHT}};
+    GpsLocation[] footprint = new GpsLocation[corners.length];
+    for (int i = 0; i < corners.length; i++) {
+      footprint[i] = getPixelCoordinates(
+          telemetry.getGps().getLatitude(),
+          telemetry.getGps().getLongitude(),
+          telemetry.getAltitude(),
+          fov,
+          corners[i][0],
+          corners[i][1],
+          Math.toRadians(telemetry.getGimOrt().getRoll()),
+          Math.toRadians(telemetry.getGimOrt().getPitch()),
+          Math.toRadians(telemetry.getPlaneYaw()));
+      if (footprint[i] == null) {
+        return null;
+      }
+    }
+    return footprint;
+  }
+
   /**
    * Calculate the orientation of this geotag as radians from north
    *
@@ -0,0 +1,31 @@
+-- Indexes for the columns that the hot paths filter and sort on. The tables are created from the
+-- models on startup, without any of these. IF NOT EXISTS skips the foreign key indexes that
+-- Ebean's DDL already creates in the test database, where they have the same names. Users are
+-- looked up by username through the index of its unique constraint, so it needs none here.
+
+-- images that still need an MDLC or ADLC assignment, which are claimed in id order
+CREATE INDEX IF NOT EXISTS ix_image_unassigned_mdlc ON image (id)
+  WHERE has_mdlc_assignment = false;
+CREATE INDEX IF NOT EXISTS ix_image_unassigned_adlc ON image (id)
+  WHERE has_adlc_assignment = false;
+
+-- the latest image, and images looked up by their timestamp
+CREATE INDEX IF NOT EXISTS ix_image_timestamp ON image (timestamp);
+
+-- the assignments of a user, and of an image
+CREATE INDEX IF NOT EXISTS ix_assignment_assignee_id ON assignment (assignee_id);
+CREATE INDEX IF NOT EXISTS ix_assignment_image_id ON assignment (image_id);
+
+-- the sightings of a target, and those tagged in an assignment
+CREATE INDEX IF NOT EXISTS ix_alphanum_target_sighting_target_id
+  ON alphanum_target_sighting (target_id);
+CREATE INDEX IF NOT EXISTS ix_alphanum_target_sighting_assignment_id
+  ON alphanum_target_sighting (assignment_id);
+CREATE INDEX IF NOT EXISTS ix_emergent_target_sighting_target_id
+  ON emergent_target_sighting (target_id);
+CREATE INDEX IF NOT EXISTS ix_emergent_target_sighting_assignment_id
+  ON emergent_target_sighting (assignment_id);
+
+-- the latest settings that the plane didn't reject
+CREATE INDEX IF NOT EXISTS ix_camera_gimbal_settings_timestamp_status
+  ON camera_gimbal_settings (timestamp, status);
@@ -0,0 +1,4 @@
+-- The lease sweep, and the lease stats, look for unfinished assignments by when their lease runs
+-- out. Done assignments, which soon make up most of the table, are left out of the index.
+CREATE INDEX IF NOT EXISTS ix_assignment_lease_expires_pending ON assignment (lease_expires)
+  WHERE done = false;
@@ -0,0 +1,4 @@
+-- Assignments handed out before leases existed have no lease, which now means the sweeper took
+-- them back. Give the unfinished ones a fresh lease, so their taggers can still finish them.
+UPDATE assignment SET lease_expires = now() + interval '5 minutes'
+  WHERE done = false AND lease_expires IS NULL;
@@ -6,9 +6,12 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.powermock.reflect.Whitebox.setInternalState;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import io.ebean.DB;
@@ -17,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.AssignmentDispatcher;
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.ImageDatabaseAccessor;
 import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
@@ -29,6 +33,7 @@ import org.cuair.ground.models.geotag.GimbalOrientation;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
 import org.cuair.ground.util.Flags;
+import org.cuair.ground.util.QueryBudget;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -476,6 +481,7 @@ public class AssignmentControllerTest {
   @Test
   public void testUpdate() throws Exception {
     // instantiate models
+    assignment1.setLeaseExpires(new Timestamp(new Date().getTime() + 60000));
     assignmentDao.create(assignment1);
 
     assignment1.setDone(true);
@@ -501,4 +507,143 @@ public class AssignmentControllerTest {
     assertEquals(assignment1.getImage(), returned.getImage());
     assertTrue(returned.getDone());
   }
+
+  /** Tests that an assignment whose lease was reclaimed can't be marked done */
+  @Test
+  public void testUpdateExpired() throws Exception {
+    assignmentDao.create(assignment1);
+
+    mvc.perform(MockMvcRequestBuilders.put("/assignment/" + assignment1.getId())
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(new ObjectMapper().writeValueAsString(assignment1))
+        .characterEncoding("utf-8"))
+        .andExpect(status().is(410));
+    assertFalse(assignmentDao.get(assignment1.getId()).getDone());
+  }
+
+  /** Tests that a leased assignment can be renewed, and that done or expired ones can't */
+  @Test
+  public void testHeartbeat() throws Exception {
+    assignment1.setLeaseExpires(new Timestamp(new Date().getTime()));
+    assignmentDao.create(assignment1);
+    assignment2.setDone(true);
+    assignmentDao.create(assignment2);
+    Assignment expired = new Assignment(image2, user1);
+    expired.setTimestamp(new Timestamp(new Date().getTime()));
+    assignmentDao.create(expired);
+
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/" + assignment1.getId() + "/heartbeat"))
+        .andExpect(status().isOk());
+    assertTrue(assignmentDao.get(assignment1.getId()).getLeaseExpires()
+        .after(assignment1.getLeaseExpires()));
+
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/" + assignment2.getId() + "/heartbeat"))
+        .andExpect(status().is(400));
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/" + expired.getId() + "/heartbeat"))
+        .andExpect(status().is(410));
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/100/heartbeat"))
+        .andExpect(status().is(404));
+  }
+
+  /** Tests that waiting for work answers once there is work, or with 204 after the timeout */
+  @Test
+  public void testWaitForWork() throws Exception {
+    setUsersEnabled(false);
+    DB.createSqlUpdate("TRUNCATE image RESTART IDENTITY CASCADE").execute();
+    AssignmentDispatcher.getInstance().clear();
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders.post("/assignment/work/wait")
+        .param("timeout", "100"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mvc.perform(asyncDispatch(result)).andExpect(status().isNoContent());
+
+    result = mvc.perform(MockMvcRequestBuilders.post("/assignment/work/wait")
+        .param("timeout", "5000"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    Image image = new Image("3.jpg", null, ImgMode.FIXED, false, false, 0.0);
+    imageDao.create(image);
+    AssignmentDispatcher.getInstance().offer(image);
+    mvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+    assertTrue(imageDao.get(image.getId()).getHasMdlcAssignment());
+
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/work/wait").param("timeout", "0"))
+        .andExpect(status().isBadRequest());
+  }
+
+  /** Tests that ADLC can claim several images at once and acknowledge them */
+  @Test
+  public void testWorkBatch() throws Exception {
+    setUsersEnabled(false);
+    odlcUserDao.create(new ODLCUser("interop", "localhost", ODLCUser.UserType.ADLC));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders.post("/assignment/batch")
+        .param("size", "5"))
+        .andExpect(status().isOk())
+        .andReturn();
+    JsonNode body = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    assertEquals(2, body.get("assignments").size());
+    List<Long> ids = new ArrayList<>();
+    for (JsonNode assignment : body.get("assignments")) {
+      ids.add(assignment.get("id").asLong());
+    }
+    assertTrue(imageDao.get(image1.getId()).getHasAdlcAssignment());
+    assertTrue(imageDao.get(image2.getId()).getHasAdlcAssignment());
+
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/batch").param("size", "5"))
+        .andExpect(status().isNoContent());
+
+    // another user's assignment isn't renewed by this user's acknowledgement
+    Timestamp otherExpiry = new Timestamp(new Date().getTime() + 60000);
+    assignment1.setLeaseExpires(otherExpiry);
+    assignmentDao.create(assignment1);
+
+    List<Long> acknowledge = new ArrayList<>(ids);
+    acknowledge.add(100L);
+    acknowledge.add(assignment1.getId());
+    result = mvc.perform(MockMvcRequestBuilders.post("/assignment/batch/ack")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(new ObjectMapper().writeValueAsString(acknowledge)))
+        .andExpect(status().isOk())
+        .andReturn();
+    body = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    assertEquals(2, body.get("acknowledged").size());
+    assertEquals(otherExpiry, assignmentDao.get(assignment1.getId()).getLeaseExpires());
+
+    mvc.perform(MockMvcRequestBuilders.post("/assignment/batch").param("size", "0"))
+        .andExpect(status().isBadRequest());
+  }
+
+  /**
+   * Tests that listing the assignments of a user loads their images, telemetry, fields of view and
+   * assignees in a number of queries that doesn't grow with the number of assignments
+   */
+  @Test
+  public void testGetAllForUserQueryBudget() throws Exception {
+    int count = 10;
+    for (int i = 0; i < count; i++) {
+      Telemetry telemetry = new Telemetry(new GpsLocation(42.4475428, -76.6122977), 100.0, 0.0,
+          new GimbalOrientation(0.0, 0.0));
+      Image image = new Image("/image/" + i, telemetry, ImgMode.FIXED, false, false, 0.0);
+      image.setTimestamp(new Timestamp(1000L + i));
+      imageDao.create(image);
+      Assignment assignment = new Assignment(image, user1);
+      assignment.setTimestamp(new Timestamp(new Date().getTime()));
+      assignmentDao.create(assignment);
+    }
+
+    // the user, then the assignments joined to everything they serialize
+    MvcResult result = QueryBudget.assertWithin(2, () -> mvc.perform(MockMvcRequestBuilders
+        .get("/assignment")
+        .header("Username", user1.getUsername())
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn());
+
+    JsonNode body = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    assertEquals(count, body.size());
+    assertEquals(user1.getUsername(), body.get(0).get("assignee").get("username").asText());
+    assertNotNull(body.get(0).get("image").get("telemetry"));
+  }
 }
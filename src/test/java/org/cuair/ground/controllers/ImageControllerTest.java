@@ -1,23 +1,29 @@
 package org.cuair.ground.controllers;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import io.ebean.Ebean;
+import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import javax.imageio.ImageIO;
 import org.apache.commons.io.FileUtils;
 import org.cuair.ground.daos.DAOFactory;
 import org.cuair.ground.daos.ImageDatabaseAccessor;
@@ -271,6 +277,203 @@ public class ImageControllerTest {
     assertEquals(expected, actual);
   }
 
+  /** Tests paging through the GET all after id call with a limit */
+  @Test
+  public void testGetAllAfterIdLimit() throws Exception {
+    GpsLocation gpsLoc1 = new GpsLocation(42.4475428000000008, -76.6122976999999992);
+    Image i1 = new Image("/some/local/file/url",
+        new Telemetry(gpsLoc1, 221.555125199999992, 45.0, new GimbalOrientation(-30.0, 0.0)),
+        ImgMode.TRACKING, false, false, 0.0);
+    i1.setTimestamp(new Timestamp(1234L));
+    imageDao.create(i1);
+    Image i2 = new Image("/another/local/file/url",
+        new Telemetry(gpsLoc1, 221.555125199999992, 46.0, new GimbalOrientation(-30.0, 0.0)),
+        ImgMode.FIXED, false, false, 0.0);
+    i2.setTimestamp(new Timestamp(2345L));
+    imageDao.create(i2);
+
+    MockHttpServletResponse response = mvc.perform(MockMvcRequestBuilders.get("/image/all/0")
+        .param("limit", "1")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse();
+    List<Image> actual = new ObjectMapper().readValue(response.getContentAsString(),
+        TypeFactory.defaultInstance().constructCollectionType(List.class, Image.class));
+    assertEquals(Arrays.asList(i1), actual);
+    assertEquals(i1.getId().toString(), response.getHeader("X-Next-Cursor"));
+
+    response = mvc.perform(MockMvcRequestBuilders.get("/image/all/" + i1.getId())
+        .param("limit", "1")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse();
+    actual = new ObjectMapper().readValue(response.getContentAsString(),
+        TypeFactory.defaultInstance().constructCollectionType(List.class, Image.class));
+    assertEquals(Arrays.asList(i2), actual);
+    assertEquals(i2.getId().toString(), response.getHeader("X-Next-Cursor"));
+
+    // past the end the cursor stays put
+    response = mvc.perform(MockMvcRequestBuilders.get("/image/all/" + i2.getId())
+        .param("limit", "1")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().json("[]"))
+        .andReturn().getResponse();
+    assertEquals(i2.getId().toString(), response.getHeader("X-Next-Cursor"));
+  }
+
+  /** Tests that the GET all after id call returns one page of images when no limit is given */
+  @Test
+  public void testGetAllAfterIdDefaultPage() throws Exception {
+    GpsLocation gpsLoc1 = new GpsLocation(42.4475428000000008, -76.6122976999999992);
+    Image i1 = new Image("/some/local/file/url",
+        new Telemetry(gpsLoc1, 221.555125199999992, 45.0, new GimbalOrientation(-30.0, 0.0)),
+        ImgMode.TRACKING, false, false, 0.0);
+    i1.setTimestamp(new Timestamp(1234L));
+    imageDao.create(i1);
+    Image i2 = new Image("/another/local/file/url",
+        new Telemetry(gpsLoc1, 221.555125199999992, 46.0, new GimbalOrientation(-30.0, 0.0)),
+        ImgMode.FIXED, false, false, 0.0);
+    i2.setTimestamp(new Timestamp(2345L));
+    imageDao.create(i2);
+
+    int pageSize = Flags.IMAGE_PAGE_SIZE;
+    Flags.IMAGE_PAGE_SIZE = 1;
+    try {
+      MockHttpServletResponse response = mvc.perform(MockMvcRequestBuilders.get("/image/all/0")
+          .accept(MediaType.APPLICATION_JSON))
+          .andExpect(status().isOk())
+          .andReturn().getResponse();
+      List<Image> actual = new ObjectMapper().readValue(response.getContentAsString(),
+          TypeFactory.defaultInstance().constructCollectionType(List.class, Image.class));
+      assertEquals(Arrays.asList(i1), actual);
+      assertEquals(i1.getId().toString(), response.getHeader("X-Next-Cursor"));
+    } finally {
+      Flags.IMAGE_PAGE_SIZE = pageSize;
+    }
+  }
+
+  /** Tests the GET all after id call with a limit that isn't positive */
+  @Test
+  public void testGetAllAfterIdInvalidLimit() throws Exception {
+    mvc.perform(MockMvcRequestBuilders.get("/image/all/0")
+        .param("limit", "0")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+  }
+
+  /** Tests the GET file call */
+  @Test
+  public void testGetFile() throws Exception {
+    byte[] bytes = FileUtils.readFileToByteArray(new File(imageUrl));
+    FileUtils.writeByteArrayToFile(new File(PLANE_IMAGE_DIR + "1234.jpeg"), bytes);
+
+    MockHttpServletResponse response = mvc.perform(
+        MockMvcRequestBuilders.get("/image/file/1234.jpeg"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+        .andReturn().getResponse();
+    assertArrayEquals(bytes, response.getContentAsByteArray());
+    assertEquals("bytes", response.getHeader("Accept-Ranges"));
+  }
+
+  /** Tests the GET file call with a Range header */
+  @Test
+  public void testGetFileRange() throws Exception {
+    byte[] bytes = FileUtils.readFileToByteArray(new File(imageUrl));
+    FileUtils.writeByteArrayToFile(new File(PLANE_IMAGE_DIR + "1234.jpeg"), bytes);
+
+    MockHttpServletResponse response = mvc.perform(
+        MockMvcRequestBuilders.get("/image/file/1234.jpeg").header("Range", "bytes=100-199"))
+        .andExpect(status().isPartialContent())
+        .andReturn().getResponse();
+    assertArrayEquals(Arrays.copyOfRange(bytes, 100, 200), response.getContentAsByteArray());
+    assertEquals("bytes 100-199/" + bytes.length, response.getHeader("Content-Range"));
+
+    mvc.perform(MockMvcRequestBuilders.get("/image/file/1234.jpeg")
+        .header("Range", "bytes=" + bytes.length + "-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable());
+  }
+
+  /** Tests the GET file call for a smaller copy of the image */
+  @Test
+  public void testGetFileSize() throws Exception {
+    byte[] bytes = FileUtils.readFileToByteArray(new File(imageUrl));
+    FileUtils.writeByteArrayToFile(new File(PLANE_IMAGE_DIR + "1234.jpeg"), bytes);
+
+    MockHttpServletResponse response = mvc.perform(
+        MockMvcRequestBuilders.get("/image/file/1234.jpeg").param("size", "preview"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+        .andReturn().getResponse();
+    BufferedImage preview =
+        ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+    assertEquals(Flags.PREVIEW_IMAGE_WIDTH, preview.getWidth());
+    assertTrue(new File(PLANE_IMAGE_DIR + "preview/1234.jpeg").isFile());
+
+    mvc.perform(MockMvcRequestBuilders.get("/image/file/1234.jpeg").param("size", "huge"))
+        .andExpect(status().isBadRequest());
+  }
+
+  /** Tests the GET tile calls for an image */
+  @Test
+  public void testGetTile() throws Exception {
+    byte[] bytes = FileUtils.readFileToByteArray(new File(imageUrl));
+    FileUtils.writeByteArrayToFile(new File(PLANE_IMAGE_DIR + "1234.jpeg"), bytes);
+    Image image = new Image("/api/v1/image/file/1234.jpeg", expectedTelemetry, ImgMode.FIXED,
+        false, false, fov);
+    image.setLocalImageUrl(PLANE_IMAGE_DIR + "1234.jpeg");
+    imageDao.create(image);
+
+    mvc.perform(MockMvcRequestBuilders.get("/image/" + image.getId() + "/tiles"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.tileSize").value(256))
+        .andExpect(jsonPath("$.maxLevel").value(2));
+
+    MockHttpServletResponse response = mvc.perform(
+        MockMvcRequestBuilders.get("/image/" + image.getId() + "/tiles/2/1/0"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+        .andReturn().getResponse();
+    BufferedImage tile = ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+    assertEquals(256, tile.getWidth());
+    assertEquals(256, tile.getHeight());
+
+    mvc.perform(MockMvcRequestBuilders.get("/image/" + image.getId() + "/tiles/2/9/0"))
+        .andExpect(status().isNotFound());
+    mvc.perform(MockMvcRequestBuilders.get("/image/" + image.getId() + "/tiles/0/0/0")
+        .param("tileSize", "300"))
+        .andExpect(status().isBadRequest());
+    mvc.perform(MockMvcRequestBuilders.get("/image/" + (image.getId() + 1) + "/tiles/0/0/0"))
+        .andExpect(status().isNotFound());
+  }
+
+  /** Tests that image files may be cached forever and are revalidated with a 304 */
+  @Test
+  public void testGetFileCaching() throws Exception {
+    FileUtils.copyFile(new File(imageUrl), new File(PLANE_IMAGE_DIR + "1234.jpeg"));
+
+    MockHttpServletResponse response = mvc.perform(
+        MockMvcRequestBuilders.get("/image/file/1234.jpeg"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse();
+    assertTrue(response.getHeader("Cache-Control").contains("immutable"));
+    String etag = response.getHeader("ETag");
+
+    response = mvc.perform(MockMvcRequestBuilders.get("/image/file/1234.jpeg")
+        .header("If-None-Match", etag))
+        .andExpect(status().isNotModified())
+        .andReturn().getResponse();
+    assertEquals(0, response.getContentAsByteArray().length);
+  }
+
+  /** Tests the GET file call for a file that doesn't exist */
+  @Test
+  public void testGetFileDoesntExist() throws Exception {
+    mvc.perform(MockMvcRequestBuilders.get("/image/file/1234.jpeg"))
+        .andExpect(status().isNotFound());
+  }
+
   /** Tests the GET by id call */
   @Test
   public void testGet() throws Exception {
@@ -0,0 +1,99 @@
+package org.cuair.ground.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ebean.DB;
+import java.sql.Timestamp;
+import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.DAOFactory;
+import org.cuair.ground.daos.ImageDatabaseAccessor;
+import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.Image.ImgMode;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.ROI;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(controllers = ROIController.class)
+@AutoConfigureMockMvc
+public class ROIControllerTest {
+
+  @Autowired
+  private MockMvc mvc;
+
+  private final AssignmentDatabaseAccessor assignmentDao = (AssignmentDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.ASSIGNMENT_DATABASE_ACCESSOR);
+  private final ImageDatabaseAccessor imageDao = (ImageDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.IMAGE_DATABASE_ACCESSOR);
+  private final ODLCUserDatabaseAccessor userDao = (ODLCUserDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.ODLCUSER_DATABASE_ACCESSOR);
+
+  private ODLCUser user;
+
+  /** Before each test, create an ADLC user */
+  @Before
+  public void setup() {
+    user = new ODLCUser("testUser", "testAddr", ODLCUser.UserType.ADLC);
+    userDao.create(user);
+  }
+
+  /** After each test, clean the database */
+  @After
+  public void cleanDb() {
+    for (String table : new String[] {"roi", "assignment", "image", "odlcuser"}) {
+      DB.createSqlUpdate("TRUNCATE " + table + " RESTART IDENTITY CASCADE").execute();
+    }
+  }
+
+  /**
+   * Tests that listing ROIs loads their creators, assignments and images within the budget of the
+   * endpoint, which doesn't grow with the number of ROIs
+   */
+  @Test
+  public void testGetAllQueryBudget() throws Exception {
+    int count = 10;
+    for (int i = 0; i < count; i++) {
+      Telemetry telemetry = new Telemetry(new GpsLocation(42.4475428, -76.6122977), 100.0, 0.0,
+          new GimbalOrientation(0.0, 0.0));
+      Image image = new Image("/image/" + i, telemetry, ImgMode.FIXED, false, false, 0.0);
+      image.setTimestamp(new Timestamp(1000L + i));
+      imageDao.create(image);
+      Assignment assignment = new Assignment(image, user);
+      assignment.setTimestamp(new Timestamp(1000L + i));
+      assignmentDao.create(assignment);
+      DB.save(new ROI(user, 100, 200, assignment));
+    }
+
+    // held to its budget by the QueryBudgetFilter
+    MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/roi")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    JsonNode body = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    assertEquals(count, body.size());
+    for (JsonNode roi : body) {
+      assertNotNull(roi.get("assignment").get("image").get("telemetry"));
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package org.cuair.ground.controllers.target;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ebean.DB;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import org.cuair.ground.daos.AssignmentDatabaseAccessor;
+import org.cuair.ground.daos.DAOFactory;
+import org.cuair.ground.daos.DatabaseAccessor;
+import org.cuair.ground.daos.ImageDatabaseAccessor;
+import org.cuair.ground.daos.ODLCUserDatabaseAccessor;
+import org.cuair.ground.daos.TargetSightingsDatabaseAccessor;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.Color;
+import org.cuair.ground.models.Confidence;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.Image.ImgMode;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.Point;
+import org.cuair.ground.models.Shape;
+import org.cuair.ground.models.geotag.FOV;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.Geotag;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.models.plane.target.AlphanumTarget;
+import org.cuair.ground.models.plane.target.AlphanumTargetSighting;
+import org.cuair.ground.util.QueryBudget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(controllers = AlphanumTargetSightingController.class)
+@AutoConfigureMockMvc
+public class AlphanumTargetSightingControllerTest {
+
+  @Autowired
+  private MockMvc mvc;
+
+  private final TargetSightingsDatabaseAccessor<AlphanumTargetSighting> sightingDao =
+      (TargetSightingsDatabaseAccessor<AlphanumTargetSighting>) DAOFactory.getDAO(
+          DAOFactory.ModelDAOType.ALPHANUM_TARGET_SIGHTINGS_DATABASE_ACCESSOR,
+          AlphanumTargetSighting.class);
+  private final AssignmentDatabaseAccessor assignmentDao = (AssignmentDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.ASSIGNMENT_DATABASE_ACCESSOR);
+  private final ImageDatabaseAccessor imageDao = (ImageDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.IMAGE_DATABASE_ACCESSOR);
+  private final DatabaseAccessor<AlphanumTarget> targetDao = DAOFactory.getDAO(
+      DAOFactory.ModelDAOType.DATABASE_ACCESSOR, AlphanumTarget.class);
+  private final ODLCUserDatabaseAccessor userDao = (ODLCUserDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.ODLCUSER_DATABASE_ACCESSOR);
+
+  private ODLCUser user;
+
+  /** Before each test, create a tagger */
+  @Before
+  public void setup() {
+    user = new ODLCUser("testUser", "testAddr", ODLCUser.UserType.MDLCTAGGER);
+    userDao.create(user);
+  }
+
+  /** After each test, clean the database */
+  @After
+  public void cleanDb() {
+    String[] tables = {
+        "point", "alphanum_target_sighting", "alphanum_target", "geotag", "assignment", "image",
+        "odlcuser"};
+    for (String table : tables) {
+      DB.createSqlUpdate("TRUNCATE " + table + " RESTART IDENTITY CASCADE").execute();
+    }
+  }
+
+  /**
+   * Tests that creating a sighting of a target writes the target's new geotag, although the
+   * target in the request body was never loaded from the database
+   */
+  @Test
+  public void testCreateUpdatesTargetGeotag() throws Exception {
+    Telemetry telemetry = new Telemetry(new GpsLocation(42.4475428, -76.6122977), 100.0, 0.0,
+        new GimbalOrientation(0.0, 0.0));
+    Image image = new Image("/image/0", telemetry, new FOV(1.0, 0.7), ImgMode.FIXED);
+    image.setTimestamp(new Timestamp(1000L));
+    imageDao.create(image);
+    Assignment assignment = new Assignment(image, user);
+    assignment.setTimestamp(new Timestamp(1000L));
+    assignmentDao.create(assignment);
+    AlphanumTarget target = new AlphanumTarget(
+        user, Shape.CIRCLE, Color.BLACK, "a", Color.BLUE, null, null, null, null);
+    targetDao.create(target);
+
+    AlphanumTargetSighting sighting = new AlphanumTargetSighting(
+        user, Shape.CIRCLE, Color.BLACK, "a", Color.BLUE, false, 30, 50, 27, 27,
+        null, target, Math.PI / 4, null, 0.9, 0.9, 0.9, 0.9, 0.9,
+        Arrays.asList(new Point(0, 0), new Point(10, 0), new Point(10, 10)), Confidence.HIGH);
+    mvc.perform(MockMvcRequestBuilders.post("/alphanum_target_sighting/assignment/"
+        + assignment.getId())
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(new ObjectMapper().writeValueAsString(sighting)))
+        .andExpect(status().isOk());
+
+    AlphanumTarget stored = DB.find(AlphanumTarget.class, target.getId());
+    assertNotNull(stored.getGeotag());
+    assertNotNull(stored.getGeotag().getGpsLocation());
+  }
+
+  /**
+   * Tests that listing sightings loads their geotags, points, assignments and images in a number
+   * of queries that doesn't grow with the number of sightings
+   */
+  @Test
+  public void testGetAllQueryBudget() throws Exception {
+    int count = 10;
+    for (int i = 0; i < count; i++) {
+      Telemetry telemetry = new Telemetry(new GpsLocation(42.4475428, -76.6122977), 100.0, 0.0,
+          new GimbalOrientation(0.0, 0.0));
+      Image image = new Image("/image/" + i, telemetry, ImgMode.FIXED, false, false, 0.0);
+      image.setTimestamp(new Timestamp(1000L + i));
+      imageDao.create(image);
+      Assignment assignment = new Assignment(image, user);
+      assignment.setTimestamp(new Timestamp(1000L + i));
+      assignmentDao.create(assignment);
+      sightingDao.create(new AlphanumTargetSighting(
+          user, Shape.CIRCLE, Color.BLACK, "a", Color.BLUE, false, 30, 50, 27, 27,
+          new Geotag(new GpsLocation(42.4475428, -76.6122977), 0.0), null, Math.PI / 4,
+          assignment, 0.9, 0.9, 0.9, 0.9, 0.9,
+          Arrays.asList(new Point(0, 0), new Point(10, 0), new Point(10, 10)),
+          Confidence.HIGH));
+    }
+
+    // the sightings joined to their associations, then the points of all of them
+    MvcResult result = QueryBudget.assertWithin(2, () -> mvc.perform(MockMvcRequestBuilders
+        .get("/alphanum_target_sighting")
+        .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn());
+
+    JsonNode body = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    assertEquals(count, body.size());
+    for (JsonNode sighting : body) {
+      assertEquals(3, sighting.get("points").size());
+      assertNotNull(sighting.get("geotag").get("gpsLocation"));
+      assertNotNull(sighting.get("assignment").get("image").get("telemetry"));
+    }
+  }
+}
@@ -10,7 +10,13 @@ import io.ebean.DB;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.cuair.ground.models.Assignment;
 import org.cuair.ground.models.Image;
 import org.cuair.ground.models.Image.ImgMode;
@@ -18,6 +24,7 @@ import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.geotag.GimbalOrientation;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.util.Flags;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -343,6 +350,101 @@ public class AssignmentDatabaseAccessorTest {
     assertFalse(assignmentReturned.getDone());
   }
 
+  /**
+   * Tests that claiming with SKIP LOCKED hands every image to exactly one of many concurrent
+   * claimers, each on its own connection as separate backends would be
+   */
+  @Test
+  public void testSkipLockedConcurrentClaims() throws Exception {
+    int images = 200;
+    for (int n = 0; n < images; n++) {
+      Image image = new Image(n + ".jpg", null, ImgMode.FIXED, false, false, 0.0);
+      image.setTimestamp(new Timestamp(n));
+      imageDao.create(image);
+    }
+
+    boolean old = Flags.CLAIM_WITH_SKIP_LOCKED;
+    Flags.CLAIM_WITH_SKIP_LOCKED = true;
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<List<Long>>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(pool.submit(() -> {
+          start.await();
+          List<Long> claimed = new ArrayList<>();
+          Long id;
+          while ((id = AssignmentDispatcher.getInstance()
+              .claim(ODLCUser.UserType.MDLCTAGGER)) != null) {
+            claimed.add(id);
+          }
+          return claimed;
+        }));
+      }
+      start.countDown();
+
+      List<Long> all = new ArrayList<>();
+      for (Future<List<Long>> future : futures) {
+        all.addAll(future.get(30, TimeUnit.SECONDS));
+      }
+      assertEquals(images, all.size());
+      assertEquals(images, new HashSet<>(all).size());
+      assertEquals(0, DB.find(Image.class).where().eq("hasMdlcAssignment", false).findCount());
+      assertEquals(images, DB.find(Image.class).where().eq("hasAdlcAssignment", false).findCount());
+    } finally {
+      pool.shutdownNow();
+      Flags.CLAIM_WITH_SKIP_LOCKED = old;
+    }
+  }
+
+  /** Tests that the image of an assignment whose lease ran out is handed out again */
+  @Test
+  public void testExpiredLeaseReclaimed() throws Exception {
+    imageDao.create(image1);
+    AssignmentLeases leases = new AssignmentLeases(0);
+    long old = Flags.ASSIGNMENT_LEASE_MILLIS;
+    Flags.ASSIGNMENT_LEASE_MILLIS = -1000;
+    Assignment expired;
+    try {
+      expired = assignmentDao.getWork(user1);
+    } finally {
+      Flags.ASSIGNMENT_LEASE_MILLIS = old;
+    }
+    Assignment renewed = assignmentDao.getWork(
+        new ODLCUser("Obi-Wan 3.0", "localhost", ODLCUser.UserType.ADLC));
+
+    assertEquals(1, leases.sweep());
+    assertEquals(0, leases.sweep());
+    assertNull(leases.renew(expired.getId()));
+    assertTrue(leases.renew(renewed.getId()) != null);
+    assertFalse(imageDao.get(image1.getId()).getHasMdlcAssignment());
+    assertTrue(imageDao.get(image1.getId()).getHasAdlcAssignment());
+    assertEquals(1L, leases.getStats().get("reclaimed"));
+
+    Assignment again = assignmentDao.getWork(user2);
+    assertEquals(image1, again.getImage());
+    assertEquals(user2, again.getAssignee());
+    leases.shutDown();
+  }
+
+  /** Tests that the image of an assignment that couldn't be handed out is given back at once */
+  @Test
+  public void testReleasedAssignment() throws Exception {
+    imageDao.create(image1);
+    AssignmentLeases leases = new AssignmentLeases(0);
+    Assignment claimed = assignmentDao.getWork(user1);
+
+    assertTrue(leases.release(claimed));
+    assertFalse(leases.release(claimed));
+    assertNull(leases.renew(claimed.getId()));
+    assertFalse(imageDao.get(image1.getId()).getHasMdlcAssignment());
+
+    Assignment again = assignmentDao.getWork(user2);
+    assertEquals(image1, again.getImage());
+    assertEquals(user2, again.getAssignee());
+    leases.shutDown();
+  }
+
   /** Tests no MDLC assignments are gotten for the user */
   @Test
   public void testGetForUserNoMDLCAssignmentsOneUser() throws Exception {
@@ -0,0 +1,205 @@
+package org.cuair.ground.daos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.cuair.ground.models.CUAirModel;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AssignmentDispatcherTest {
+
+  private static final int IMAGES = 2000;
+  private static final int THREADS = 8;
+
+  /** The images marked as assigned, as "<id>:<adlc>", standing in for the database */
+  private Set<String> assigned;
+  private AssignmentDispatcher dispatcher;
+
+  /** Before each test, create a dispatcher that marks images in memory and ranks them equally */
+  @Before
+  public void setup() {
+    assigned = ConcurrentHashMap.newKeySet();
+    dispatcher = new AssignmentDispatcher((image, adlc, adlcFound) -> 0, 1) {
+      @Override
+      boolean markAssigned(long imageId, boolean adlc) {
+        return assigned.add(imageId + ":" + adlc);
+      }
+    };
+  }
+
+  /** Tests that images are handed out earliest first, separately for MDLC and ADLC */
+  @Test
+  public void testClaimOrder() throws Exception {
+    dispatcher.offer(image(2L, false, false));
+    dispatcher.offer(image(1L, true, false));
+    dispatcher.offer(image(3L, false, true));
+
+    assertEquals(Long.valueOf(2L), dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+    assertEquals(Long.valueOf(3L), dispatcher.claim(ODLCUser.UserType.MDLCOPERATOR));
+    assertNull(dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+
+    assertEquals(Long.valueOf(1L), dispatcher.claim(ODLCUser.UserType.ADLC));
+    assertEquals(Long.valueOf(2L), dispatcher.claim(ODLCUser.UserType.ADLC));
+    assertNull(dispatcher.claim(ODLCUser.UserType.ADLC));
+  }
+
+  /** Tests that higher ranked images are handed out first, and re-ranked when ADLC finds things */
+  @Test
+  public void testClaimByRank() throws Exception {
+    dispatcher.setScheduler((image, adlc, adlcFound) ->
+        (image.getImgMode() == Image.ImgMode.TRACKING ? 10 : 0) + (adlcFound ? 5 : 0));
+    Image fixed = image(1L, false, false);
+    dispatcher.offer(fixed);
+    dispatcher.offer(image(2L, false, false));
+    Image tracking = image(3L, false, false);
+    tracking.setImgMode(Image.ImgMode.TRACKING);
+    dispatcher.offer(tracking);
+    dispatcher.adlcFound(fixed);
+    dispatcher.adlcFound(image(4L, false, false));
+
+    assertEquals(Long.valueOf(3L), dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+    assertEquals(Long.valueOf(1L), dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+    assertEquals(Long.valueOf(2L), dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+    assertNull(dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+
+    // ADLC finds only change the MDLC queue
+    assertEquals(Long.valueOf(3L), dispatcher.claim(ODLCUser.UserType.ADLC));
+    assertEquals(Long.valueOf(1L), dispatcher.claim(ODLCUser.UserType.ADLC));
+    assertEquals(Long.valueOf(2L), dispatcher.claim(ODLCUser.UserType.ADLC));
+  }
+
+  /** Tests that a batch claim hands out up to the given number of images in order */
+  @Test
+  public void testClaimBatch() throws Exception {
+    for (long id = 1; id <= 5; id++) {
+      dispatcher.offer(image(id, true, false));
+    }
+    assigned.add("2:true");
+
+    assertEquals(Arrays.asList(1L, 3L, 4L), dispatcher.claimBatch(ODLCUser.UserType.ADLC, 3));
+    assertEquals(Arrays.asList(5L), dispatcher.claimBatch(ODLCUser.UserType.ADLC, 3));
+    assertTrue(dispatcher.claimBatch(ODLCUser.UserType.ADLC, 3).isEmpty());
+  }
+
+  /** Tests that images already marked as assigned are skipped */
+  @Test
+  public void testClaimSkipsAssigned() throws Exception {
+    dispatcher.offer(image(1L, false, false));
+    dispatcher.offer(image(2L, false, false));
+    assigned.add("1:false");
+
+    assertEquals(Long.valueOf(2L), dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+    assertNull(dispatcher.claim(ODLCUser.UserType.MDLCTAGGER));
+  }
+
+  /** Tests that every image is handed out exactly once when many taggers ask at once */
+  @Test
+  public void testConcurrentClaims() throws Exception {
+    for (long id = 1; id <= IMAGES; id++) {
+      dispatcher.offer(image(id, false, true));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<Long>>> futures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      futures.add(pool.submit(() -> {
+        start.await();
+        List<Long> claimed = new ArrayList<>();
+        Long id;
+        while ((id = dispatcher.claim(ODLCUser.UserType.MDLCTAGGER)) != null) {
+          claimed.add(id);
+        }
+        return claimed;
+      }));
+    }
+    start.countDown();
+
+    Set<Long> all = ConcurrentHashMap.newKeySet();
+    int total = 0;
+    for (Future<List<Long>> future : futures) {
+      List<Long> claimed = future.get();
+      total += claimed.size();
+      all.addAll(claimed);
+    }
+    pool.shutdown();
+    assertEquals(IMAGES, total);
+    assertEquals(IMAGES, all.size());
+    assertTrue(all.contains(1L) && all.contains((long) IMAGES));
+  }
+
+  /** Tests that each image queued wakes exactly one waiter, skipping waiters that have gone */
+  @Test
+  public void testWakeOnePerImage() throws Exception {
+    List<String> woken = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(3);
+    dispatcher.await(ODLCUser.UserType.MDLCTAGGER, () -> {
+      woken.add("gone");
+      done.countDown();
+      return false;
+    });
+    for (int i = 1; i <= 3; i++) {
+      String name = "mdlc" + i;
+      dispatcher.await(ODLCUser.UserType.MDLCTAGGER, () -> {
+        woken.add(name);
+        done.countDown();
+        return true;
+      });
+    }
+
+    dispatcher.offer(image(1L, false, true));
+    dispatcher.offer(image(2L, false, true));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(Arrays.asList("gone", "mdlc1", "mdlc2"), woken);
+
+    // waiters for ADLC work aren't woken by MDLC images
+    dispatcher.claim(ODLCUser.UserType.MDLCTAGGER);
+    dispatcher.claim(ODLCUser.UserType.MDLCTAGGER);
+    CountDownLatch adlc = new CountDownLatch(1);
+    dispatcher.await(ODLCUser.UserType.ADLC, () -> {
+      adlc.countDown();
+      return true;
+    });
+    dispatcher.offer(image(3L, false, true));
+    assertFalse(adlc.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(4, woken.size());
+
+    dispatcher.offer(image(4L, true, false));
+    assertTrue(adlc.await(5, TimeUnit.SECONDS));
+
+    // an image queued before a client waits wakes it straight away
+    CountDownLatch late = new CountDownLatch(1);
+    dispatcher.await(ODLCUser.UserType.ADLC, () -> {
+      late.countDown();
+      return true;
+    });
+    assertTrue(late.await(5, TimeUnit.SECONDS));
+  }
+
+  private static Image image(Long id, boolean hasMdlc, boolean hasAdlc) throws Exception {
+    Image image = new Image("/api/v1/image/file/" + id + ".jpg", null, Image.ImgMode.FIXED,
+        hasMdlc, hasAdlc, 0.0);
+    // ids are otherwise only assigned by the database
+    Field field = CUAirModel.class.getDeclaredField("id");
+    field.setAccessible(true);
+    field.set(image, id);
+    return image;
+  }
+}
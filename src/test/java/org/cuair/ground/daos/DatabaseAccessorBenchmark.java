@@ -0,0 +1,112 @@
+package org.cuair.ground.daos;
+
+import static org.junit.Assert.assertTrue;
+
+import io.ebean.DB;
+import io.ebean.test.LoggedSql;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.Image.ImgMode;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Counts the statements sent to the database per image written when every write first looks the
+ * image up (what the daos used to do), when writes report their affected rows instead, and when
+ * images are written in JDBC batches. Run with {@code gradle benchmark}.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class DatabaseAccessorBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(DatabaseAccessorBenchmark.class);
+
+  private static final int IMAGES = 200;
+
+  private final ImageDatabaseAccessor imageDao = (ImageDatabaseAccessor) DAOFactory
+      .getDAO(DAOFactory.ModellessDAOType.IMAGE_DATABASE_ACCESSOR);
+
+  /** After each run, drop all images */
+  @After
+  public void cleanDb() {
+    DB.createSqlUpdate("TRUNCATE image RESTART IDENTITY CASCADE").execute();
+  }
+
+  /** Writes the same images each way and logs the statements and time per image */
+  @Test
+  public void benchmarkWrites() throws Exception {
+    List<Image> images = images();
+    LoggedSql.start();
+    long start = System.nanoTime();
+    for (Image image : images) {
+      // each write used to start with a lookup
+      imageDao.get(image.getId());
+      imageDao.create(image);
+    }
+    for (Image image : images) {
+      imageDao.get(image.getId());
+      image.setImageUrl(image.getImageUrl() + "/lookup");
+      imageDao.update(image);
+    }
+    double lookupMs = (System.nanoTime() - start) / 1e6;
+    int lookupStatements = LoggedSql.stop().size();
+    cleanDb();
+
+    images = images();
+    LoggedSql.start();
+    start = System.nanoTime();
+    for (Image image : images) {
+      imageDao.create(image);
+    }
+    for (Image image : images) {
+      image.setImageUrl(image.getImageUrl() + "/single");
+      imageDao.update(image);
+    }
+    double singleMs = (System.nanoTime() - start) / 1e6;
+    int singleStatements = LoggedSql.stop().size();
+    cleanDb();
+
+    images = images();
+    LoggedSql.start();
+    start = System.nanoTime();
+    imageDao.createAll(images);
+    for (Image image : images) {
+      image.setImageUrl(image.getImageUrl() + "/batch");
+    }
+    imageDao.updateAll(images);
+    double batchMs = (System.nanoTime() - start) / 1e6;
+    int batchStatements = LoggedSql.stop().size();
+
+    int writes = 2 * IMAGES;
+    logger.info(String.format(
+        "Creating and updating %d images: lookup first %.2f statements and %.2f ms/write, "
+            + "conditional %.2f statements and %.2f ms/write, "
+            + "batched %.2f statements and %.2f ms/write",
+        IMAGES, (double) lookupStatements / writes, lookupMs / writes,
+        (double) singleStatements / writes, singleMs / writes,
+        (double) batchStatements / writes, batchMs / writes));
+    assertTrue(singleStatements < lookupStatements);
+    assertTrue(batchStatements <= singleStatements);
+  }
+
+  private static List<Image> images() throws Exception {
+    List<Image> images = new ArrayList<>();
+    for (int i = 0; i < IMAGES; i++) {
+      Telemetry telemetry = new Telemetry(new GpsLocation(42.4475428, -76.6122977), 100.0, 0.0,
+          new GimbalOrientation(0.0, 0.0));
+      Image image = new Image("/image/" + i, telemetry, ImgMode.FIXED, false, false, 0.0);
+      image.setTimestamp(new Timestamp(1000L + i));
+      images.add(image);
+    }
+    return images;
+  }
+}
@@ -1,12 +1,18 @@
 package org.cuair.ground.daos;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import io.ebean.DuplicateKeyException;
 import io.ebean.Ebean;
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
 import org.cuair.ground.models.Image;
 import org.cuair.ground.models.Image.ImgMode;
+import org.cuair.ground.models.ODLCUser;
 import org.cuair.ground.models.geotag.GimbalOrientation;
 import org.cuair.ground.models.geotag.GpsLocation;
 import org.cuair.ground.models.geotag.Telemetry;
@@ -95,4 +101,85 @@ public class ImageDatabaseAccessorTest {
     assertTrue(hasAdlcAssignment);
     assertTrue(i1.getHasAdlcAssignment());
   }
+
+  /** Tests that the dao pages through images by id, with their telemetry */
+  @Test
+  public void testGetAfterId() throws Exception {
+    imageDao.create(i1);
+    Image i2 = new Image("/another/local/file/url", new Telemetry(
+        new GpsLocation(42.4475428000000008, -76.6122976999999992), 221.555125199999992, 46.0,
+        new GimbalOrientation(-30.0, 0.0)), ImgMode.FIXED, false, false, 0.0);
+    i2.setTimestamp(new Timestamp(3456L));
+    imageDao.create(i2);
+    Image i3 = new Image("/third/local/file/url", new Telemetry(
+        new GpsLocation(42.4475428000000008, -76.6122976999999992), 221.555125199999992, 47.0,
+        new GimbalOrientation(-30.0, 0.0)), ImgMode.FIXED, false, false, 0.0);
+    i3.setTimestamp(new Timestamp(4567L));
+    imageDao.create(i3);
+
+    List<Image> page = imageDao.getAfterId(0L, 2);
+    assertEquals(Arrays.asList(i1, i2), page);
+    assertEquals(i2.getTelemetry(), page.get(1).getTelemetry());
+
+    assertEquals(Arrays.asList(i3), imageDao.getAfterId(page.get(1).getId(), 2));
+    assertTrue(imageDao.getAfterId(i3.getId(), 2).isEmpty());
+    assertEquals(Arrays.asList(i1, i2, i3), imageDao.getAfterId(0L, null));
+  }
+
+  /** Tests that writes report whether there was a row to write without looking it up first */
+  @Test
+  public void testConditionalWrites() throws Exception {
+    assertTrue(imageDao.create(i1));
+    assertFalse(imageDao.create(i1));
+
+    i1.setImageUrl("/changed/url");
+    assertTrue(imageDao.update(i1));
+    assertEquals("/changed/url", imageDao.get(i1.getId()).getImageUrl());
+    // an update without changes writes nothing but still finds the image
+    assertTrue(imageDao.update(i1));
+
+    assertTrue(imageDao.delete(i1.getId()));
+    assertFalse(imageDao.delete(i1.getId()));
+    assertFalse(imageDao.update(i1));
+  }
+
+  /** Tests that images are created, updated and deleted in batches */
+  @Test
+  public void testBatchWrites() throws Exception {
+    Image i2 = new Image("/another/local/file/url", new Telemetry(
+        new GpsLocation(42.4475428000000008, -76.6122976999999992), 221.555125199999992, 46.0,
+        new GimbalOrientation(-30.0, 0.0)), ImgMode.FIXED, false, false, 0.0);
+    i2.setTimestamp(new Timestamp(3456L));
+    assertTrue(imageDao.createAll(Arrays.asList(i1, i2)));
+    assertEquals(Arrays.asList(i1, i2), imageDao.getAfterId(0L, null));
+    assertFalse(imageDao.createAll(Arrays.asList(i1)));
+
+    i1.setImageUrl("/changed/url/1");
+    i2.setImageUrl("/changed/url/2");
+    assertTrue(imageDao.updateAll(Arrays.asList(i1, i2)));
+    assertEquals("/changed/url/1", imageDao.get(i1.getId()).getImageUrl());
+    assertEquals("/changed/url/2", imageDao.get(i2.getId()).getImageUrl());
+
+    assertEquals(2, imageDao.deleteAll(Arrays.asList(i1.getId(), i2.getId(), 1000L)));
+    assertTrue(imageDao.getAll().isEmpty());
+    assertFalse(imageDao.updateAll(Arrays.asList(i1)));
+  }
+
+  /** Tests that a conflict on a unique constraint other than the id is not taken as a duplicate */
+  @Test
+  public void testCreateUniqueConflict() throws Exception {
+    ODLCUserDatabaseAccessor userDao = (ODLCUserDatabaseAccessor) DAOFactory
+        .getDAO(DAOFactory.ModellessDAOType.ODLCUSER_DATABASE_ACCESSOR);
+    try {
+      assertTrue(userDao.create(new ODLCUser("user", "host1", ODLCUser.UserType.MDLCTAGGER)));
+      try {
+        userDao.create(new ODLCUser("user", "host2", ODLCUser.UserType.MDLCTAGGER));
+        fail("Expected the duplicate username to be rejected");
+      } catch (DuplicateKeyException e) {
+        // expected
+      }
+    } finally {
+      Ebean.createSqlUpdate("TRUNCATE odlcuser RESTART IDENTITY CASCADE").execute();
+    }
+  }
 }
@@ -0,0 +1,99 @@
+package org.cuair.ground.daos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.cuair.ground.models.CUAirModel;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.plane.target.EmergentTarget;
+import org.cuair.ground.models.plane.target.EmergentTargetSighting;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MissionStatsTest {
+
+  private MissionStats stats;
+  private ODLCUser tagger;
+  private ODLCUser adlc;
+
+  /** Before each test, create empty counters and two users */
+  @Before
+  public void setup() throws Exception {
+    stats = new MissionStats();
+    tagger = withId(new ODLCUser("tagger", "localhost", ODLCUser.UserType.MDLCTAGGER), 1L);
+    adlc = withId(new ODLCUser("adlc", "", ODLCUser.UserType.ADLC), 2L);
+  }
+
+  /** Tests that assignments are counted for each user and kind of user */
+  @Test
+  public void testAssignments() throws Exception {
+    stats.imageIngested();
+    stats.imageIngested();
+    stats.assigned(tagger);
+    stats.assigned(tagger);
+    stats.assigned(tagger);
+    stats.assigned(adlc);
+    stats.done(tagger.getId());
+    stats.reclaimed(tagger.getId());
+    stats.done(adlc.getId());
+
+    Map<String, Object> result = stats.getStats();
+    assertEquals(2L, result.get("imagesIngested"));
+    assertEquals(counts(3, 1, 1, 1), result.get("mdlc"));
+    assertEquals(counts(1, 1, 0, 0), result.get("adlc"));
+    Map<?, ?> users = (Map<?, ?>) result.get("users");
+    assertEquals(counts(3, 1, 1, 1), users.get("tagger"));
+    assertEquals(counts(1, 1, 0, 0), users.get("adlc"));
+  }
+
+  /** Tests that sightings are counted for each target as they are created, moved and deleted */
+  @Test
+  public void testSightings() throws Exception {
+    EmergentTarget first = withId(new EmergentTarget(tagger, null, "", 0L, 0L, null), 1L);
+    EmergentTarget second = withId(new EmergentTarget(tagger, null, "", 0L, 0L, null), 2L);
+    EmergentTargetSighting a = sighting(first);
+    EmergentTargetSighting b = sighting(first);
+    stats.sightingCreated(a);
+    stats.sightingCreated(b);
+    stats.sightingCreated(sighting(null));
+    stats.sightingRetargeted(b, first, second);
+    stats.sightingDeleted(a);
+
+    Map<?, ?> sightings = (Map<?, ?>) stats.getStats().get("sightings");
+    assertEquals(2L, sightings.get("emergent"));
+    assertEquals(0L, sightings.get("alphanum"));
+    Map<?, ?> byTarget = (Map<?, ?>) sightings.get("byTarget");
+    assertEquals(0L, byTarget.get("emergent/1"));
+    assertEquals(1L, byTarget.get("emergent/2"));
+
+    stats.sightingsUnassociated(EmergentTargetSighting.class, 2L);
+    byTarget = (Map<?, ?>) ((Map<?, ?>) stats.getStats().get("sightings")).get("byTarget");
+    assertNull(byTarget.get("emergent/2"));
+  }
+
+  private EmergentTargetSighting sighting(EmergentTarget target) {
+    return new EmergentTargetSighting(tagger, 0, 0, 10, 10, null, target, "", 0.0, 0.0, null,
+        null);
+  }
+
+  private static Map<String, Object> counts(long assigned, long done, long reclaimed,
+      long inProgress) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("assigned", assigned);
+    map.put("done", done);
+    map.put("reclaimed", reclaimed);
+    map.put("inProgress", inProgress);
+    return map;
+  }
+
+  private static <T extends CUAirModel> T withId(T model, Long id) throws Exception {
+    // ids are otherwise only assigned by the database
+    Field field = CUAirModel.class.getDeclaredField("id");
+    field.setAccessible(true);
+    field.set(model, id);
+    return model;
+  }
+}
@@ -0,0 +1,109 @@
+package org.cuair.ground.daos;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.ebean.DB;
+import io.ebean.Transaction;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests that the hot queries are planned to use the indexes the migrations create. Sequential
+ * scans are turned off while planning, since they are cheapest on tables as small as these, so a
+ * plan still scanning a table sequentially has no index it can use.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SchemaMigrationsTest {
+
+  /** Before each test, apply the migrations, which is a no-op once they are applied */
+  @Before
+  public void setup() {
+    SchemaMigrations.run();
+  }
+
+  /** Tests that claiming and peeking at unassigned images use their partial indexes */
+  @Test
+  public void testUnassignedImageIndexes() {
+    assertUsesIndex("ix_image_unassigned_mdlc",
+        "SELECT id FROM image WHERE has_mdlc_assignment = false ORDER BY id LIMIT 10");
+    assertUsesIndex("ix_image_unassigned_adlc",
+        "SELECT id FROM image WHERE has_adlc_assignment = false ORDER BY id LIMIT 10");
+    String rebuild = explain(
+        "SELECT id FROM image WHERE has_mdlc_assignment = false OR has_adlc_assignment = false");
+    assertTrue(rebuild, rebuild.contains("ix_image_unassigned_mdlc"));
+    assertTrue(rebuild, rebuild.contains("ix_image_unassigned_adlc"));
+  }
+
+  /** Tests that the latest image and images by timestamp are found through the index */
+  @Test
+  public void testImageTimestampIndex() {
+    assertUsesIndex("ix_image_timestamp",
+        "SELECT id FROM image ORDER BY timestamp DESC LIMIT 1");
+    assertUsesIndex("ix_image_timestamp",
+        "SELECT id FROM image WHERE timestamp = '2020-01-01 00:00:00' LIMIT 1");
+  }
+
+  /** Tests that the assignments of a user are found through the index */
+  @Test
+  public void testAssignmentAssigneeIndex() {
+    assertUsesIndex("ix_assignment_assignee_id",
+        "SELECT id FROM assignment WHERE assignee_id = 1");
+  }
+
+  /** Tests that the sweep finds unfinished assignments with expired leases through the index */
+  @Test
+  public void testAssignmentLeaseIndex() {
+    assertUsesIndex("ix_assignment_lease_expires_pending",
+        "SELECT id FROM assignment WHERE done = false AND lease_expires < '2020-01-01 00:00:00'");
+  }
+
+  /** Tests that the sightings of a target or of an assignment are found through the indexes */
+  @Test
+  public void testTargetSightingIndexes() {
+    for (String table : new String[] {"alphanum_target_sighting", "emergent_target_sighting"}) {
+      assertUsesIndex("ix_" + table + "_target_id",
+          "SELECT id FROM " + table + " WHERE target_id = 1");
+      assertUsesIndex("ix_" + table + "_assignment_id",
+          "SELECT id FROM " + table + " WHERE assignment_id = 1");
+    }
+  }
+
+  /** Tests that the latest settings that weren't rejected are found through the index */
+  @Test
+  public void testPlaneSettingsIndex() {
+    assertUsesIndex("ix_camera_gimbal_settings_timestamp_status",
+        "SELECT id FROM camera_gimbal_settings WHERE status <> '1' "
+            + "ORDER BY timestamp DESC LIMIT 1");
+  }
+
+  /** Tests that users are found by username through an index */
+  @Test
+  public void testUsernameIndex() {
+    String plan = explain("SELECT id FROM odlcuser WHERE username = 'adlc'");
+    assertTrue(plan, plan.contains("Index"));
+    assertFalse(plan, plan.contains("Seq Scan"));
+  }
+
+  private static void assertUsesIndex(String index, String sql) {
+    String plan = explain(sql);
+    assertTrue(plan, plan.contains(index));
+  }
+
+  /** Gets the plan of a query, as planned with sequential scans turned off */
+  private static String explain(String sql) {
+    try (Transaction transaction = DB.beginTransaction()) {
+      DB.sqlUpdate("SET LOCAL enable_seqscan = off").execute();
+      return DB.sqlQuery("EXPLAIN " + sql)
+          .findList()
+          .stream()
+          .map(row -> String.valueOf(row.values().iterator().next()))
+          .collect(Collectors.joining("\n"));
+    }
+  }
+}
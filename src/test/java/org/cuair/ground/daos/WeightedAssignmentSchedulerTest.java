@@ -0,0 +1,138 @@
+package org.cuair.ground.daos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.cuair.ground.models.CUAirModel;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.geotag.FOV;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.util.Flags;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedAssignmentSchedulerTest {
+
+  private GpsLocation center;
+  private WeightedAssignmentScheduler scheduler;
+
+  /** Before each test, create a scheduler with one target under the plane and one far away */
+  @Before
+  public void setup() throws Exception {
+    center = new GpsLocation(42.4475428, -76.6122977);
+    GpsLocation far = new GpsLocation(42.5, -76.7);
+    scheduler = new WeightedAssignmentScheduler(() -> Arrays.asList(center, far),
+        Collections::emptyList);
+  }
+
+  /** Tests that each input adds its weight to the rank */
+  @Test
+  public void testRank() throws Exception {
+    Image fixed = new Image("1.jpg", null, Image.ImgMode.FIXED, false, false, 0.0);
+    assertEquals(0, scheduler.rank(fixed, false, false), 1e-9);
+    assertEquals(50, scheduler.rank(fixed, false, true), 1e-9);
+    // ADLC finds don't matter to ADLC
+    assertEquals(0, scheduler.rank(fixed, true, true), 1e-9);
+
+    Image tracking = new Image("2.jpg", null, Image.ImgMode.TRACKING, false, false, 0.0);
+    assertEquals(100, scheduler.rank(tracking, false, false), 1e-9);
+    Image offAxis = new Image("3.jpg", null, Image.ImgMode.OFFAXIS, false, false, 0.0);
+    assertEquals(100, scheduler.rank(offAxis, false, false), 1e-9);
+
+    Image over = new Image("4.jpg",
+        new Telemetry(center, 100.0, 0.0, new GimbalOrientation(0.0, 0.0)), new FOV(1.0, 0.7),
+        Image.ImgMode.FIXED);
+    assertEquals(20, scheduler.rank(over, false, false), 1e-9);
+
+    Image earlier = new Image("5.jpg", null, Image.ImgMode.FIXED, false, false, 0.0);
+    earlier.setTimestamp(new Timestamp(60000));
+    Image later = new Image("6.jpg", null, Image.ImgMode.FIXED, false, false, 0.0);
+    later.setTimestamp(new Timestamp(5 * 60000));
+    assertEquals(4, scheduler.rank(later, false, false) - scheduler.rank(earlier, false, false),
+        1e-9);
+
+    Image blurry = new Image("7.jpg", null, Image.ImgMode.FIXED, false, false, 0.0);
+    blurry.setSharpness(1.0);
+    blurry.setExposure(0.9);
+    assertEquals(-1000, scheduler.rank(blurry, false, false), 1e-9);
+    Image dark = new Image("8.jpg", null, Image.ImgMode.FIXED, false, false, 0.0);
+    dark.setSharpness(100.0);
+    dark.setExposure(0.1);
+    assertEquals(-1000, scheduler.rank(dark, false, false), 1e-9);
+    // ADLC looks at every image
+    assertEquals(0, scheduler.rank(dark, true, false), 1e-9);
+  }
+
+  /** Tests that images of ground taggers have finished go last, and that overlaps are reported */
+  @Test
+  public void testCoverage() throws Exception {
+    Image done = imageAt(1, center);
+    Image repeat = imageAt(2, center);
+    Image elsewhere = imageAt(3, new GpsLocation(42.46, -76.63));
+    double repeatRank = scheduler.rank(repeat, false, false);
+    double elsewhereRank = scheduler.rank(elsewhere, false, false);
+
+    assertEquals(Arrays.asList(2L), new ArrayList<>(scheduler.imageDone(done)));
+    assertEquals(repeatRank - 1000, scheduler.rank(repeat, false, false), 1e-9);
+    assertEquals(elsewhereRank, scheduler.rank(elsewhere, false, false), 1e-9);
+    // ADLC looks at every image
+    assertEquals(repeatRank, scheduler.rank(repeat, true, false), 1e-9);
+
+    boolean skip = Flags.SKIP_COVERED_IMAGES;
+    Flags.SKIP_COVERED_IMAGES = true;
+    try {
+      assertTrue(scheduler.skip(repeat, false));
+      assertFalse(scheduler.skip(repeat, true));
+      assertFalse(scheduler.skip(elsewhere, false));
+    } finally {
+      Flags.SKIP_COVERED_IMAGES = skip;
+    }
+
+    scheduler.rebuild();
+    assertEquals(repeatRank, scheduler.rank(repeat, false, false), 1e-9);
+  }
+
+  /** Tests that images no longer waiting for taggers aren't reported as overlapped */
+  @Test
+  public void testDequeued() throws Exception {
+    Image done = imageAt(1, center);
+    Image claimed = imageAt(2, center);
+    Image queued = imageAt(3, center);
+    Image elsewhere = imageAt(4, new GpsLocation(42.46, -76.63));
+    scheduler.rank(claimed, false, false);
+    scheduler.rank(queued, false, false);
+    scheduler.rank(elsewhere, false, false);
+
+    scheduler.imageDequeued(claimed.getId());
+    assertEquals(Arrays.asList(3L), new ArrayList<>(scheduler.imageDone(done)));
+  }
+
+  /** Tests the point in polygon check */
+  @Test
+  public void testContains() throws Exception {
+    GpsLocation[] square = {
+        new GpsLocation(1, 0), new GpsLocation(1, 1), new GpsLocation(0, 1), new GpsLocation(0, 0)
+    };
+    assertEquals(true, WeightedAssignmentScheduler.contains(square, new GpsLocation(0.5, 0.5)));
+    assertEquals(false, WeightedAssignmentScheduler.contains(square, new GpsLocation(1.5, 0.5)));
+    assertEquals(false, WeightedAssignmentScheduler.contains(square, new GpsLocation(0.5, -0.1)));
+  }
+
+  private static Image imageAt(long id, GpsLocation location) throws Exception {
+    Image image = new Image(id + ".jpg",
+        new Telemetry(location, 100.0, 0.0, new GimbalOrientation(0.0, 0.0)), new FOV(1.0, 0.7),
+        Image.ImgMode.FIXED);
+    Field idField = CUAirModel.class.getDeclaredField("id");
+    idField.setAccessible(true);
+    idField.set(image, id);
+    return image;
+  }
+}
@@ -0,0 +1,71 @@
+package org.cuair.ground.filters;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import org.cuair.ground.util.QueryBudget;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the list endpoints to a budget of statements in every test that calls them. The budgets
+ * don't grow with the number of models listed, so a change that lazily loads an association once
+ * per model fails any test that lists more models than the budget. Being a component of the test
+ * classes, the filter runs in controller tests but never in the application.
+ */
+@Component
+@Order(0)
+public class QueryBudgetFilter implements Filter {
+
+  /** The most statements each endpoint may send, by method and path relative to the context */
+  private static final Map<String, Integer> BUDGETS = new LinkedHashMap<>();
+
+  static {
+    // the user, then the assignments joined to everything they serialize
+    BUDGETS.put("GET /assignment", 2);
+    // the sightings joined to their associations, then the points of all of them
+    BUDGETS.put("GET /alphanum_target_sighting", 2);
+    // the sightings joined to their associations
+    BUDGETS.put("GET /emergent_target_sighting", 1);
+    // the ROIs joined to their associations
+    BUDGETS.put("GET /roi", 1);
+  }
+
+  /**
+   * Gets the budget of the endpoint a request is for
+   *
+   * @param request the request
+   * @return the most statements the request may send, or null if its endpoint has no budget
+   */
+  static Integer budgetOf(HttpServletRequest request) {
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    return BUDGETS.get(request.getMethod() + " " + path);
+  }
+
+  @Override
+  public void doFilter(final ServletRequest request, final ServletResponse response,
+                       final FilterChain chain)
+      throws IOException, ServletException {
+    Integer budget = budgetOf((HttpServletRequest) request);
+    if (budget == null || QueryBudget.isActive()) {
+      chain.doFilter(request, response);
+      return;
+    }
+    try {
+      QueryBudget.assertWithin(budget, () -> {
+        chain.doFilter(request, response);
+        return null;
+      });
+    } catch (IOException | ServletException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ServletException(e);
+    }
+  }
+}
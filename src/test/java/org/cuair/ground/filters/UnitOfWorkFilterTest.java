@@ -0,0 +1,33 @@
+package org.cuair.ground.filters;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class UnitOfWorkFilterTest {
+
+  /** Tests that only the GETs that render image files are left out of the unit of work */
+  @Test
+  public void testIsRendering() {
+    assertTrue(UnitOfWorkFilter.isRendering(get("/image/file/1234.jpeg")));
+    assertTrue(UnitOfWorkFilter.isRendering(get("/image/5/tiles")));
+    assertTrue(UnitOfWorkFilter.isRendering(get("/image/5/tiles/2/1/0")));
+    assertTrue(UnitOfWorkFilter.isRendering(get("/alphanum_target_sighting/thumbnails")));
+    assertTrue(UnitOfWorkFilter.isRendering(get("/emergent_target_sighting/thumbnails/sprite")));
+    assertTrue(UnitOfWorkFilter.isRendering(get("/stream/playlist")));
+
+    assertFalse(UnitOfWorkFilter.isRendering(get("/image/5")));
+    assertFalse(UnitOfWorkFilter.isRendering(get("/assignment")));
+    MockHttpServletRequest post = get("/image/file/1234.jpeg");
+    post.setMethod("POST");
+    assertFalse(UnitOfWorkFilter.isRendering(post));
+  }
+
+  private static MockHttpServletRequest get(String path) {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1" + path);
+    request.setContextPath("/api/v1");
+    return request;
+  }
+}
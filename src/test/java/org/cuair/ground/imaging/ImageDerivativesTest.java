@@ -0,0 +1,130 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageDerivativesTest {
+
+  private Path imageDir;
+  private Path original;
+  private ImageDerivatives derivatives;
+
+  /** Before each test, copy the test image into a fresh image directory */
+  @Before
+  public void setup() throws Exception {
+    imageDir = Files.createTempDirectory("images");
+    original = Files.copy(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"),
+        imageDir.resolve("1000.jpg"));
+    derivatives = new ImageDerivatives(2);
+  }
+
+  /** After each test, stop the generator and delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    derivatives.shutDown();
+    FileUtils.deleteDirectory(imageDir.toFile());
+  }
+
+  /** Tests that every derivative is written as a progressive JPEG no wider than its size */
+  @Test
+  public void testGenerate() throws Exception {
+    derivatives.generate(original).get(10, TimeUnit.SECONDS);
+    int originalWidth = ImageIO.read(original.toFile()).getWidth();
+
+    for (ImageDerivatives.Size size : ImageDerivatives.Size.values()) {
+      if (size == ImageDerivatives.Size.ORIGINAL) {
+        continue;
+      }
+      Path derivative = ImageDerivatives.pathFor(original, size);
+      assertEquals(imageDir.resolve(size.name().toLowerCase()).resolve("1000.jpeg"), derivative);
+      BufferedImage image = ImageIO.read(derivative.toFile());
+      assertEquals(Math.min(size.getWidth(), originalWidth), image.getWidth());
+      assertTrue(isProgressive(Files.readAllBytes(derivative)));
+    }
+  }
+
+  /** Tests that the original is served as is and derivatives that exist are not regenerated */
+  @Test
+  public void testGet() throws Exception {
+    assertSame(original,
+        derivatives.get(original, ImageDerivatives.Size.ORIGINAL).get(10, TimeUnit.SECONDS));
+
+    Path screen = derivatives.get(original, ImageDerivatives.Size.SCREEN).get(10, TimeUnit.SECONDS);
+    long modified = Files.getLastModifiedTime(screen).toMillis();
+    CompletableFuture<Path> again = derivatives.get(original, ImageDerivatives.Size.SCREEN);
+    assertTrue(again.isDone());
+    assertEquals(screen, again.get());
+    assertEquals(modified, Files.getLastModifiedTime(screen).toMillis());
+  }
+
+  /** Tests that coordinates on a derivative map back to the same point in the original */
+  @Test
+  public void testToOriginal() {
+    ImageDerivatives.Size screen = ImageDerivatives.Size.SCREEN;
+    Dimension original = new Dimension(screen.getWidth() * 3, 1000);
+    Dimension scaled = screen.scale(original);
+    assertEquals(new Dimension(screen.getWidth(), 333), scaled);
+    assertEquals(original.width, screen.toOriginalX(scaled.width, original), 1e-9);
+    assertEquals(original.height, screen.toOriginalY(scaled.height, original), 1e-9);
+    assertEquals(original.width / 2.0, screen.toOriginalX(scaled.width / 2.0, original), 1e-9);
+    assertEquals(scaled.width / 2.0, screen.fromOriginalX(original.width / 2.0, original), 1e-9);
+
+    // originals no wider than a size are served as they are
+    Dimension narrow = new Dimension(screen.getWidth() / 2, 300);
+    assertEquals(narrow, screen.scale(narrow));
+    assertEquals(100, screen.toOriginalX(100, narrow), 1e-9);
+    assertEquals(50, screen.toOriginalY(50, narrow), 1e-9);
+
+    ImageDerivatives.Size size = ImageDerivatives.Size.ORIGINAL;
+    assertEquals(1234, size.toOriginalX(1234, original), 1e-9);
+    assertEquals(567, size.toOriginalY(567, original), 1e-9);
+  }
+
+  /** Tests that derivatives are written in the dimensions coordinates are scaled with */
+  @Test
+  public void testScaleMatchesDerivative() throws Exception {
+    Dimension size = ImageCodec.size(original);
+    for (ImageDerivatives.Size s : ImageDerivatives.Size.values()) {
+      BufferedImage image = ImageIO.read(derivatives.get(original, s).get(10, TimeUnit.SECONDS)
+          .toFile());
+      Dimension expected = s.scale(size);
+      assertEquals(expected.width, image.getWidth());
+      assertEquals(expected.height, image.getHeight(), 1);
+    }
+  }
+
+  /** Tests parsing sizes from request parameters */
+  @Test
+  public void testFromParam() {
+    assertEquals(ImageDerivatives.Size.ORIGINAL, ImageDerivatives.Size.fromParam(null));
+    assertEquals(ImageDerivatives.Size.SCREEN, ImageDerivatives.Size.fromParam("screen"));
+    assertEquals(ImageDerivatives.Size.PREVIEW, ImageDerivatives.Size.fromParam("PREVIEW"));
+    assertNull(ImageDerivatives.Size.fromParam("huge"));
+  }
+
+  /** Whether a JPEG is progressive, i.e. has a progressive DCT start of frame marker */
+  private static boolean isProgressive(byte[] jpeg) {
+    for (int i = 0; i + 1 < jpeg.length; i++) {
+      if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xC2) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,106 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.util.FileResponses;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImagePrefetcherTest {
+
+  private Path imageDir;
+  private Image first;
+  private Image second;
+
+  /** Before each test, copy the test image into a fresh image directory twice */
+  @Before
+  public void setup() throws Exception {
+    imageDir = Files.createTempDirectory("images");
+    first = image(1000);
+    second = image(2000);
+  }
+
+  /** After each test, stop generating derivatives and delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    ImageDerivatives.shutDownInstance();
+    FileUtils.deleteDirectory(imageDir.toFile());
+  }
+
+  /** Tests that warming generates the screen derivative and reads it and the original through */
+  @Test
+  public void testWarm() throws Exception {
+    ImagePrefetcher prefetcher = new ImagePrefetcher(1, Long.MAX_VALUE);
+    Path original = Paths.get(first.getLocalImageUrl());
+    Path screen = ImageDerivatives.pathFor(original, ImageDerivatives.Size.SCREEN);
+    // the screen derivative isn't hinted until it exists
+    assertEquals(Arrays.asList("/api/v1/image/file/1000.jpg"),
+        hintUrls(prefetcher.hints(Arrays.asList(first))));
+
+    prefetcher.warm(Arrays.asList(first, first));
+    long expected = Files.size(original);
+    waitForWarmedBytes(prefetcher, expected);
+    assertTrue(Files.isRegularFile(screen));
+    assertEquals(expected + Files.size(screen), prefetcher.getWarmedBytes());
+
+    List<Map<String, String>> hints = prefetcher.hints(Arrays.asList(first));
+    assertEquals(Arrays.asList("/api/v1/image/file/1000.jpg?size=screen",
+        "/api/v1/image/file/1000.jpg"), hintUrls(hints));
+    assertEquals(FileResponses.etag(screen), hints.get(0).get("etag"));
+    assertEquals(FileResponses.etag(original), hints.get(1).get("etag"));
+    prefetcher.shutDown();
+  }
+
+  /** Tests that the files warmed longest ago stop being counted once the capacity is used up */
+  @Test
+  public void testEviction() throws Exception {
+    Path original = Paths.get(first.getLocalImageUrl());
+    ImageDerivatives.getInstance().generate(original).join();
+    Path screen = ImageDerivatives.pathFor(original, ImageDerivatives.Size.SCREEN);
+    long perImage = Files.size(original) + Files.size(screen);
+    ImagePrefetcher prefetcher = new ImagePrefetcher(1, perImage);
+
+    prefetcher.warm(Arrays.asList(first));
+    waitForWarmedBytes(prefetcher, perImage);
+    prefetcher.warm(Arrays.asList(second));
+    Thread.sleep(1000);
+    assertTrue(prefetcher.getWarmedBytes() <= perImage);
+    prefetcher.shutDown();
+  }
+
+  private Image image(long timestamp) throws Exception {
+    Path file = Files.copy(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"),
+        imageDir.resolve(timestamp + ".jpg"));
+    Image image = new Image("/api/v1/image/file/" + timestamp + ".jpg", null,
+        Image.ImgMode.FIXED, false, false, 0.0);
+    image.setLocalImageUrl(file.toString());
+    return image;
+  }
+
+  private static List<String> hintUrls(List<Map<String, String>> hints) {
+    String[] urls = new String[hints.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = hints.get(i).get("url");
+    }
+    return Arrays.asList(urls);
+  }
+
+  private static void waitForWarmedBytes(ImagePrefetcher prefetcher, long bytes)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (prefetcher.getWarmedBytes() < bytes && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+  }
+}
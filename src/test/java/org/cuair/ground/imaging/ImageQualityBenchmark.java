@@ -0,0 +1,95 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import org.cuair.ground.util.Flags;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how many full resolution frames a second the quality stage of ingest scores with
+ * {@link Flags#INGEST_QUALITY_THREADS} threads, and checks that it keeps ahead of the plane. Run
+ * with {@code gradle benchmark}.
+ */
+public class ImageQualityBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(ImageQualityBenchmark.class);
+
+  /** Frames a second the plane uploads at its fastest, with headroom for a backlog to drain */
+  private static final double REQUIRED_IMAGES_PER_SECOND = 2;
+
+  private static final int WARMUP_ITERATIONS = 2;
+  private static final int ITERATIONS = 5;
+
+  /** A full resolution JPEG */
+  private static Path frame;
+
+  /** Encodes a noisy frame at the raw camera resolution */
+  @BeforeClass
+  public static void createFrame() throws Exception {
+    int width = (int) Flags.RAW_IMAGE_WIDTH;
+    int height = (int) Flags.RAW_IMAGE_HEIGHT;
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(0);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int v = ((x ^ y) & 0xFF) / 2 + random.nextInt(128);
+        image.setRGB(x, y, (v << 16) | ((255 - v) << 8) | (v / 2));
+      }
+    }
+    frame = Files.createTempFile("frame", ".jpg");
+    ImageIO.write(image, "jpg", frame.toFile());
+  }
+
+  @AfterClass
+  public static void deleteFrame() throws Exception {
+    Files.deleteIfExists(frame);
+  }
+
+  /** Scores the frame on every quality thread at once and logs the throughput */
+  @Test
+  public void benchmarkQualityStage() throws Exception {
+    int threads = Flags.INGEST_QUALITY_THREADS;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        scoreOnEveryThread(pool, threads);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        scoreOnEveryThread(pool, threads);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double imagesPerSecond = ITERATIONS * threads / seconds;
+      logger.info(String.format(
+          "Quality scoring of a %dx%d frame on %d threads: %.1f ms/image, %.1f images/s",
+          (int) Flags.RAW_IMAGE_WIDTH, (int) Flags.RAW_IMAGE_HEIGHT, threads,
+          seconds * 1000 / ITERATIONS, imagesPerSecond));
+      assertTrue(imagesPerSecond >= REQUIRED_IMAGES_PER_SECOND);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void scoreOnEveryThread(ExecutorService pool, int threads) throws Exception {
+    List<Future<ImageQuality.Scores>> scores = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      scores.add(pool.submit(() -> ImageQuality.analyze(frame)));
+    }
+    for (Future<ImageQuality.Scores> score : scores) {
+      score.get();
+    }
+  }
+}
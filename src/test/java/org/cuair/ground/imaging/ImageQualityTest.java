@@ -0,0 +1,70 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import org.cuair.ground.util.Flags;
+import org.junit.Test;
+
+public class ImageQualityTest {
+
+  /** Tests that blurring an image lowers its sharpness but not its exposure */
+  @Test
+  public void testSharpness() throws Exception {
+    BufferedImage sharp = noise(400, 300, 64, 192);
+    float[] kernel = new float[15];
+    Arrays.fill(kernel, 1f / kernel.length);
+    BufferedImage blurred =
+        new ConvolveOp(new Kernel(kernel.length, 1, kernel), ConvolveOp.EDGE_NO_OP, null)
+            .filter(sharp, null);
+
+    ImageQuality.Scores sharpScores = ImageQuality.analyze(sharp);
+    ImageQuality.Scores blurredScores = ImageQuality.analyze(blurred);
+    assertTrue(sharpScores.getSharpness() > 10 * blurredScores.getSharpness());
+    assertEquals(1.0, sharpScores.getExposure(), 1e-9);
+    assertEquals(1.0, blurredScores.getExposure(), 1e-9);
+  }
+
+  /** Tests that crushed and blown out pixels lower the exposure */
+  @Test
+  public void testExposure() throws Exception {
+    assertEquals(0.0, ImageQuality.analyze(noise(100, 100, 0, 10)).getExposure(), 1e-9);
+    assertEquals(0.0, ImageQuality.analyze(noise(100, 100, 245, 255)).getExposure(), 1e-9);
+
+    BufferedImage half = noise(100, 100, 64, 192);
+    for (int y = 0; y < 50; y++) {
+      for (int x = 0; x < 100; x++) {
+        half.setRGB(x, y, 0xFFFFFF);
+      }
+    }
+    assertEquals(0.5, ImageQuality.analyze(half).getExposure(), 1e-9);
+  }
+
+  /** Tests that the test image can be scored from its file */
+  @Test
+  public void testAnalyzeFile() throws Exception {
+    ImageQuality.Scores scores =
+        ImageQuality.analyze(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"));
+    assertTrue(scores.getSharpness() > 0);
+    assertTrue(scores.getExposure() > 0.5);
+  }
+
+  /** Creates a gray image of random levels between low and high */
+  private static BufferedImage noise(int width, int height, int low, int high) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(0);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int v = low + random.nextInt(high - low + 1);
+        image.setRGB(x, y, (v << 16) | (v << 8) | v);
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,116 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageTilesTest {
+
+  private Path dir;
+  private Path original;
+  private BufferedImage decoded;
+  private ImageTiles tiles;
+
+  /** Before each test, copy the test image and create a tile renderer with an empty cache */
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("tiles");
+    original = Files.copy(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"), dir.resolve("1000.jpg"));
+    decoded = ImageIO.read(original.toFile());
+    tiles = new ImageTiles(dir.resolve("cache"), 1024 * 1024, 1024 * 1024, 2);
+  }
+
+  /** After each test, stop the renderer and delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    tiles.shutDown();
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  /** Tests that the pyramid goes from one tile for the whole image to full resolution */
+  @Test
+  public void testLevels() throws Exception {
+    ImageTiles.Source source = tiles.getSource(1L, id -> original);
+    assertEquals(decoded.getWidth(), source.getWidth());
+    assertEquals(decoded.getHeight(), source.getHeight());
+
+    int maxLevel = source.getMaxLevel(256);
+    assertEquals(1, source.getColumns(256, 0));
+    assertEquals(1, source.getRows(256, 0));
+    assertEquals((decoded.getWidth() + 255) / 256, source.getColumns(256, maxLevel));
+    assertEquals((decoded.getHeight() + 255) / 256, source.getRows(256, maxLevel));
+    assertEquals(maxLevel - 1, source.getMaxLevel(512));
+
+    assertSame(source, tiles.getSource(1L, id -> null));
+    assertNull(tiles.getSource(2L, id -> null));
+  }
+
+  /** Tests that tiles hold the right region of the image at the resolution of their level */
+  @Test
+  public void testGetTile() throws Exception {
+    ImageTiles.Source source = tiles.getSource(1L, id -> original);
+    int maxLevel = source.getMaxLevel(256);
+
+    BufferedImage full = tile(source, maxLevel, 0, 0);
+    assertEquals(256, full.getWidth());
+    assertEquals(256, full.getHeight());
+    assertPixelNear(decoded.getRGB(100, 100), full.getRGB(100, 100));
+
+    // tiles on the right edge are cut off at the edge of the image
+    int lastColumn = source.getColumns(256, maxLevel) - 1;
+    BufferedImage edge = tile(source, maxLevel, lastColumn, 0);
+    assertEquals(decoded.getWidth() - 256 * lastColumn, edge.getWidth());
+
+    BufferedImage whole = tile(source, 0, 0, 0);
+    int scale = 1 << maxLevel;
+    assertEquals((decoded.getWidth() + scale - 1) / scale, whole.getWidth());
+    assertEquals((decoded.getHeight() + scale - 1) / scale, whole.getHeight());
+
+    assertNull(tiles.getTile(source, 256, maxLevel + 1, 0, 0));
+    assertNull(tiles.getTile(source, 256, 0, 1, 0));
+    assertNull(tiles.getTile(source, 256, maxLevel, 0, -1));
+  }
+
+  /** Tests that concurrent requests for a tile share one render, and later ones hit the cache */
+  @Test
+  public void testCoalesce() throws Exception {
+    ImageTiles.Source source = tiles.getSource(1L, id -> original);
+    CompletableFuture<byte[]> first = tiles.getTile(source, 256, 1, 0, 0);
+    CompletableFuture<byte[]> second = tiles.getTile(source, 256, 1, 0, 0);
+    if (!first.isDone()) {
+      assertSame(first, second);
+    }
+    byte[] tile = first.get(10, TimeUnit.SECONDS);
+    assertArrayEquals(tile, second.get(10, TimeUnit.SECONDS));
+
+    CompletableFuture<byte[]> cached = tiles.getTile(source, 256, 1, 0, 0);
+    assertSame(tile, cached.getNow(null));
+  }
+
+  private BufferedImage tile(ImageTiles.Source source, int z, int x, int y) throws Exception {
+    byte[] jpeg = tiles.getTile(source, 256, z, x, y).get(10, TimeUnit.SECONDS);
+    return ImageIO.read(new ByteArrayInputStream(jpeg));
+  }
+
+  /** Asserts two pixels are about the same color, allowing for JPEG compression */
+  private static void assertPixelNear(int expected, int actual) {
+    for (int shift = 0; shift <= 16; shift += 8) {
+      assertEquals((expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 24);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.cuair.ground.models.Assignment;
+import org.cuair.ground.models.CUAirModel;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.ODLCUser;
+import org.cuair.ground.models.plane.target.AlphanumTargetSighting;
+import org.cuair.ground.models.plane.target.TargetSighting;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SightingThumbnailsTest {
+
+  private Path dir;
+  private Assignment assignment;
+  private BufferedImage decoded;
+  private SightingThumbnails thumbnails;
+
+  /** Before each test, copy the test image and create an assignment for it */
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("thumbnails");
+    Path file = Files.copy(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"), dir.resolve("1000.jpg"));
+    decoded = ImageIO.read(file.toFile());
+    Image image = new Image("/api/v1/image/file/1000.jpg", null, null, Image.ImgMode.FIXED);
+    image.setLocalImageUrl(file.toString());
+    assignment = new Assignment(image, new ODLCUser("adlc", "", ODLCUser.UserType.ADLC));
+    thumbnails = new SightingThumbnails(8, 2);
+  }
+
+  /** After each test, stop the renderer and delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    thumbnails.shutDown();
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  /** Tests that the thumbnail is the pixel box of the sighting, cut off at the edge of the image */
+  @Test
+  public void testRender() throws Exception {
+    BufferedImage thumbnail = render(sighting(null, 200, 100, 60, 40));
+    assertEquals(60, thumbnail.getWidth());
+    assertEquals(40, thumbnail.getHeight());
+
+    BufferedImage edge = render(sighting(null, decoded.getWidth() - 10, 100, 60, 40));
+    assertEquals(40, edge.getWidth());
+    assertEquals(40, edge.getHeight());
+
+    try {
+      thumbnails.get(sighting(null, -100, -100, 20, 20)).get(10, TimeUnit.SECONDS);
+      fail("Expected the render to fail for a box outside of the image");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().contains("outside"));
+    }
+  }
+
+  /** Tests that thumbnails are cached until the pixel box of the sighting changes */
+  @Test
+  public void testCache() throws Exception {
+    TargetSighting ts = sighting(7L, 200, 100, 60, 40);
+    byte[] first = thumbnails.get(ts).get(10, TimeUnit.SECONDS);
+    assertSame(first, thumbnails.get(ts).getNow(null));
+
+    TargetSighting moved = sighting(7L, 300, 100, 60, 40);
+    byte[] second = thumbnails.get(moved).get(10, TimeUnit.SECONDS);
+    assertNotSame(first, second);
+    assertSame(second, thumbnails.get(moved).getNow(null));
+
+    thumbnails.invalidate(moved);
+    assertNotSame(second, thumbnails.get(moved).get(10, TimeUnit.SECONDS));
+  }
+
+  /** Tests that sprites are laid out in rows, with sightings outside of the image missing */
+  @Test
+  public void testSpriteSheet() throws Exception {
+    int old = Flags.SPRITE_SHEET_WIDTH;
+    Flags.SPRITE_SHEET_WIDTH = 100;
+    try {
+      SightingThumbnails.SpriteSheet sheet = thumbnails.getSpriteSheet(Arrays.asList(
+          sighting(1L, 200, 100, 60, 40), sighting(2L, -100, -100, 20, 20),
+          sighting(3L, 300, 100, 30, 50), sighting(4L, 400, 200, 50, 20)))
+          .get(10, TimeUnit.SECONDS);
+
+      assertEquals(Collections.singletonList(2L), sheet.getMissing());
+      List<SightingThumbnails.Sprite> sprites = sheet.getSprites();
+      assertEquals(3, sprites.size());
+      assertSprite(sprites.get(0), 1L, 0, 0, 60, 40);
+      assertSprite(sprites.get(1), 3L, 60, 0, 30, 50);
+      assertSprite(sprites.get(2), 4L, 0, 50, 50, 20);
+      assertEquals(90, sheet.getWidth());
+      assertEquals(70, sheet.getHeight());
+
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(sheet.getJpeg()));
+      assertEquals(90, image.getWidth());
+      assertEquals(70, image.getHeight());
+    } finally {
+      Flags.SPRITE_SHEET_WIDTH = old;
+    }
+  }
+
+  private static void assertSprite(SightingThumbnails.Sprite sprite, long id, int x, int y,
+      int width, int height) {
+    assertEquals(id, (long) sprite.getId());
+    assertEquals(x, sprite.getX());
+    assertEquals(y, sprite.getY());
+    assertEquals(width, sprite.getWidth());
+    assertEquals(height, sprite.getHeight());
+  }
+
+  private BufferedImage render(TargetSighting ts) throws Exception {
+    byte[] jpeg = thumbnails.get(ts).get(10, TimeUnit.SECONDS);
+    return ImageIO.read(new ByteArrayInputStream(jpeg));
+  }
+
+  private TargetSighting sighting(Long id, int pixelx, int pixely, int width, int height)
+      throws Exception {
+    AlphanumTargetSighting ts = new AlphanumTargetSighting(assignment.getAssignee(), null, null,
+        null, null, false, pixelx, pixely, width, height, null, null, null, assignment, null, null,
+        null, null, null, null, null);
+    if (id != null) {
+      // ids are otherwise only assigned by the database
+      Field field = CUAirModel.class.getDeclaredField("id");
+      field.setAccessible(true);
+      field.set(ts, id);
+    }
+    return ts;
+  }
+}
@@ -0,0 +1,70 @@
+package org.cuair.ground.imaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TileCacheTest {
+
+  private Path dir;
+  private TileCache<String> cache;
+
+  /** Before each test, create a cache holding two 100 byte tiles in memory and three on disk */
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("tile-cache");
+    cache = new TileCache<>(dir.resolve("cache"), 200, 300);
+  }
+
+  /** After each test, delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  /** Tests that the least recently used tiles are spilled to disk and read back */
+  @Test
+  public void testSpill() throws Exception {
+    cache.put("a", tile(1));
+    cache.put("b", tile(2));
+    // touch a so b is the least recently used
+    cache.get("a");
+    cache.put("c", tile(3));
+
+    assertArrayEquals(new long[] {200, 100}, cache.getBytes());
+    assertTrue(Files.isRegularFile(dir.resolve("cache").resolve("b")));
+    assertArrayEquals(tile(2), cache.get("b"));
+    assertArrayEquals(tile(1), cache.get("a"));
+    assertArrayEquals(tile(3), cache.get("c"));
+    assertNull(cache.get("d"));
+  }
+
+  /** Tests that the least recently spilled tiles are deleted once the disk is full */
+  @Test
+  public void testDiskEviction() throws Exception {
+    for (int i = 0; i < 6; i++) {
+      cache.put("t" + i, tile(i));
+    }
+    assertArrayEquals(new long[] {200, 300}, cache.getBytes());
+    assertNull(cache.get("t0"));
+    try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+      assertEquals(3, files.count());
+    }
+    assertArrayEquals(tile(1), cache.get("t1"));
+  }
+
+  private static byte[] tile(int value) {
+    byte[] tile = new byte[100];
+    tile[0] = (byte) value;
+    return tile;
+  }
+}
@@ -0,0 +1,102 @@
+package org.cuair.ground.ingest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.output.NullOutputStream;
+import org.cuair.ground.util.Flags;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the per-image CPU time of removing the EXIF of a full resolution frame by decoding and
+ * re-encoding it (what ingest used to do) against rewriting its segments. Run with
+ * {@code gradle benchmark}.
+ */
+public class ExifStrippingBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(ExifStrippingBenchmark.class);
+
+  private static final int WARMUP_ITERATIONS = 2;
+  private static final int ITERATIONS = 5;
+
+  /** A full resolution JPEG with an EXIF segment */
+  private static byte[] frame;
+
+  private static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  /** Encodes a noisy frame at the raw camera resolution */
+  @BeforeClass
+  public static void createFrame() throws Exception {
+    int width = (int) Flags.RAW_IMAGE_WIDTH;
+    int height = (int) Flags.RAW_IMAGE_HEIGHT;
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(0);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int v = ((x ^ y) & 0xFF) / 2 + random.nextInt(128);
+        image.setRGB(x, y, (v << 16) | ((255 - v) << 8) | (v / 2));
+      }
+    }
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", encoded);
+    byte[] jpeg = encoded.toByteArray();
+
+    // splice a small EXIF segment in after the start of image marker
+    byte[] exif = {(byte) 0xFF, (byte) 0xE1, 0x00, 0x10, 'E', 'x', 'i', 'f', 0, 0,
+        'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08};
+    frame = new byte[jpeg.length + exif.length];
+    System.arraycopy(jpeg, 0, frame, 0, 2);
+    System.arraycopy(exif, 0, frame, 2, exif.length);
+    System.arraycopy(jpeg, 2, frame, 2 + exif.length, jpeg.length - 2);
+  }
+
+  /** Benchmarks both ways of removing the EXIF and logs CPU time per image */
+  @Test
+  public void benchmarkExifRemoval() throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      reencode();
+      rewrite();
+    }
+
+    long reencodeNanos = 0;
+    long rewriteNanos = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = threads.getCurrentThreadCpuTime();
+      reencode();
+      long middle = threads.getCurrentThreadCpuTime();
+      rewrite();
+      rewriteNanos += threads.getCurrentThreadCpuTime() - middle;
+      reencodeNanos += middle - start;
+    }
+
+    double reencodeMs = reencodeNanos / 1e6 / ITERATIONS;
+    double rewriteMs = rewriteNanos / 1e6 / ITERATIONS;
+    logger.info(String.format(
+        "EXIF removal on a %dx%d frame (%d bytes): decode/re-encode %.1f ms CPU/image, "
+            + "segment rewrite %.2f ms CPU/image",
+        (int) Flags.RAW_IMAGE_WIDTH, (int) Flags.RAW_IMAGE_HEIGHT, frame.length,
+        reencodeMs, rewriteMs));
+    assertTrue(rewriteMs < reencodeMs);
+  }
+
+  private static void reencode() throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(frame));
+    ImageIO.write(image, "jpg", NullOutputStream.NULL_OUTPUT_STREAM);
+  }
+
+  private static void rewrite() throws IOException {
+    ExifStrippingOutputStream out =
+        new ExifStrippingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+    out.write(frame);
+    out.close();
+  }
+}
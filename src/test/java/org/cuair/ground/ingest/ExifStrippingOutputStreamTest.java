@@ -0,0 +1,158 @@
+package org.cuair.ground.ingest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.xmp.XmpDirectory;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.imageio.ImageIO;
+import org.cuair.ground.util.Flags;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExifStrippingOutputStreamTest {
+
+  private byte[] jpeg;
+
+  /** Before each test, load the test image, which has both EXIF and XMP segments */
+  @Before
+  public void setup() throws Exception {
+    jpeg = Files.readAllBytes(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"));
+  }
+
+  /** Tests that the EXIF and XMP segments are dropped */
+  @Test
+  public void testStripsApp1Segments() throws Exception {
+    Metadata before = ImageMetadataReader.readMetadata(new ByteArrayInputStream(jpeg));
+    assertTrue(before.containsDirectoryOfType(ExifIFD0Directory.class));
+    assertTrue(before.containsDirectoryOfType(XmpDirectory.class));
+
+    Metadata after = ImageMetadataReader.readMetadata(new ByteArrayInputStream(strip(jpeg)));
+    assertFalse(after.containsDirectoryOfType(ExifIFD0Directory.class));
+    assertFalse(after.containsDirectoryOfType(XmpDirectory.class));
+  }
+
+  /** Tests that the image data is copied as is rather than recompressed */
+  @Test
+  public void testImageUnchanged() throws Exception {
+    BufferedImage before = ImageIO.read(new ByteArrayInputStream(jpeg));
+    BufferedImage after = ImageIO.read(new ByteArrayInputStream(strip(jpeg)));
+
+    assertEquals(before.getWidth(), after.getWidth());
+    assertEquals(before.getHeight(), after.getHeight());
+    int w = before.getWidth();
+    int h = before.getHeight();
+    assertArrayEquals(before.getRGB(0, 0, w, h, null, 0, w), after.getRGB(0, 0, w, h, null, 0, w));
+  }
+
+  /** Tests the exact output for a minimal JPEG structure */
+  @Test
+  public void testSegments() throws Exception {
+    byte[] input = bytes(
+        0xFF, 0xD8, // SOI
+        0xFF, 0xE0, 0x00, 0x04, 0x4A, 0x46, // APP0
+        0xFF, 0xE1, 0x00, 0x06, 0x45, 0x78, 0x69, 0x66, // APP1
+        0xFF, 0xFF, 0xDB, 0x00, 0x03, 0x01, // fill byte, then DQT
+        0xFF, 0xDA, 0x00, 0x02, // SOS
+        0xFF, 0xE1, 0x12, 0xFF, 0x00, // image data, which is never parsed
+        0xFF, 0xD9 // EOI
+    );
+    byte[] expected = bytes(
+        0xFF, 0xD8,
+        0xFF, 0xE0, 0x00, 0x04, 0x4A, 0x46,
+        0xFF, 0xDB, 0x00, 0x03, 0x01,
+        0xFF, 0xDA, 0x00, 0x02,
+        0xFF, 0xE1, 0x12, 0xFF, 0x00,
+        0xFF, 0xD9
+    );
+    assertArrayEquals(expected, strip(input));
+  }
+
+  /** Tests that writing a byte at a time gives the same result as writing in bulk */
+  @Test
+  public void testByteAtATime() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream out = new ExifStrippingOutputStream(baos)) {
+      for (byte b : jpeg) {
+        out.write(b);
+      }
+    }
+    assertArrayEquals(strip(jpeg), baos.toByteArray());
+  }
+
+  /** Tests that data that isn't a JPEG is passed through untouched */
+  @Test
+  public void testNotJpeg() throws Exception {
+    byte[] png = bytes(0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A, 0xFF, 0xE1, 0x00, 0x02);
+    assertArrayEquals(png, strip(png));
+
+    byte[] almostJpeg = bytes(0xFF, 0xD9, 0xFF, 0xE1, 0x00, 0x02);
+    assertArrayEquals(almostJpeg, strip(almostJpeg));
+  }
+
+  /** Tests that a stream cut off in the middle of a marker keeps the bytes of the marker */
+  @Test
+  public void testTruncatedTrailer() throws Exception {
+    byte[] lone = bytes(0xFF);
+    assertArrayEquals(lone, strip(lone));
+
+    byte[] prefix = bytes(0xFF, 0xD8, 0xFF);
+    assertArrayEquals(prefix, strip(prefix));
+
+    byte[] header = bytes(0xFF, 0xD8, 0xFF, 0xDB, 0x00);
+    assertArrayEquals(header, strip(header));
+
+    // an APP1 segment that was cut off is still dropped
+    assertArrayEquals(bytes(0xFF, 0xD8), strip(bytes(0xFF, 0xD8, 0xFF, 0xE1, 0x00)));
+  }
+
+  /** Tests that the stored upload has no EXIF but keeps the metadata that was read from it */
+  @Test
+  public void testStoreStripsExif() throws Exception {
+    ImageIngest.StoredImage stored =
+        ImageIngest.store(new ByteArrayInputStream(jpeg), Files.createTempDirectory("ingest"));
+    try {
+      assertEquals("image/jpeg", stored.getContentType());
+      assertTrue(stored.getMetadata().containsDirectoryOfType(ExifIFD0Directory.class));
+      assertArrayEquals(strip(jpeg), Files.readAllBytes(stored.getFile()));
+      assertNull(ImageMetadataReader.readMetadata(stored.getFile().toFile())
+          .getFirstDirectoryOfType(ExifIFD0Directory.class));
+    } finally {
+      Files.deleteIfExists(stored.getFile());
+    }
+  }
+
+  /**
+   * Runs the given bytes through an ExifStrippingOutputStream
+   *
+   * @param input the bytes to write
+   * @return the bytes that came out the other end
+   */
+  static byte[] strip(byte[] input) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream out = new ExifStrippingOutputStream(baos)) {
+      out.write(input);
+    }
+    return baos.toByteArray();
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] b = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      b[i] = (byte) values[i];
+    }
+    return b;
+  }
+}
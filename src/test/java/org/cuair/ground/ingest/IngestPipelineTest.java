@@ -0,0 +1,280 @@
+package org.cuair.ground.ingest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.geotag.FOV;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IngestPipelineTest {
+
+  private static final int FOCAL_LENGTH = 35;
+
+  private Path imageDir;
+  private Path stagingDir;
+  private byte[] jpeg;
+  private List<Image> persisted;
+  private IngestPipeline pipeline;
+
+  /** Before each test, create fresh directories and load the test image */
+  @Before
+  public void setup() throws Exception {
+    imageDir = Files.createTempDirectory("images");
+    stagingDir = imageDir.resolve("staging");
+    jpeg = withFocalLength(
+        Files.readAllBytes(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg")), FOCAL_LENGTH);
+    persisted = new CopyOnWriteArrayList<>();
+  }
+
+  /** After each test, stop the pipeline and delete the directories */
+  @After
+  public void cleanup() throws Exception {
+    if (pipeline != null) {
+      pipeline.shutDown();
+    }
+    FileUtils.deleteDirectory(imageDir.toFile());
+  }
+
+  /** Tests that an upload makes it all the way through the pipeline */
+  @Test
+  public void testIngest() throws Exception {
+    pipeline = new IngestPipeline(stagingDir, imageDir, 2, 8, persisted::add);
+    IngestPipeline.Status status = submit(1000L, jpeg);
+    assertNotNull(status);
+
+    await(() -> pipeline.getStatus(1000L) == null);
+    assertEquals(IngestPipeline.State.VISIBLE, status.getState());
+    assertEquals(1, persisted.size());
+
+    Image image = persisted.get(0);
+    FOV expected = FOV.fromFocalLength(FOCAL_LENGTH);
+    assertEquals(expected.getX(), image.getFov().getX(), 1e-9);
+    assertEquals(expected.getY(), image.getFov().getY(), 1e-9);
+    assertEquals("/api/v1/image/file/1000.jpeg", image.getImageUrl());
+    assertArrayEquals(ExifStrippingOutputStreamTest.strip(jpeg),
+        Files.readAllBytes(imageDir.resolve("1000.jpeg")));
+    assertStagingEmpty();
+  }
+
+  /** Tests that an image without a focal length fails with the same error as a synchronous post */
+  @Test
+  public void testIngestNoFocalLength() throws Exception {
+    pipeline = new IngestPipeline(stagingDir, imageDir, 2, 8, persisted::add);
+    byte[] noFocalLength = Files.readAllBytes(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"));
+    IngestPipeline.Status status = submit(1000L, noFocalLength);
+
+    await(() -> status.getState() == IngestPipeline.State.FAILED);
+    assertEquals(500, status.getErrorStatus().value());
+    assertTrue(status.getError().startsWith("Error when extracting focal length"));
+    assertTrue(persisted.isEmpty());
+    assertStagingEmpty();
+    try (Stream<Path> files = Files.list(imageDir)) {
+      assertFalse(files.anyMatch(Files::isRegularFile));
+    }
+
+    // a failed upload may be retried
+    submit(1000L, jpeg);
+    await(() -> persisted.size() == 1);
+  }
+
+  /** Tests that an image that can't be saved leaves no file behind, so it may be retried */
+  @Test
+  public void testIngestSaveFails() throws Exception {
+    pipeline = new IngestPipeline(stagingDir, imageDir, 2, 8, image -> {
+      throw new IllegalStateException("database is down");
+    });
+    IngestPipeline.Status status = submit(1000L, jpeg);
+
+    await(() -> status.getState() == IngestPipeline.State.FAILED);
+    assertEquals(500, status.getErrorStatus().value());
+    assertStagingEmpty();
+    assertFalse(Files.exists(imageDir.resolve("1000.jpeg")));
+
+    pipeline.shutDown();
+    pipeline = new IngestPipeline(stagingDir, imageDir, 2, 8, persisted::add);
+    IngestPipeline.Status retry = submit(1000L, jpeg);
+    await(() -> pipeline.getStatus(1000L) == null);
+    assertEquals(IngestPipeline.State.VISIBLE, retry.getState());
+    assertEquals(1, persisted.size());
+  }
+
+  /** Tests that failed uploads are forgotten once they have been reported for long enough */
+  @Test
+  public void testFailedStatusExpires() throws Exception {
+    pipeline = new IngestPipeline(stagingDir, imageDir, 2, 8, persisted::add);
+    byte[] noFocalLength = Files.readAllBytes(Paths.get(Flags.TEST_IMAGE_DIR + "test_0.jpg"));
+    IngestPipeline.Status status = submit(1000L, noFocalLength);
+    await(() -> status.getState() == IngestPipeline.State.FAILED);
+    assertEquals(status, pipeline.getStatus(1000L));
+
+    long ttl = Flags.INGEST_FAILED_STATUS_MILLIS;
+    Flags.INGEST_FAILED_STATUS_MILLIS = 0;
+    try {
+      Thread.sleep(5);
+      assertNull(pipeline.getStatus(1000L));
+      submit(2000L, noFocalLength);
+      await(() -> pipeline.getStatus(2000L) == null);
+    } finally {
+      Flags.INGEST_FAILED_STATUS_MILLIS = ttl;
+    }
+  }
+
+  /** Tests that a second upload with the same timestamp is turned away while the first is queued */
+  @Test
+  public void testDuplicateTimestamp() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    pipeline = new IngestPipeline(stagingDir, imageDir, 1, 8, blockUntil(release));
+    IngestPipeline.Status status = submit(1000L, jpeg);
+    try {
+      submit(1000L, jpeg);
+      fail("Expected FileAlreadyExistsException");
+    } catch (FileAlreadyExistsException e) {
+      // expected
+    }
+    release.countDown();
+    await(() -> pipeline.getStatus(1000L) == null);
+    assertEquals(IngestPipeline.State.VISIBLE, status.getState());
+    assertEquals(1, persisted.size());
+  }
+
+  /** Tests that new uploads are rejected once the stages are backed up, and resume afterwards */
+  @Test
+  public void testBackpressure() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    pipeline = new IngestPipeline(stagingDir, imageDir, 1, 1, blockUntil(release));
+
+    int accepted = 0;
+    try {
+      for (long timestamp = 1; timestamp <= 20; timestamp++) {
+        submit(timestamp, jpeg);
+        accepted++;
+        // let the stages take what they can before the next upload arrives
+        Thread.sleep(100);
+      }
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertTrue(accepted > 1);
+    assertEquals(1, (int) pipeline.getQueueDepths().get("metadata"));
+    assertNull(pipeline.getStatus(accepted + 1));
+
+    release.countDown();
+    int expected = accepted;
+    await(() -> persisted.size() == expected);
+    assertStagingEmpty();
+  }
+
+  /** Tests that uploads left in the staging directory are processed on recovery */
+  @Test
+  public void testRecover() throws Exception {
+    Files.createDirectories(stagingDir);
+    Files.write(stagingDir.resolve("1000.upload"), jpeg);
+    Files.write(stagingDir.resolve("1000.json"), json(1000L).getBytes(StandardCharsets.UTF_8));
+    Files.write(stagingDir.resolve("2000.upload.part"), jpeg);
+
+    pipeline = new IngestPipeline(stagingDir, imageDir, 1, 8, persisted::add);
+    pipeline.recover();
+
+    await(() -> persisted.size() == 1);
+    assertEquals(1000L, persisted.get(0).getTimestamp().getTime());
+    await(() -> pipeline.getStatus(1000L) == null);
+    assertStagingEmpty();
+  }
+
+  private IngestPipeline.Status submit(long timestamp, byte[] file) throws Exception {
+    Image image = new Image(null, new Telemetry(new GpsLocation(42.44, -76.61), 100.0, 0.0,
+        new GimbalOrientation(0.0, 0.0)), null, Image.ImgMode.FIXED);
+    image.setTimestamp(new Timestamp(timestamp));
+    return pipeline.submit(image, json(timestamp), new ByteArrayInputStream(file));
+  }
+
+  private Consumer<Image> blockUntil(CountDownLatch release) {
+    return image -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      persisted.add(image);
+    };
+  }
+
+  private void assertStagingEmpty() throws Exception {
+    try (Stream<Path> files = Files.list(stagingDir)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        fail("Timed out waiting for the pipeline");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private static String json(long timestamp) {
+    return "{\"timestamp\": " + timestamp + ", \"imgMode\": \"fixed\", \"telemetry\": "
+        + "{\"altitude\": 100.0, \"planeYaw\": 0.0, "
+        + "\"gps\": {\"latitude\": 42.44, \"longitude\": -76.61}, "
+        + "\"gimOrt\": {\"pitch\": 0.0, \"roll\": 0.0}}}";
+  }
+
+  /**
+   * Inserts an EXIF segment holding only a focal length right after the start of image marker
+   *
+   * @param jpeg the jpeg to add the focal length to
+   * @param focalLength the focal length in mm
+   * @return the jpeg with the focal length
+   */
+  static byte[] withFocalLength(byte[] jpeg, int focalLength) {
+    byte[] exif = {
+        (byte) 0xFF, (byte) 0xE1, 0x00, 0x3C, 'E', 'x', 'i', 'f', 0, 0,
+        // TIFF header, big endian, first IFD at offset 8
+        'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08,
+        // IFD0: one entry pointing at the Exif sub-IFD at offset 26
+        0x00, 0x01, (byte) 0x87, 0x69, 0x00, 0x04, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x1A,
+        0x00, 0x00, 0x00, 0x00,
+        // Exif sub-IFD: one rational focal length stored at offset 44
+        0x00, 0x01, (byte) 0x92, 0x0A, 0x00, 0x05, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x2C,
+        0x00, 0x00, 0x00, 0x00,
+        0x00, 0x00, 0x00, (byte) focalLength, 0x00, 0x00, 0x00, 0x01
+    };
+    byte[] result = new byte[jpeg.length + exif.length];
+    System.arraycopy(jpeg, 0, result, 0, 2);
+    System.arraycopy(exif, 0, result, 2, exif.length);
+    System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+    return result;
+  }
+}
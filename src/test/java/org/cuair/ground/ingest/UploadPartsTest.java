@@ -0,0 +1,147 @@
+package org.cuair.ground.ingest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.cuair.ground.util.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class UploadPartsTest {
+
+  private static final String BOUNDARY = "upload-boundary";
+
+  private static final String JSON = "{\"timestamp\":1234}";
+
+  private static final byte[] FILE = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+  private Path stagingDir;
+  private String oldStagingDir;
+  private long oldMaxUpload;
+
+  /** Before each test, stage set aside parts in a fresh directory */
+  @Before
+  public void setup() throws Exception {
+    stagingDir = Files.createTempDirectory("staging");
+    oldStagingDir = Flags.INGEST_STAGING_DIR;
+    oldMaxUpload = Flags.MAX_IMAGE_UPLOAD_BYTES;
+    Flags.INGEST_STAGING_DIR = stagingDir.toString() + "/";
+  }
+
+  /** After each test, restore the flags and delete the directory */
+  @After
+  public void cleanup() throws Exception {
+    Flags.INGEST_STAGING_DIR = oldStagingDir;
+    Flags.MAX_IMAGE_UPLOAD_BYTES = oldMaxUpload;
+    FileUtils.deleteDirectory(stagingDir.toFile());
+  }
+
+  /** Tests that a file part after the json part is read straight off the body */
+  @Test
+  public void testJsonFirst() throws Exception {
+    try (UploadParts parts = UploadParts.of(request(true))) {
+      assertEquals(JSON, parts.getJson());
+      try (InputStream in = parts.getFile()) {
+        assertArrayEquals(FILE, IOUtils.toByteArray(in));
+      }
+      assertEquals(0, countStaged());
+    }
+  }
+
+  /** Tests that a file part before the json part is set aside, and deleted once it is read */
+  @Test
+  public void testFileFirst() throws Exception {
+    try (UploadParts parts = UploadParts.of(request(false))) {
+      assertEquals(JSON, parts.getJson());
+      assertEquals(1, countStaged());
+      try (InputStream in = parts.getFile()) {
+        assertArrayEquals(FILE, IOUtils.toByteArray(in));
+      }
+    }
+    assertEquals(0, countStaged());
+  }
+
+  /** Tests that missing parts are reported as null */
+  @Test
+  public void testMissingParts() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/image");
+    request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+    request.setContent(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    try (UploadParts parts = UploadParts.of(request)) {
+      assertNull(parts.getJson());
+      assertNull(parts.getFile());
+    }
+  }
+
+  /** Tests that uploads that aren't multipart or that are too large are refused */
+  @Test
+  public void testRefused() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/image");
+    request.setContentType("application/json");
+    request.setContent(JSON.getBytes(StandardCharsets.UTF_8));
+    assertRefused(request, HttpStatus.BAD_REQUEST);
+
+    Flags.MAX_IMAGE_UPLOAD_BYTES = 16;
+    assertRefused(request(true), HttpStatus.PAYLOAD_TOO_LARGE);
+  }
+
+  private static void assertRefused(MockHttpServletRequest request, HttpStatus status)
+      throws Exception {
+    try (UploadParts parts = UploadParts.of(request)) {
+      parts.getJson();
+      fail("Expected the upload to be refused");
+    } catch (IngestException e) {
+      assertEquals(status, e.getStatus());
+    }
+  }
+
+  private long countStaged() throws Exception {
+    try (Stream<Path> files = Files.list(stagingDir)) {
+      return files.count();
+    }
+  }
+
+  private static MockHttpServletRequest request(boolean jsonFirst) throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    if (jsonFirst) {
+      writeJson(body);
+      writeFile(body);
+    } else {
+      writeFile(body);
+      writeJson(body);
+    }
+    body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/image");
+    request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+    request.setContent(body.toByteArray());
+    return request;
+  }
+
+  private static void writeJson(ByteArrayOutputStream body) throws Exception {
+    body.write(("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"json\"\r\n"
+        + "Content-Type: application/json\r\n\r\n"
+        + JSON + "\r\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeFile(ByteArrayOutputStream body) throws Exception {
+    body.write(("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"files\"; filename=\"1234.jpeg\"\r\n"
+        + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    body.write(FILE);
+    body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+  }
+}
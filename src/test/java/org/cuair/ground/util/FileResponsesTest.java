@@ -0,0 +1,155 @@
+package org.cuair.ground.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class FileResponsesTest {
+
+  private Path dir;
+  private Path file;
+
+  /** Before each test, write a 1000 byte file */
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("files");
+    file = Files.write(dir.resolve("1234.jpeg"), new byte[1000]);
+  }
+
+  /** After each test, delete the file */
+  @After
+  public void cleanup() throws Exception {
+    Files.delete(file);
+    Files.delete(dir);
+  }
+
+  /** Tests that file names can't escape the directory they are served from */
+  @Test
+  public void testResolve() {
+    assertEquals(file.toAbsolutePath(), FileResponses.resolve(dir, "1234.jpeg"));
+    assertNull(FileResponses.resolve(dir, "../1234.jpeg"));
+    assertNull(FileResponses.resolve(dir, "/etc/passwd"));
+    assertNull(FileResponses.resolve(dir, "."));
+  }
+
+  /** Tests that the whole file is handed to the container when it supports sendfile */
+  @Test
+  public void testSendfile() throws Exception {
+    MockHttpServletRequest request = sendfileRequest();
+    ResponseEntity<Resource> response = FileResponses.serve(file, new HttpHeaders(), request);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNull(response.getBody());
+    assertEquals(1000, response.getHeaders().getContentLength());
+    assertEquals(file.toAbsolutePath().toString(),
+        request.getAttribute("org.apache.tomcat.sendfile.filename"));
+    assertEquals(0L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+    assertEquals(1000L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+  }
+
+  /** Tests that a single range is handed to the container when it supports sendfile */
+  @Test
+  public void testSendfileRange() throws Exception {
+    MockHttpServletRequest request = sendfileRequest();
+    request.addHeader(HttpHeaders.RANGE, "bytes=-100");
+    ResponseEntity<Resource> response = FileResponses.serve(file, new HttpHeaders(), request);
+
+    assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+    assertEquals(100, response.getHeaders().getContentLength());
+    assertEquals("bytes 900-999/1000", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    assertEquals(900L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+    assertEquals(1000L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+
+    request = sendfileRequest();
+    request.addHeader(HttpHeaders.RANGE, "bytes=1000-");
+    response = FileResponses.serve(file, new HttpHeaders(), request);
+    assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+    assertEquals("bytes */1000", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+  }
+
+  /** Tests that the file is streamed by Spring when the container can't send it */
+  @Test
+  public void testNoSendfile() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/image/file/1234.jpeg");
+    ResponseEntity<Resource> response = FileResponses.serve(file, new HttpHeaders(), request);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(Paths.get(response.getBody().getURI()), file);
+    assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+  }
+
+  /** Tests that requests for a copy the client already has get a 304 with no file */
+  @Test
+  public void testNotModified() throws Exception {
+    ResponseEntity<Resource> response =
+        FileResponses.serve(file, new HttpHeaders(), sendfileRequest());
+    String etag = response.getHeaders().getETag();
+    long lastModified = response.getHeaders().getLastModified();
+    assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+
+    MockHttpServletRequest request = sendfileRequest();
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+    response = FileResponses.serve(file, new HttpHeaders(), request);
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals(etag, response.getHeaders().getETag());
+    assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+
+    request = sendfileRequest();
+    request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+    response = FileResponses.serve(file, new HttpHeaders(), request);
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+
+    // a rewritten file gets a new ETag
+    Files.write(file, new byte[1001]);
+    request = sendfileRequest();
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+    response = FileResponses.serve(file, new HttpHeaders(), request);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNotEquals(etag, response.getHeaders().getETag());
+  }
+
+  /** Tests that content rendered in memory is served under an ETag that follows the content */
+  @Test
+  public void testServeBytes() throws Exception {
+    byte[] body = {1, 2, 3};
+    ResponseEntity<byte[]> response = FileResponses.serve(body, MediaType.IMAGE_JPEG,
+        new HttpHeaders(), new MockHttpServletRequest("GET", "/thumbnails/sprite"));
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(MediaType.IMAGE_JPEG, response.getHeaders().getContentType());
+    assertEquals(FileResponses.etag(body), response.getHeaders().getETag());
+    assertArrayEquals(body, response.getBody());
+
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/thumbnails/sprite");
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, FileResponses.etag(body));
+    response = FileResponses.serve(body, MediaType.IMAGE_JPEG, new HttpHeaders(), request);
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertNull(response.getBody());
+
+    request = new MockHttpServletRequest("GET", "/thumbnails/sprite");
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, FileResponses.etag(body));
+    response = FileResponses.serve(new byte[] {1, 2, 4}, MediaType.IMAGE_JPEG, new HttpHeaders(),
+        request);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+  }
+
+  private static MockHttpServletRequest sendfileRequest() {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/image/file/1234.jpeg");
+    request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+    return request;
+  }
+}
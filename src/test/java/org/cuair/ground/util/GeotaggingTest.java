@@ -0,0 +1,82 @@
+package org.cuair.ground.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Map;
+import org.cuair.ground.models.Image;
+import org.cuair.ground.models.Image.ImgMode;
+import org.cuair.ground.models.geotag.FOV;
+import org.cuair.ground.models.geotag.GimbalOrientation;
+import org.cuair.ground.models.geotag.GpsLocation;
+import org.cuair.ground.models.geotag.Telemetry;
+import org.junit.Test;
+
+public class GeotaggingTest {
+
+  private static final double LATITUDE = 38.1452;
+  private static final double LONGITUDE = -76.4281;
+  private static final double EPSILON = 1e-9;
+
+  private static final FOV fov = new FOV(1.0, 0.8);
+
+  /**
+   * Tests that the footprint of an image taken at an angle is found with the angles of the
+   * telemetry, which are in degrees, turned into radians
+   */
+  @Test
+  public void testFootprintAngles() throws Exception {
+    Telemetry telemetry = telemetry(10.0, -15.0, 35.0);
+    GpsLocation[] footprint = Geotagging.getFootprint(telemetry, fov);
+    assertNotNull(footprint);
+
+    double[][] corners = {{0, 0}, {Geotagging.IMAGE_WIDTH, 0},
+        {Geotagging.IMAGE_WIDTH, Geotagging.IMAGE_HEIGHT}, {0, Geotagging.IMAGE_HEIGHT}};
+    for (int i = 0; i < corners.length; i++) {
+      assertLocation(Geotagging.getPixelCoordinates(LATITUDE, LONGITUDE, 100.0, fov,
+          corners[i][0], corners[i][1], Math.toRadians(10.0), Math.toRadians(-15.0),
+          Math.toRadians(35.0)), footprint[i]);
+    }
+  }
+
+  /** Tests that the corners of an image are its footprint */
+  @Test
+  public void testLocations() throws Exception {
+    Telemetry telemetry = telemetry(10.0, -15.0, 35.0);
+    GpsLocation[] footprint = Geotagging.getFootprint(telemetry, fov);
+    Map<String, Object> corners = new Image("/image/0", telemetry, fov, ImgMode.FIXED)
+        .getLocations();
+    assertLocation((GpsLocation) corners.get("topLeft"), footprint[0]);
+    assertLocation((GpsLocation) corners.get("topRight"), footprint[1]);
+    assertLocation((GpsLocation) corners.get("bottomRight"), footprint[2]);
+    assertLocation((GpsLocation) corners.get("bottomLeft"), footprint[3]);
+  }
+
+  /** Tests that turning the plane around turns the footprint around the plane */
+  @Test
+  public void testFootprintYaw() throws Exception {
+    GpsLocation[] north = Geotagging.getFootprint(telemetry(0.0, 0.0, 0.0), fov);
+    GpsLocation[] south = Geotagging.getFootprint(telemetry(0.0, 0.0, 180.0), fov);
+    assertNotNull(north);
+    assertNotNull(south);
+
+    for (int i = 0; i < north.length; i++) {
+      GpsLocation opposite = south[(i + 2) % north.length];
+      assertEquals(north[i].getLatitude(), opposite.getLatitude(), EPSILON);
+      assertEquals(north[i].getLongitude(), opposite.getLongitude(), EPSILON);
+      assertEquals(north[i].getLatitude() - LATITUDE, LATITUDE - south[i].getLatitude(), EPSILON);
+      assertEquals(north[i].getLongitude() - LONGITUDE, LONGITUDE - south[i].getLongitude(),
+          EPSILON);
+    }
+  }
+
+  private static Telemetry telemetry(double roll, double pitch, double yaw) throws Exception {
+    return new Telemetry(new GpsLocation(LATITUDE, LONGITUDE), 100.0, yaw,
+        new GimbalOrientation(pitch, roll));
+  }
+
+  private static void assertLocation(GpsLocation expected, GpsLocation actual) {
+    assertEquals(expected.getLatitude(), actual.getLatitude(), EPSILON);
+    assertEquals(expected.getLongitude(), actual.getLongitude(), EPSILON);
+  }
+}
@@ -0,0 +1,57 @@
+package org.cuair.ground.util;
+
+import io.ebean.test.LoggedSql;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fails a test when some code, e.g. a request to a list endpoint, sends more statements to the
+ * database than its budget. A budget that doesn't grow with the number of models listed catches
+ * associations that are lazily loaded one model at a time.
+ */
+public class QueryBudget {
+
+  /** The number of budgets being checked, as statements are logged for all of them at once */
+  private static final AtomicInteger active = new AtomicInteger();
+
+  private QueryBudget() {}
+
+  /**
+   * Checks whether a budget is being checked already, e.g. one a test put around a request, which
+   * the budget of the endpoint then leaves alone
+   *
+   * @return whether statements are being logged for a budget
+   */
+  public static boolean isActive() {
+    return active.get() > 0;
+  }
+
+  /**
+   * Runs some code and checks how many statements it sent to the database
+   *
+   * @param budget the most statements the code may send
+   * @param work the code to run
+   * @param <T> the type of result of the code
+   * @return the result of the code
+   * @throws AssertionError if more than {@code budget} statements were sent, listing them
+   * @throws Exception if the code throws
+   */
+  public static <T> T assertWithin(int budget, Callable<T> work) throws Exception {
+    active.incrementAndGet();
+    LoggedSql.start();
+    T result;
+    List<String> statements;
+    try {
+      result = work.call();
+    } finally {
+      statements = LoggedSql.stop();
+      active.decrementAndGet();
+    }
+    if (statements.size() > budget) {
+      throw new AssertionError("Expected at most " + budget + " statements but "
+          + statements.size() + " were sent:\n" + String.join("\n", statements));
+    }
+    return result;
+  }
+}